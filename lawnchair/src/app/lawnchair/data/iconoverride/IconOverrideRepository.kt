@@ -18,9 +18,15 @@ class IconOverrideRepository(private val context: Context) {
 
     private val scope = MainScope() + CoroutineName("IconOverrideRepository")
     private val dao = AppDatabase.INSTANCE.get(context).iconOverrideDao()
+    @Volatile
     private var _overridesMap = mapOf<ComponentKey, IconPickerItem>()
     val overridesMap get() = _overridesMap
 
+    /** Incremented every time [overridesMap] is replaced */
+    @Volatile
+    var version = 0
+        private set
+
     private val updatePackageQueue = ConcurrentLinkedQueue<ComponentKey>()
 
     init {
@@ -32,6 +38,7 @@ class IconOverrideRepository(private val context: Context) {
                         keySelector = { it.target },
                         valueTransform = { it.iconPickerItem },
                     )
+                    version++
                     while (updatePackageQueue.isNotEmpty()) {
                         val target = updatePackageQueue.poll() ?: continue
                         updatePackageIcons(target)
@@ -0,0 +1,151 @@
+package app.lawnchair.icons
+
+import android.content.ComponentName
+import android.content.Context
+import android.util.Log
+import androidx.core.content.pm.PackageInfoCompat
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+
+/**
+ * The parsed `appfilter` of an icon pack.
+ *
+ * Clocks are kept as the raw attributes of their `dynamic-clock` tag, in the order taken by
+ * [ClockMetadata]'s constructor.
+ */
+internal class AppFilter(
+    val components: Map<ComponentName, String>,
+    val calendars: Map<ComponentName, String>,
+    val clocks: Map<String, IntArray>,
+)
+
+/**
+ * Keeps the parsed `appfilter` of each icon pack in a compact binary file, so that it's only
+ * parsed again when the pack is updated. The file is memory mapped when read.
+ *
+ * Layout, all integers big endian:
+ * - header: magic, format version, pack version code (long), pack update time (long)
+ * - string table: count, then for each string its length in bytes and its UTF-8 bytes
+ * - components and calendars: count, then package, class and drawable string indexes
+ * - clocks: count, then the drawable string index and [CLOCK_ATTRIBUTE_COUNT] ints
+ */
+internal object AppFilterCache {
+
+    private const val TAG = "AppFilterCache"
+    private const val DIR_NAME = "icon_pack_appfilter"
+    private const val MAGIC = 0x4c414646 // LAFF
+    private const val FORMAT_VERSION = 1
+    const val CLOCK_ATTRIBUTE_COUNT = 6
+
+    fun read(context: Context, packPackageName: String): AppFilter? {
+        val file = getFile(context, packPackageName)
+        if (!file.exists()) return null
+        return try {
+            RandomAccessFile(file, "r").use { raf ->
+                val buffer = raf.channel.map(FileChannel.MapMode.READ_ONLY, 0, raf.length())
+                if (buffer.int != MAGIC || buffer.int != FORMAT_VERSION) return null
+                val (versionCode, updateTime) = getPackVersion(context, packPackageName) ?: return null
+                if (buffer.long != versionCode || buffer.long != updateTime) return null
+
+                val strings = Array(buffer.int) {
+                    val bytes = ByteArray(buffer.int)
+                    buffer.get(bytes)
+                    String(bytes, Charsets.UTF_8)
+                }
+                val components = readComponents(buffer, strings)
+                val calendars = readComponents(buffer, strings)
+                val clockCount = buffer.int
+                val clocks = HashMap<String, IntArray>(clockCount)
+                repeat(clockCount) {
+                    clocks[strings[buffer.int]] = IntArray(CLOCK_ATTRIBUTE_COUNT) { buffer.int }
+                }
+                AppFilter(components, calendars, clocks)
+            }
+        } catch (e: Exception) {
+            // Truncated or otherwise unreadable, it will be rewritten after parsing the pack
+            Log.w(TAG, "Failed to read the cached appfilter of $packPackageName", e)
+            null
+        }
+    }
+
+    fun write(context: Context, packPackageName: String, appFilter: AppFilter) {
+        val (versionCode, updateTime) = getPackVersion(context, packPackageName) ?: return
+        val stringIndexes = LinkedHashMap<String, Int>()
+        fun indexOf(string: String) = stringIndexes.getOrPut(string) { stringIndexes.size }
+
+        // Index the strings first, the table has to precede the entries referencing it
+        val entries = ByteArrayOutputStream()
+        DataOutputStream(entries).use { out ->
+            writeComponents(out, appFilter.components, ::indexOf)
+            writeComponents(out, appFilter.calendars, ::indexOf)
+            out.writeInt(appFilter.clocks.size)
+            appFilter.clocks.forEach { (drawable, attributes) ->
+                out.writeInt(indexOf(drawable))
+                attributes.forEach { out.writeInt(it) }
+            }
+        }
+
+        val file = getFile(context, packPackageName)
+        val tmpFile = File(file.parentFile, "${file.name}.tmp")
+        try {
+            file.parentFile?.mkdirs()
+            DataOutputStream(tmpFile.outputStream().buffered()).use { out ->
+                out.writeInt(MAGIC)
+                out.writeInt(FORMAT_VERSION)
+                out.writeLong(versionCode)
+                out.writeLong(updateTime)
+                out.writeInt(stringIndexes.size)
+                stringIndexes.keys.forEach {
+                    val bytes = it.toByteArray(Charsets.UTF_8)
+                    out.writeInt(bytes.size)
+                    out.write(bytes)
+                }
+                entries.writeTo(out)
+            }
+            if (!tmpFile.renameTo(file)) {
+                tmpFile.delete()
+            }
+        } catch (e: IOException) {
+            Log.w(TAG, "Failed to cache the appfilter of $packPackageName", e)
+            tmpFile.delete()
+        }
+    }
+
+    private fun readComponents(buffer: ByteBuffer, strings: Array<String>): Map<ComponentName, String> {
+        val count = buffer.int
+        val components = HashMap<ComponentName, String>(count)
+        repeat(count) {
+            val componentName = ComponentName(strings[buffer.int], strings[buffer.int])
+            components[componentName] = strings[buffer.int]
+        }
+        return components
+    }
+
+    private fun writeComponents(
+        out: DataOutputStream,
+        components: Map<ComponentName, String>,
+        indexOf: (String) -> Int,
+    ) {
+        out.writeInt(components.size)
+        components.forEach { (componentName, drawable) ->
+            out.writeInt(indexOf(componentName.packageName))
+            out.writeInt(indexOf(componentName.className))
+            out.writeInt(indexOf(drawable))
+        }
+    }
+
+    fun getPackVersion(context: Context, packPackageName: String): Pair<Long, Long>? = try {
+        val info = context.packageManager.getPackageInfo(packPackageName, 0)
+        PackageInfoCompat.getLongVersionCode(info) to info.lastUpdateTime
+    } catch (_: Exception) {
+        null
+    }
+
+    private fun getFile(context: Context, packPackageName: String) =
+        File(File(context.cacheDir, DIR_NAME), "$packPackageName.bin")
+}
@@ -5,12 +5,15 @@ import android.content.ComponentName
 import android.content.Context
 import android.content.Intent
 import android.content.pm.PackageManager
+import android.content.res.Configuration
 import android.content.res.Resources
 import android.content.res.XmlResourceParser
 import android.graphics.drawable.Drawable
 import android.util.Xml
 import com.android.launcher3.R
 import java.io.IOException
+import java.lang.ref.SoftReference
+import java.util.concurrent.ConcurrentHashMap
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.flow
@@ -23,12 +26,18 @@ class CustomIconPack(context: Context, packPackageName: String) :
     IconPack(context, packPackageName) {
 
     private val packResources = context.packageManager.getResourcesForApplication(packPackageName)
+    private val drawableCache = IconPackDrawableCache(packResources)
     private val componentMap = mutableMapOf<ComponentName, IconEntry>()
     private val calendarMap = mutableMapOf<ComponentName, IconEntry>()
     private val clockMap = mutableMapOf<ComponentName, IconEntry>()
     private val clockMetas = mutableMapOf<IconEntry, ClockMetadata>()
 
-    private val idCache = mutableMapOf<String, Int>()
+    // Icons can be rendered on several threads during the initial load
+    private val idCache = ConcurrentHashMap<String, Int>()
+
+    // Only needed while the icon picker is open
+    @Volatile
+    private var catalogRef: SoftReference<IconPickerCatalog>? = null
 
     override val label = context.packageManager.let { pm ->
         pm.getApplicationInfo(packPackageName, 0).loadLabel(pm).toString()
@@ -51,7 +60,7 @@ class CustomIconPack(context: Context, packPackageName: String) :
         return try {
             ExtendedBitmapDrawable.wrap(
                 packResources,
-                packResources.getDrawableForDensity(id, iconDpi, null),
+                drawableCache.getDrawable(id, iconDpi),
                 true,
             )
         } catch (_: Resources.NotFoundException) {
@@ -59,6 +68,14 @@ class CustomIconPack(context: Context, packPackageName: String) :
         }
     }
 
+    override fun trimMemory(level: Int) {
+        drawableCache.trimMemory(level)
+    }
+
+    override fun onConfigurationChanged(newConfig: Configuration) {
+        drawableCache.onConfigurationChanged(newConfig)
+    }
+
     fun createFromExternalPicker(icon: Intent.ShortcutIconResource): IconPickerItem? {
         @SuppressLint("DiscouragedApi")
         val id = packResources.getIdentifier(icon.resourceName, null, null)
@@ -68,11 +85,40 @@ class CustomIconPack(context: Context, packPackageName: String) :
     }
 
     override fun loadInternal() {
-        val parseXml = getXml("appfilter") ?: return
+        val appFilter = AppFilterCache.read(context, packPackageName) ?: parseAppFilter() ?: return
+        // Components sharing a drawable share its entry
+        val entries = HashMap<String, IconEntry>()
+        fun getEntry(drawableName: String) = entries.getOrPut(drawableName) {
+            IconEntry(packPackageName, drawableName, IconType.Normal)
+        }
+        appFilter.components.forEach { (componentName, drawableName) ->
+            componentMap[componentName] = getEntry(drawableName)
+        }
+        appFilter.calendars.forEach { (componentName, drawableName) ->
+            calendarMap[componentName] = IconEntry(packPackageName, drawableName, IconType.Calendar)
+        }
+        appFilter.clocks.forEach { (drawableName, attrs) ->
+            clockMetas[getEntry(drawableName)] = ClockMetadata(attrs[0], attrs[1], attrs[2], attrs[3], attrs[4], attrs[5])
+        }
+        componentMap.forEach { (componentName, iconEntry) ->
+            if (clockMetas.containsKey(iconEntry)) {
+                clockMap[componentName] = iconEntry
+            }
+        }
+    }
+
+    /**
+     * Parses the appfilter of the pack, and caches it when it could be parsed entirely.
+     */
+    private fun parseAppFilter(): AppFilter? {
+        val parseXml = getXml("appfilter") ?: return null
         val compStart = "ComponentInfo{"
         val compStartLength = compStart.length
         val compEnd = "}"
         val compEndLength = compEnd.length
+        val components = HashMap<ComponentName, String>()
+        val calendars = HashMap<ComponentName, String>()
+        val clocks = HashMap<String, IntArray>()
         try {
             while (parseXml.next() != XmlPullParser.END_DOCUMENT) {
                 if (parseXml.eventType != XmlPullParser.START_TAG) continue
@@ -89,9 +135,9 @@ class CustomIconPack(context: Context, packPackageName: String) :
                             val parsed = ComponentName.unflattenFromString(componentName)
                             if (parsed != null) {
                                 if (isCalendar) {
-                                    calendarMap[parsed] = IconEntry(packPackageName, drawableName, IconType.Calendar)
+                                    calendars[parsed] = drawableName
                                 } else {
-                                    componentMap[parsed] = IconEntry(packPackageName, drawableName, IconType.Normal)
+                                    components[parsed] = drawableName
                                 }
                             }
                         }
@@ -100,7 +146,7 @@ class CustomIconPack(context: Context, packPackageName: String) :
                         val drawableName = parseXml["drawable"]
                         if (drawableName != null) {
                             if (parseXml is XmlResourceParser) {
-                                clockMetas[IconEntry(packPackageName, drawableName, IconType.Normal)] = ClockMetadata(
+                                clocks[drawableName] = intArrayOf(
                                     parseXml.getAttributeIntValue(null, "hourLayerIndex", -1),
                                     parseXml.getAttributeIntValue(null, "minuteLayerIndex", -1),
                                     parseXml.getAttributeIntValue(null, "secondLayerIndex", -1),
@@ -113,37 +159,73 @@ class CustomIconPack(context: Context, packPackageName: String) :
                     }
                 }
             }
-            componentMap.forEach { (componentName, iconEntry) ->
-                if (clockMetas.containsKey(iconEntry)) {
-                    clockMap[componentName] = iconEntry
-                }
-            }
         } catch (e: PackageManager.NameNotFoundException) {
             e.printStackTrace()
+            return AppFilter(components, calendars, clocks)
         } catch (e: XmlPullParserException) {
             e.printStackTrace()
+            return AppFilter(components, calendars, clocks)
         } catch (e: IOException) {
             e.printStackTrace()
+            return AppFilter(components, calendars, clocks)
         } catch (e: IllegalStateException) {
             e.printStackTrace()
+            return AppFilter(components, calendars, clocks)
+        }
+        return AppFilter(components, calendars, clocks).also {
+            AppFilterCache.write(context, packPackageName, it)
         }
     }
 
-    override fun getAllIcons(): Flow<List<IconPickerCategory>> = flow {
+    override fun getAllIcons(): Flow<IconPickerCategory> = flow {
         load()
+        getCachedCatalog()?.let { catalog ->
+            catalog.categories.forEach { emit(it) }
+            return@flow
+        }
+        val categories = ArrayList<IconPickerCategory>()
+        parseCatalog { category ->
+            categories.add(category)
+            emit(category)
+        }
+        cacheCatalog(IconPickerCatalog(categories))
+    }.flowOn(Dispatchers.IO)
+
+    override fun searchIcons(query: String): Flow<IconPickerCategory> = flow {
+        load()
+        val catalog = getCachedCatalog() ?: run {
+            val categories = ArrayList<IconPickerCategory>()
+            parseCatalog { categories.add(it) }
+            IconPickerCatalog(categories).also { cacheCatalog(it) }
+        }
+        catalog.search(query).forEach { emit(it) }
+    }.flowOn(Dispatchers.IO)
 
-        val result = mutableListOf<IconPickerCategory>()
+    private fun getCachedCatalog(): IconPickerCatalog? {
+        catalogRef?.get()?.let { return it }
+        return IconPickerCatalogCache.read(context, packPackageName)?.also {
+            catalogRef = SoftReference(it)
+        }
+    }
 
+    private fun cacheCatalog(catalog: IconPickerCatalog) {
+        catalogRef = SoftReference(catalog)
+        IconPickerCatalogCache.write(context, packPackageName, catalog)
+    }
+
+    /**
+     * Parses the `drawable` xml of the pack, passing each category to [onCategory] once it ends.
+     */
+    private suspend fun parseCatalog(onCategory: suspend (IconPickerCategory) -> Unit) {
         var currentTitle: String? = null
-        val currentItems = mutableListOf<IconPickerItem>()
+        var currentItems = ArrayList<IconPickerItem>()
 
         suspend fun endCategory() {
             if (currentItems.isEmpty()) return
             val title = currentTitle ?: context.getString(R.string.icon_picker_default_category)
-            result.add(IconPickerCategory(title, ArrayList(currentItems)))
+            onCategory(IconPickerCategory(title, currentItems))
             currentTitle = null
-            currentItems.clear()
-            emit(ArrayList(result))
+            currentItems = ArrayList()
         }
 
         val parser = getXml("drawable")
@@ -166,7 +248,7 @@ class CustomIconPack(context: Context, packPackageName: String) :
             }
         }
         endCategory()
-    }.flowOn(Dispatchers.IO)
+    }
 
     @SuppressLint("DiscouragedApi")
     private fun getDrawableId(name: String) = idCache.getOrPut(name) {
@@ -2,6 +2,7 @@ package app.lawnchair.icons
 
 import android.content.ComponentName
 import android.content.Context
+import android.content.res.Configuration
 import android.graphics.drawable.Drawable
 import com.android.launcher3.compat.AlphabeticIndexCompat
 import java.util.concurrent.Semaphore
@@ -11,6 +12,8 @@ import kotlinx.coroutines.Deferred
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.async
 import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.filter
+import kotlinx.coroutines.flow.map
 import kotlinx.coroutines.plus
 
 sealed class IconPack(
@@ -52,7 +55,27 @@ sealed class IconPack(
 
     abstract fun getIcon(iconEntry: IconEntry, iconDpi: Int): Drawable?
 
-    abstract fun getAllIcons(): Flow<List<IconPickerCategory>>
+    /**
+     * Returns the icons offered by the icon picker, one category at a time.
+     */
+    abstract fun getAllIcons(): Flow<IconPickerCategory>
+
+    /**
+     * Returns the categories of [getAllIcons] reduced to the icons matching [query].
+     */
+    open fun searchIcons(query: String): Flow<IconPickerCategory> = getAllIcons()
+        .map { it.filter(query) }
+        .filter { it.items.isNotEmpty() }
+
+    /**
+     * Releases cached drawables, see [android.content.ComponentCallbacks2.onTrimMemory].
+     */
+    open fun trimMemory(level: Int) {}
+
+    /**
+     * Drops cached drawables which may not match [newConfig] anymore.
+     */
+    open fun onConfigurationChanged(newConfig: Configuration) {}
 
     protected abstract fun loadInternal()
 
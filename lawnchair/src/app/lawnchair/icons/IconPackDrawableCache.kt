@@ -0,0 +1,105 @@
+package app.lawnchair.icons
+
+import android.content.ComponentCallbacks2
+import android.content.pm.ActivityInfo
+import android.content.res.Configuration
+import android.content.res.Resources
+import android.graphics.drawable.Drawable
+import android.util.LruCache
+import java.lang.ref.WeakReference
+
+/**
+ * Keeps the drawables decoded from an icon pack, so that a drawable shared by many components is
+ * only decoded once per density. [Resources] doesn't cache drawables loaded for another density
+ * than the display's, which is always the case for icons.
+ *
+ * The most recently used drawables are held strongly, up to [maxSize] of them. Older ones are
+ * only referenced weakly, and are still reused as long as they haven't been collected.
+ *
+ * Every call returns a new mutated drawable, which shares the decoded bitmap but can be tinted
+ * or wrapped without affecting the other callers.
+ *
+ * Drawables are keyed by id and density only, so the cache is cleared when the configuration
+ * changes in a way that can select other resources, such as night mode or the locale.
+ */
+internal class IconPackDrawableCache(
+    private val resources: Resources,
+    maxSize: Int = DEFAULT_MAX_SIZE,
+) {
+
+    private val configuration = Configuration(resources.configuration)
+    private val weakStates = HashMap<Long, WeakReference<Drawable.ConstantState>>()
+    private val states = object : LruCache<Long, Drawable.ConstantState>(maxSize) {
+        override fun entryRemoved(
+            evicted: Boolean,
+            key: Long,
+            oldValue: Drawable.ConstantState,
+            newValue: Drawable.ConstantState?,
+        ) {
+            synchronized(weakStates) {
+                weakStates[key] = WeakReference(oldValue)
+                if (weakStates.size > maxSize * 4) removeCollected()
+            }
+        }
+    }
+
+    /**
+     * Returns the drawable [resId] for [density], decoding it only if it isn't cached.
+     *
+     * @throws Resources.NotFoundException if the drawable doesn't exist
+     */
+    fun getDrawable(resId: Int, density: Int): Drawable? {
+        val key = (resId.toLong() shl 32) or (density.toLong() and 0xffffffffL)
+        getState(key)?.let { return it.newDrawable(resources).mutate() }
+
+        val drawable = resources.getDrawableForDensity(resId, density, null) ?: return null
+        // Drawables without a constant state can't be shared, decode them every time
+        val state = drawable.constantState ?: return drawable
+        states.put(key, state)
+        return drawable.mutate()
+    }
+
+    fun trimMemory(level: Int) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            // Only keep what's still referenced elsewhere
+            states.evictAll()
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            states.trimToSize(states.maxSize() / 2)
+        }
+        synchronized(weakStates) {
+            removeCollected()
+        }
+    }
+
+    fun onConfigurationChanged(newConfig: Configuration) {
+        val changes = synchronized(configuration) { configuration.updateFrom(newConfig) }
+        if (changes and RESOURCE_CHANGES == 0) return
+        states.evictAll()
+        synchronized(weakStates) {
+            // Evicting moved every drawable to the weak references, which are stale as well
+            weakStates.clear()
+        }
+    }
+
+    private fun removeCollected() {
+        weakStates.values.removeAll { it.get() == null }
+    }
+
+    private fun getState(key: Long): Drawable.ConstantState? {
+        states.get(key)?.let { return it }
+        val state = synchronized(weakStates) {
+            weakStates.remove(key)?.get()
+        } ?: return null
+        states.put(key, state)
+        return state
+    }
+
+    companion object {
+        private const val DEFAULT_MAX_SIZE = 64
+
+        // Changes which may resolve drawables to other resources, the density is part of the key
+        private const val RESOURCE_CHANGES = ActivityInfo.CONFIG_UI_MODE or
+            ActivityInfo.CONFIG_LOCALE or
+            ActivityInfo.CONFIG_LAYOUT_DIRECTION
+    }
+}
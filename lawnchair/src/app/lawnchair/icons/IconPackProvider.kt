@@ -1,8 +1,13 @@
 package app.lawnchair.icons
 
 import android.annotation.SuppressLint
+import android.content.BroadcastReceiver
+import android.content.ComponentCallbacks2
 import android.content.Context
+import android.content.Intent
+import android.content.IntentFilter
 import android.content.pm.PackageManager
+import android.content.res.Configuration
 import android.graphics.drawable.AdaptiveIconDrawable
 import android.graphics.drawable.ColorDrawable
 import android.graphics.drawable.Drawable
@@ -10,16 +15,67 @@ import android.graphics.drawable.InsetDrawable
 import android.os.Build
 import android.os.Process
 import android.os.UserHandle
+import app.lawnchair.preferences.PreferenceManager
 import com.android.launcher3.icons.ClockDrawableWrapper
 import com.android.launcher3.icons.ThemedIconDrawable
 import com.android.launcher3.util.MainThreadInitializedObject
+import com.android.launcher3.util.SafeCloseable
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
 
 class IconPackProvider(private val context: Context) {
 
-    private val iconPacks = mutableMapOf<String, IconPack?>()
+    // A pack is created once per package, reads of created packs don't lock
+    private val iconPacks = ConcurrentHashMap<String, PackHolder>()
+    private val themedDrawableIds = ConcurrentHashMap<IconEntry, Int>()
+
+    // Packs used without being selected, such as the one an icon pack switch renders, with the
+    // number of their users
+    private val retainedPacks = ConcurrentHashMap<String, Int>()
+
+    private val prefs = PreferenceManager.getInstance(context)
+
+    // Incremented every time a pack is dropped or the selected packs change
+    private val versionCounter = AtomicInteger()
+    val version get() = versionCounter.get()
+
+    init {
+        context.registerComponentCallbacks(object : ComponentCallbacks2 {
+            override fun onTrimMemory(level: Int) {
+                trimMemory(level)
+            }
+
+            override fun onConfigurationChanged(newConfig: Configuration) {
+                iconPacks.values.forEach { it.iconPack?.onConfigurationChanged(newConfig) }
+            }
+
+            override fun onLowMemory() {
+                trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE)
+            }
+        })
+
+        val packageFilter = IntentFilter(Intent.ACTION_PACKAGE_ADDED)
+        packageFilter.addAction(Intent.ACTION_PACKAGE_CHANGED)
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REMOVED)
+        packageFilter.addDataScheme("package")
+        context.registerReceiver(
+            object : BroadcastReceiver() {
+                override fun onReceive(context: Context, intent: Intent) {
+                    val packageName = intent.data?.schemeSpecificPart ?: return
+                    evict(packageName)
+                    // The system pack lists the installed apps
+                    evict("")
+                }
+            },
+            packageFilter,
+        )
+
+        prefs.iconPackPackage.subscribeChanges { onSelectedPacksChanged() }
+        prefs.themedIconPackPackage.subscribeChanges { onSelectedPacksChanged() }
+    }
 
     fun getIconPackOrSystem(packageName: String): IconPack? {
-        if (packageName.isEmpty()) return SystemIconPack(context, packageName)
+        if (packageName.isEmpty()) return getOrCreate(packageName) { SystemIconPack(context, packageName) }
         return getIconPack(packageName)
     }
 
@@ -27,7 +83,7 @@ class IconPackProvider(private val context: Context) {
         if (packageName.isEmpty()) {
             return null
         }
-        return iconPacks.getOrPut(packageName) {
+        return getOrCreate(packageName) {
             try {
                 CustomIconPack(context, packageName)
             } catch (_: PackageManager.NameNotFoundException) {
@@ -36,6 +92,52 @@ class IconPackProvider(private val context: Context) {
         }
     }
 
+    private inline fun getOrCreate(packageName: String, crossinline create: () -> IconPack?): IconPack? {
+        iconPacks[packageName]?.let { return it.iconPack }
+        // Concurrent callers for the same package wait for a single pack to be created
+        return iconPacks.computeIfAbsent(packageName) { PackHolder(create()) }.iconPack
+    }
+
+    /**
+     * Drops the pack of [packageName], it's created again the next time it's needed.
+     */
+    fun evict(packageName: String) {
+        if (iconPacks.remove(packageName) != null) {
+            themedDrawableIds.keys.removeAll { it.packPackageName == packageName }
+            versionCounter.incrementAndGet()
+        }
+    }
+
+    private fun onSelectedPacksChanged() {
+        evictUnselected()
+        versionCounter.incrementAndGet()
+    }
+
+    /**
+     * Keeps the pack of [packageName] when the selected packs change, until the returned object is
+     * closed.
+     */
+    fun retain(packageName: String): SafeCloseable {
+        retainedPacks.merge(packageName, 1, Int::plus)
+        return SafeCloseable {
+            retainedPacks.computeIfPresent(packageName) { _, count -> (count - 1).takeIf { it > 0 } }
+        }
+    }
+
+    /**
+     * Drops the packs which aren't selected nor retained, such as ones that were used by the icon
+     * picker.
+     */
+    private fun evictUnselected() {
+        val selected = setOf("", prefs.iconPackPackage.get(), prefs.themedIconPackPackage.get())
+        iconPacks.keys.filter { it !in selected && it !in retainedPacks }.forEach { evict(it) }
+    }
+
+    private fun trimMemory(level: Int) {
+        iconPacks.values.forEach { it.iconPack?.trimMemory(level) }
+        IconPackWarmUp.INSTANCE.noCreate?.trimMemory()
+    }
+
     fun getClockMetadata(iconEntry: IconEntry): ClockMetadata? {
         val iconPack = getIconPackOrSystem(iconEntry.packPackageName) ?: return null
         return iconPack.getClock(iconEntry)
@@ -91,8 +193,10 @@ class IconPackProvider(private val context: Context) {
         try {
             val res = packageManager.getResourcesForApplication(iconEntry.packPackageName)
 
-            @SuppressLint("DiscouragedApi")
-            val resId = res.getIdentifier(iconEntry.name, "drawable", iconEntry.packPackageName)
+            val resId = themedDrawableIds.getOrPut(iconEntry) {
+                @SuppressLint("DiscouragedApi")
+                res.getIdentifier(iconEntry.name, "drawable", iconEntry.packPackageName)
+            }
             val bg: Drawable = ColorDrawable(themedColors[0])
             val td = ThemedIconDrawable.ThemeData(res, iconEntry.packPackageName, resId)
 
@@ -112,6 +216,9 @@ class IconPackProvider(private val context: Context) {
         }
     }
 
+    // Also remembers packages which aren't icon packs, or not installed
+    private class PackHolder(val iconPack: IconPack?)
+
     companion object {
         @JvmField
         val INSTANCE = MainThreadInitializedObject(::IconPackProvider)
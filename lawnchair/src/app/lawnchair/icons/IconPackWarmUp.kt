@@ -0,0 +1,217 @@
+package app.lawnchair.icons
+
+import android.content.Context
+import android.content.pm.LauncherActivityInfo
+import android.content.pm.LauncherApps
+import android.util.Log
+import androidx.core.content.getSystemService
+import app.lawnchair.preferences.PreferenceManager
+import com.android.launcher3.InvariantDeviceProfile
+import com.android.launcher3.LauncherAppState
+import com.android.launcher3.LauncherModel
+import com.android.launcher3.icons.BitmapInfo
+import com.android.launcher3.icons.LauncherIcons
+import com.android.launcher3.model.AllAppsList
+import com.android.launcher3.model.BgDataModel
+import com.android.launcher3.model.LoaderTask
+import com.android.launcher3.pm.UserCache
+import com.android.launcher3.util.ComponentKey
+import com.android.launcher3.util.MainThreadInitializedObject
+import com.android.launcher3.util.SafeCloseable
+import com.android.launcher3.util.Themes
+import java.util.concurrent.Executor
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.currentCoroutineContext
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
+import kotlinx.coroutines.withTimeoutOrNull
+
+/**
+ * Renders the icons of an icon pack before switching to it, so that the launcher keeps showing
+ * the current icons meanwhile and gets all of the new ones at once when the pack is applied.
+ *
+ * Icons are rendered in the order they're seen after the switch: the hotseat and the first
+ * screen, the rest of the workspace, then all apps. Only the first [MAX_PRERENDERED_ICONS] are
+ * kept, the others are rendered as usual. Once applied, the icon cache takes them from here
+ * instead of rendering them again while it's refilled, unless memory is trimmed meanwhile.
+ */
+class IconPackWarmUp private constructor(private val context: Context) : SafeCloseable {
+
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
+    private val iconPackPref = PreferenceManager.getInstance(context).iconPackPackage
+
+    private val _progress = MutableStateFlow<Progress?>(null)
+
+    /**
+     * The progress of the running switch, or null when there's none.
+     */
+    val progress: StateFlow<Progress?> = _progress.asStateFlow()
+
+    // Only accessed on the main thread
+    private var job: Job? = null
+
+    @Volatile
+    private var prerendered: Prerendered? = null
+
+    /**
+     * Renders the icons of [packPackageName] in the background, then selects it. Cancels the
+     * switch in progress, if any.
+     */
+    fun switchTo(packPackageName: String) {
+        job?.cancel()
+        prerendered = null
+        if (packPackageName == iconPackPref.get()) {
+            _progress.value = null
+            return
+        }
+        _progress.value = Progress(packPackageName, 0, 0)
+        job = scope.launch {
+            val rendered = try {
+                render(packPackageName)
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: Exception) {
+                // Still switch, the icons will be rendered as they're loaded
+                Log.w(TAG, "Failed to render the icons of $packPackageName", e)
+                null
+            }
+            prerendered = rendered
+            withContext(Dispatchers.Main) {
+                iconPackPref.set(packPackageName)
+                _progress.value = null
+            }
+            // Only needed until the icon cache is refilled
+            delay(RETAIN_PRERENDERED_MS)
+            if (prerendered === rendered) prerendered = null
+        }
+    }
+
+    private suspend fun render(packPackageName: String): Prerendered {
+        // Changing the selected packs meanwhile would drop the pack being rendered
+        val retainedPack = IconPackProvider.INSTANCE.get(context).retain(packPackageName)
+        try {
+            return renderIcons(packPackageName)
+        } finally {
+            retainedPack.close()
+        }
+    }
+
+    private suspend fun renderIcons(packPackageName: String): Prerendered {
+        val iconProvider = LawnchairIconProvider(
+            context,
+            Themes.isThemedIconEnabled(context),
+            packPackageName,
+        )
+        val iconDpi = InvariantDeviceProfile.INSTANCE.get(context).fillResIconDpi
+        val activities = getActivitiesInDisplayOrder().take(MAX_PRERENDERED_ICONS)
+        val icons = HashMap<ComponentKey, BitmapInfo>(activities.size)
+        _progress.value = Progress(packPackageName, 0, activities.size)
+        activities.forEachIndexed { index, info ->
+            currentCoroutineContext().ensureActive()
+            LauncherIcons.obtain(context).use { li ->
+                icons[ComponentKey(info.componentName, info.user)] =
+                    li.createBadgedIconBitmap(iconProvider.getIcon(info, iconDpi), info.user, true)
+            }
+            _progress.value = Progress(packPackageName, index + 1, activities.size)
+        }
+        return Prerendered(iconProvider.systemIconState, icons)
+    }
+
+    private suspend fun getActivitiesInDisplayOrder(): List<LauncherActivityInfo> {
+        val launcherApps = context.getSystemService<LauncherApps>() ?: return emptyList()
+        val activities = LinkedHashMap<ComponentKey, LauncherActivityInfo>()
+        UserCache.INSTANCE.get(context).userProfiles.forEach { user ->
+            launcherApps.getActivityList(null, user).forEach {
+                activities[ComponentKey(it.componentName, it.user)] = it
+            }
+        }
+        val ordered = ArrayList<LauncherActivityInfo>(activities.size)
+        getWorkspaceComponents().forEach { key -> activities.remove(key)?.let { ordered.add(it) } }
+        ordered.addAll(activities.values)
+        return ordered
+    }
+
+    /**
+     * Returns the components on the workspace, the ones visible right after loading first.
+     */
+    private suspend fun getWorkspaceComponents(): List<ComponentKey> {
+        val model = LauncherAppState.getInstanceNoCreate()?.model ?: return emptyList()
+        val result = CompletableDeferred<List<ComponentKey>>()
+        model.enqueueModelUpdateTask(object : LauncherModel.ModelUpdateTask {
+            private var dataModel: BgDataModel? = null
+
+            override fun init(
+                app: LauncherAppState,
+                model: LauncherModel,
+                dataModel: BgDataModel,
+                allAppsList: AllAppsList,
+                uiExecutor: Executor,
+            ) {
+                this.dataModel = dataModel
+            }
+
+            override fun run() {
+                // Empty until the model is loaded, the order then doesn't matter
+                val items = dataModel?.workspaceItems.orEmpty()
+                result.complete(
+                    items.sortedBy { LoaderTask.getIconLoadPriority(it) }
+                        .mapNotNull { item -> item.targetComponent?.let { ComponentKey(it, item.user) } },
+                )
+            }
+        })
+        return withTimeoutOrNull(MODEL_TIMEOUT_MS) { result.await() }.orEmpty()
+    }
+
+    /**
+     * Drops the icons rendered ahead of the last switch, they're rendered again as they're loaded.
+     */
+    fun trimMemory() {
+        prerendered = null
+    }
+
+    override fun close() {
+        scope.cancel()
+    }
+
+    /**
+     * Progress of an icon pack switch, [total] is 0 until the icons to render are known.
+     */
+    data class Progress(val packPackageName: String, val rendered: Int, val total: Int)
+
+    private class Prerendered(val iconState: String, val icons: Map<ComponentKey, BitmapInfo>)
+
+    companion object {
+        private const val TAG = "IconPackWarmUp"
+        private const val RETAIN_PRERENDERED_MS = 60_000L
+
+        // Bounds the memory held by full resolution icons, enough for the workspace
+        private const val MAX_PRERENDERED_ICONS = 100
+        private const val MODEL_TIMEOUT_MS = 5_000L
+
+        @JvmField
+        val INSTANCE = MainThreadInitializedObject(::IconPackWarmUp)
+
+        /**
+         * Returns the icon rendered ahead of the last icon pack switch for [info], if it's still
+         * valid for the current icon state.
+         */
+        @JvmStatic
+        fun getPrerenderedIcon(info: LauncherActivityInfo): BitmapInfo? {
+            val prerendered = INSTANCE.noCreate?.prerendered ?: return null
+            val iconState = LauncherAppState.getInstanceNoCreate()?.iconProvider?.systemIconState
+            if (prerendered.iconState != iconState) return null
+            return prerendered.icons[ComponentKey(info.componentName, info.user)]
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package app.lawnchair.icons
+
+import android.content.Context
+import android.util.Log
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.IOException
+import java.util.Locale
+
+/**
+ * The icons of an icon pack offered by the icon picker, with an index of the trigrams of their
+ * labels to search them without going through every icon.
+ *
+ * An item matches when its label contains the query, like [IconPickerCategory.filter]. The index
+ * only narrows down the items to check to those having every trigram of the query.
+ */
+internal class IconPickerCatalog(val categories: List<IconPickerCategory>) {
+
+    // The positions of the items having each trigram in their label, in ascending order
+    private val trigrams = HashMap<String, LongArray>()
+
+    init {
+        val postings = HashMap<String, ArrayList<Long>>()
+        categories.forEachIndexed { categoryIndex, category ->
+            category.items.forEachIndexed { itemIndex, item ->
+                val position = (categoryIndex.toLong() shl 32) or itemIndex.toLong()
+                trigramsOf(item.label.lowercase()).forEach {
+                    postings.getOrPut(it) { ArrayList() }.add(position)
+                }
+            }
+        }
+        postings.forEach { (trigram, positions) -> trigrams[trigram] = positions.toLongArray() }
+    }
+
+    /**
+     * Returns the categories with the items whose label contains [query], ignoring case.
+     */
+    fun search(query: String): List<IconPickerCategory> {
+        val lowerQuery = query.lowercase()
+        if (lowerQuery.isEmpty()) return categories
+        if (lowerQuery.length < TRIGRAM_LENGTH) {
+            // Too short to use the index, and likely to match many items anyway
+            return categories.map { it.filter(query) }.filter { it.items.isNotEmpty() }
+        }
+        // Start from the rarest trigram, the intersection can only get smaller
+        val postings = trigramsOf(lowerQuery)
+            .map { trigrams[it] ?: return emptyList() }
+            .sortedBy { it.size }
+        var candidates = postings.first()
+        for (i in 1 until postings.size) {
+            if (candidates.isEmpty()) break
+            candidates = intersect(candidates, postings[i])
+        }
+        return candidates.asSequence()
+            .filter { itemAt(it).label.lowercase().contains(lowerQuery) }
+            .groupBy { (it ushr 32).toInt() }
+            .map { (categoryIndex, itemPositions) ->
+                val category = categories[categoryIndex]
+                IconPickerCategory(category.title, itemPositions.map { category.items[it.toInt()] })
+            }
+    }
+
+    private fun itemAt(position: Long) = categories[(position ushr 32).toInt()].items[position.toInt()]
+
+    companion object {
+        private const val TRIGRAM_LENGTH = 3
+
+        private fun trigramsOf(text: String): Set<String> {
+            val result = LinkedHashSet<String>()
+            for (i in 0..text.length - TRIGRAM_LENGTH) {
+                result.add(text.substring(i, i + TRIGRAM_LENGTH))
+            }
+            return result
+        }
+
+        /**
+         * Returns the values found in both [a] and [b], which are sorted in ascending order.
+         */
+        private fun intersect(a: LongArray, b: LongArray): LongArray {
+            val result = LongArray(minOf(a.size, b.size))
+            var size = 0
+            var i = 0
+            var j = 0
+            while (i < a.size && j < b.size) {
+                when {
+                    a[i] < b[j] -> i++
+                    a[i] > b[j] -> j++
+                    else -> {
+                        result[size++] = a[i]
+                        i++
+                        j++
+                    }
+                }
+            }
+            return result.copyOf(size)
+        }
+    }
+}
+
+/**
+ * Keeps the [IconPickerCatalog] of each icon pack in a file, so that the picker doesn't have to
+ * parse the pack again until it's updated.
+ *
+ * Layout: header (magic, format version, pack version code, pack update time, locale), then the
+ * category count, and for each category its title, item count and drawable names.
+ */
+internal object IconPickerCatalogCache {
+
+    private const val TAG = "IconPickerCatalogCache"
+    private const val DIR_NAME = "icon_pack_catalog"
+    private const val MAGIC = 0x4c495043 // LIPC
+    private const val FORMAT_VERSION = 1
+
+    fun read(context: Context, packPackageName: String): IconPickerCatalog? {
+        val file = getFile(context, packPackageName)
+        if (!file.exists()) return null
+        return try {
+            DataInputStream(file.inputStream().buffered()).use { input ->
+                if (input.readInt() != MAGIC || input.readInt() != FORMAT_VERSION) return null
+                val (versionCode, updateTime) = AppFilterCache.getPackVersion(context, packPackageName) ?: return null
+                if (input.readLong() != versionCode || input.readLong() != updateTime) return null
+                // The default category title is localized
+                if (input.readUTF() != Locale.getDefault().toLanguageTag()) return null
+
+                val categories = List(input.readInt()) {
+                    val title = input.readUTF()
+                    val items = List(input.readInt()) {
+                        val drawableName = input.readUTF()
+                        IconPickerItem(packPackageName, drawableName, drawableName, IconType.Normal)
+                    }
+                    IconPickerCategory(title, items)
+                }
+                IconPickerCatalog(categories)
+            }
+        } catch (e: IOException) {
+            Log.w(TAG, "Failed to read the cached icons of $packPackageName", e)
+            null
+        }
+    }
+
+    fun write(context: Context, packPackageName: String, catalog: IconPickerCatalog) {
+        val (versionCode, updateTime) = AppFilterCache.getPackVersion(context, packPackageName) ?: return
+        val file = getFile(context, packPackageName)
+        val tmpFile = File(file.parentFile, "${file.name}.tmp")
+        try {
+            file.parentFile?.mkdirs()
+            DataOutputStream(tmpFile.outputStream().buffered()).use { out ->
+                out.writeInt(MAGIC)
+                out.writeInt(FORMAT_VERSION)
+                out.writeLong(versionCode)
+                out.writeLong(updateTime)
+                out.writeUTF(Locale.getDefault().toLanguageTag())
+                out.writeInt(catalog.categories.size)
+                catalog.categories.forEach { category ->
+                    out.writeUTF(category.title)
+                    out.writeInt(category.items.size)
+                    category.items.forEach { out.writeUTF(it.drawableName) }
+                }
+            }
+            if (!tmpFile.renameTo(file)) {
+                tmpFile.delete()
+            }
+        } catch (e: IOException) {
+            Log.w(TAG, "Failed to cache the icons of $packPackageName", e)
+            tmpFile.delete()
+        }
+    }
+
+    private fun getFile(context: Context, packPackageName: String) =
+        File(File(context.cacheDir, DIR_NAME), "$packPackageName.bin")
+}
@@ -38,12 +38,15 @@ import com.android.launcher3.icons.IconProvider
 import com.android.launcher3.icons.ThemedIconDrawable
 import com.android.launcher3.util.ComponentKey
 import com.android.launcher3.util.SafeCloseable
+import java.util.concurrent.ConcurrentHashMap
 import java.util.function.Supplier
 import org.xmlpull.v1.XmlPullParser
 
 class LawnchairIconProvider @JvmOverloads constructor(
     private val context: Context,
     supportsIconTheme: Boolean = false,
+    // Renders with this icon pack instead of the selected one, used to prepare an icon pack switch
+    private val iconPackOverride: String? = null,
 ) : IconProvider(context, supportsIconTheme) {
 
     private val prefs = PreferenceManager.getInstance(context)
@@ -53,8 +56,10 @@ class LawnchairIconProvider @JvmOverloads constructor(
     private val iconPackProvider = IconPackProvider.INSTANCE.get(context)
     private val overrideRepo = IconOverrideRepository.INSTANCE.get(context)
 
+    private val iconPackPackage
+        get() = iconPackOverride ?: iconPackPref.get()
     private val iconPack
-        get() = iconPackProvider.getIconPack(iconPackPref.get())?.apply { loadBlocking() }
+        get() = iconPackProvider.getIconPack(iconPackPackage)?.apply { loadBlocking() }
     private val themedIconPack
         get() = iconPackProvider.getIconPack(themedIconPackPref.get())?.apply { loadBlocking() }
 
@@ -64,9 +69,17 @@ class LawnchairIconProvider @JvmOverloads constructor(
 
     private var themeMapName: String = ""
     private var _themeMap: Map<ComponentName, ThemedIconDrawable.ThemeData>? = null
+        set(value) {
+            if (field !== value) themeMapVersion++
+            field = value
+        }
+
+    // Incremented every time the theme map is replaced, only written while holding the lock
+    @Volatile
+    private var themeMapVersion = 0
 
     val themeMap: Map<ComponentName, ThemedIconDrawable.ThemeData>
-        get() {
+        @Synchronized get() {
             if (!context.isThemedIconsEnabled()) {
                 _themeMap = DISABLED_MAP
             }
@@ -74,21 +87,40 @@ class LawnchairIconProvider @JvmOverloads constructor(
                 _themeMap = createThemedIconMap()
             }
             if (isOlderLawniconsInstalled) {
-                themeMapName = themedIconPackPref.get()
-                _themeMap = createThemedIconMap()
+                // Only rebuild when the pack changes, package updates reset the map through
+                // LawniconsChangeReceiver
+                val packName = themedIconPackPref.get()
+                if (themeMapName != packName) {
+                    themeMapName = packName
+                    _themeMap = createThemedIconMap()
+                }
             }
-            if (themedIconPack != null && themeMapName != themedIconPack!!.packPackageName) {
-                themeMapName = themedIconPack!!.packPackageName
+            val themedIconPack = themedIconPack
+            if (themedIconPack != null && themeMapName != themedIconPack.packPackageName) {
+                themeMapName = themedIconPack.packPackageName
                 _themeMap = createThemedIconMap()
             }
             return _themeMap!!
         }
+
+    // Icon entries and theme data resolved per component, valid while resolutionGeneration is
+    // the one they were resolved in
+    private val resolutions = ConcurrentHashMap<ComponentKey, Resolution>()
+
+    @Volatile
+    private var clearedGeneration = -1
     private val supportsIconTheme get() = themeMap != DISABLED_MAP
 
+    // Changes whenever the icon packs, the overrides or the theme map change. Every counter only
+    // goes up, so their sum is never the same for two different states.
+    private val resolutionGeneration
+        get() = iconPackProvider.version + overrideRepo.version + themeMapVersion
+
     init {
         setIconThemeSupported(supportsIconTheme)
     }
 
+    @Synchronized
     override fun setIconThemeSupported(isSupported: Boolean) {
         _themeMap = if (isSupported && isOlderLawniconsInstalled) null else DISABLED_MAP
     }
@@ -111,23 +143,33 @@ class LawnchairIconProvider @JvmOverloads constructor(
         return iconPack.getIcon(componentName)
     }
 
-    override fun getIconWithOverrides(
-        packageName: String,
-        component: String,
-        user: UserHandle,
-        iconDpi: Int,
-        fallback: Supplier<Drawable>,
-    ): Drawable {
-        val componentName = ComponentName(packageName, component)
+    /**
+     * Returns the cached resolution of [componentName], resolving it again if the icon packs, the
+     * overrides or the theme map changed since it was cached.
+     */
+    private fun getResolution(componentName: ComponentName, user: UserHandle): Resolution {
+        // Read the generation before resolving, so that a resolution racing with a change is
+        // tagged with the older generation and never served afterwards
+        val generation = resolutionGeneration
+        val key = ComponentKey(componentName, user)
+        resolutions[key]?.takeIf { it.generation == generation }?.let { return it }
+        if (clearedGeneration != generation) {
+            // Drop the resolutions of older generations at once rather than one by one
+            clearedGeneration = generation
+            resolutions.clear()
+        }
+        return resolve(componentName, user, generation).also { resolutions[key] = it }
+    }
+
+    private fun resolve(componentName: ComponentName, user: UserHandle, generation: Int): Resolution {
         val iconEntry = resolveIconEntry(componentName, user)
-        var resolvedEntry = iconEntry
+        val packageName = componentName.packageName
         var iconType = ICON_TYPE_DEFAULT
         var themeData: ThemedIconDrawable.ThemeData? = null
         if (iconEntry != null) {
             val clock = iconPackProvider.getClockMetadata(iconEntry)
             when {
                 iconEntry.type == IconType.Calendar -> {
-                    resolvedEntry = iconEntry.resolveDynamicCalendar(getDay())
                     themeData = getThemeData(mCalendar.packageName, "")
                     iconType = ICON_TYPE_CALENDAR
                 }
@@ -154,8 +196,25 @@ class LawnchairIconProvider @JvmOverloads constructor(
                 }
             }
         }
+        return Resolution(generation, iconEntry, iconType, themeData)
+    }
+
+    override fun getIconWithOverrides(
+        packageName: String,
+        component: String,
+        user: UserHandle,
+        iconDpi: Int,
+        fallback: Supplier<Drawable>,
+    ): Drawable {
+        val componentName = ComponentName(packageName, component)
+        val resolution = getResolution(componentName, user)
+        val iconType = resolution.iconType
+        // The day changes without invalidating the cache, resolve it for every request
+        val resolvedEntry = resolution.iconEntry?.let {
+            if (it.type == IconType.Calendar) it.resolveDynamicCalendar(getDay()) else it
+        }
         val icon = resolvedEntry?.let { iconPackProvider.getDrawable(it, iconDpi, user) }
-        val td = themeData
+        val td = resolution.themeData
         if (icon != null) return if (td != null) td.wrapDrawable(icon, iconType) else icon
 
         // use default icon from system
@@ -226,7 +285,7 @@ class LawnchairIconProvider @JvmOverloads constructor(
     }
 
     override fun getSystemIconState(): String {
-        return super.getSystemIconState() + ",pack:${iconPackPref.get()}/${themedIconPackPref.get()},ver:$iconPackVersion"
+        return super.getSystemIconState() + ",pack:$iconPackPackage/${themedIconPackPref.get()},ver:$iconPackVersion"
     }
 
     override fun registerIconChangeListener(
@@ -406,6 +465,13 @@ class LawnchairIconProvider @JvmOverloads constructor(
         return map
     }
 
+    private class Resolution(
+        val generation: Int,
+        val iconEntry: IconEntry?,
+        val iconType: Int,
+        val themeData: ThemedIconDrawable.ThemeData?,
+    )
+
     companion object {
         const val TAG = "LawnchairIconProvider"
 
@@ -46,7 +46,7 @@ class SystemIconPack(context: Context, pkg: String) : IconPack(context, pkg) {
     override fun loadInternal() {
     }
 
-    override fun getAllIcons(): Flow<List<IconPickerCategory>> = flow {
+    override fun getAllIcons(): Flow<IconPickerCategory> = flow {
         val items = appMap
             .map { (key, info) ->
                 IconPickerItem(
@@ -56,6 +56,6 @@ class SystemIconPack(context: Context, pkg: String) : IconPack(context, pkg) {
                     IconType.Normal,
                 )
             }
-        emit(categorize(items))
+        categorize(items).forEach { emit(it) }
     }.flowOn(Dispatchers.IO)
 }
@@ -2,32 +2,31 @@ package app.lawnchair.search.algorithms
 
 import android.content.Context
 import android.os.Handler
+import android.os.SystemClock
+import android.util.Log
 import app.lawnchair.preferences.PreferenceManager
 import app.lawnchair.preferences2.PreferenceManager2
-import app.lawnchair.search.adapter.CALCULATOR
 import app.lawnchair.search.adapter.CONTACT
-import app.lawnchair.search.adapter.ERROR
 import app.lawnchair.search.adapter.FILES
 import app.lawnchair.search.adapter.HEADER_JUSTIFY
-import app.lawnchair.search.adapter.HISTORY
-import app.lawnchair.search.adapter.LOADING
 import app.lawnchair.search.adapter.SETTINGS
 import app.lawnchair.search.adapter.SPACE
 import app.lawnchair.search.adapter.SearchTargetCompat
 import app.lawnchair.search.adapter.SearchTargetFactory
-import app.lawnchair.search.adapter.WEB_SUGGESTION
-import app.lawnchair.search.algorithms.data.Calculation
 import app.lawnchair.search.algorithms.data.ContactInfo
+import app.lawnchair.search.algorithms.data.ContactsIndex
 import app.lawnchair.search.algorithms.data.IFileInfo
 import app.lawnchair.search.algorithms.data.RecentKeyword
 import app.lawnchair.search.algorithms.data.SettingInfo
+import app.lawnchair.search.algorithms.data.SettingsCatalog
 import app.lawnchair.search.algorithms.data.WebSearchProvider
+import app.lawnchair.search.algorithms.data.WebSuggestionCache
 import app.lawnchair.search.algorithms.data.calculateEquationFromString
+import app.lawnchair.search.algorithms.data.fileindex.FileSearchIndex
 import app.lawnchair.search.algorithms.data.findContactsByName
 import app.lawnchair.search.algorithms.data.findSettingsByNameAndAction
 import app.lawnchair.search.algorithms.data.getRecentKeyword
 import app.lawnchair.search.algorithms.data.queryFilesInMediaStore
-import app.lawnchair.search.model.SearchResult
 import app.lawnchair.util.checkAndRequestFilesPermission
 import app.lawnchair.util.isDefaultLauncher
 import app.lawnchair.util.requestContactPermissionGranted
@@ -41,15 +40,19 @@ import com.android.launcher3.model.data.AppInfo
 import com.android.launcher3.search.SearchCallback
 import com.android.launcher3.util.Executors
 import com.patrykmichalik.opto.core.onEach
+import kotlin.coroutines.resume
+import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
 import kotlinx.coroutines.SupervisorJob
-import kotlinx.coroutines.TimeoutCancellationException
-import kotlinx.coroutines.async
+import kotlinx.coroutines.delay
 import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.channelFlow
-import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.flowOn
+import kotlinx.coroutines.flow.map
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.suspendCancellableCoroutine
 import kotlinx.coroutines.withContext
 import kotlinx.coroutines.withTimeoutOrNull
 
@@ -81,6 +84,10 @@ class LawnchairLocalSearchAlgorithm(context: Context) : LawnchairSearchAlgorithm
 
     val coroutineScope = CoroutineScope(context = Dispatchers.IO + SupervisorJob())
 
+    private val session = SearchSession()
+    private val webSuggestionCache = WebSuggestionCache()
+    private var searchJob: Job? = null
+
     init {
         pref2.enableFuzzySearch.onEach(launchIn = coroutineScope) {
             enableFuzzySearch = it
@@ -123,84 +130,141 @@ class LawnchairLocalSearchAlgorithm(context: Context) : LawnchairSearchAlgorithm
     }
 
     override fun doSearch(query: String, callback: SearchCallback<BaseAllAppsAdapter.AdapterItem>) {
-        appState.model.enqueueModelUpdateTask(object : BaseModelUpdateTask() {
-            override fun execute(app: LauncherAppState, dataModel: BgDataModel, apps: AllAppsList) {
-                coroutineScope.launch(Dispatchers.Main) {
-                    getAllSearchResults(apps.data, query, prefs).collect { allResults ->
-                        callback.onSearchResult(query, ArrayList(allResults))
-                    }
-                }
+        // Results of the previous query are stale by now, don't let them compete with this one
+        searchJob?.cancel()
+        searchJob = coroutineScope.launch(Dispatchers.Main) {
+            val apps = awaitAllAppsList()
+            getAllSearchResults(apps, query, prefs).collect { allResults ->
+                callback.onSearchResult(query, allResults)
             }
-        })
+        }
     }
 
     override fun cancel(interruptActiveRequests: Boolean) {
+        searchJob?.cancel()
+        searchJob = null
         if (interruptActiveRequests) {
             resultHandler.removeCallbacksAndMessages(null)
+            session.reset()
         }
     }
 
+    private suspend fun awaitAllAppsList(): AllAppsList = suspendCancellableCoroutine { continuation ->
+        appState.model.enqueueModelUpdateTask(object : BaseModelUpdateTask() {
+            override fun execute(app: LauncherAppState, dataModel: BgDataModel, apps: AllAppsList) {
+                continuation.resume(apps)
+            }
+        })
+    }
+
+    /**
+     * Runs every enabled [SearchSource] in parallel on a background dispatcher, each within its
+     * own deadline. A new list is emitted whenever a source delivers results, with sections always
+     * laid out in source order so that late sources don't move the ones already displayed.
+     */
     private fun getAllSearchResults(
-        apps: MutableList<AppInfo>,
+        apps: AllAppsList,
+        query: String,
+        prefs: PreferenceManager,
+    ): Flow<ArrayList<BaseAllAppsAdapter.AdapterItem>> {
+        // Only accessed from the collector's thread
+        val sections = arrayOfNulls<List<BaseAllAppsAdapter.AdapterItem>>(SearchSource.entries.size)
+        return getSearchSections(apps, query, prefs).map { (ordinal, items) ->
+            sections[ordinal] = items
+            sections.flatMapTo(ArrayList()) { it.orEmpty() }
+        }
+    }
+
+    /**
+     * Emits the ordinal of each [SearchSource] along with its section, as soon as it's ready.
+     */
+    private fun getSearchSections(
+        apps: AllAppsList,
         query: String,
         prefs: PreferenceManager,
-    ): Flow<List<BaseAllAppsAdapter.AdapterItem>> = channelFlow {
-        val allResults = mutableListOf<BaseAllAppsAdapter.AdapterItem>()
-
-        launch {
-            if (searchApps) {
-                getAppSearchResults(apps, query).collect { appResults ->
-                    allResults.addAll(appResults)
-                    send(allResults.toList())
+    ): Flow<Pair<Int, List<BaseAllAppsAdapter.AdapterItem>>> = channelFlow {
+        SearchSource.entries.filter { isSourceEnabled(it, prefs) }.forEach { source ->
+            launch {
+                val startTime = SystemClock.elapsedRealtime()
+                val targets = withTimeoutOrNull(getDeadline(source)) {
+                    try {
+                        getSearchTargets(source, apps, query, prefs)
+                    } catch (e: CancellationException) {
+                        throw e
+                    } catch (e: Exception) {
+                        // Failing here would cancel the other sources, they still show up
+                        Log.w(TAG, "Failed to search ${source.name}", e)
+                        emptyList()
+                    }
+                }
+                SearchLatencyMetrics.record(
+                    source.name,
+                    SystemClock.elapsedRealtime() - startTime,
+                    timedOut = targets == null,
+                )
+                if (!targets.isNullOrEmpty()) {
+                    send(source.ordinal to transformSearchResults(targets))
                 }
-            }
-            getLocalSearchResults(query, prefs).collect { localResults ->
-                allResults.addAll(localResults)
-                send(allResults.toList())
-            }
-            getSearchLinks(query).collect { otherResults ->
-                allResults.addAll(otherResults)
-                send(allResults.toList())
             }
         }
+    }.flowOn(Dispatchers.Default)
+
+    private fun isSourceEnabled(source: SearchSource, prefs: PreferenceManager) = when (source) {
+        SearchSource.APPS -> searchApps
+        SearchSource.WEB_SUGGESTIONS -> prefs.searchResultStartPageSuggestion.get()
+        SearchSource.CALCULATOR -> prefs.searchResultCalculator.get()
+        SearchSource.CONTACTS -> prefs.searchResultPeople.get()
+        SearchSource.SETTINGS -> prefs.searchResultSettingsEntry.get()
+        SearchSource.HISTORY -> prefs.searchResulRecentSuggestion.get()
+        SearchSource.FILES -> prefs.searchResultFiles.get()
+        SearchSource.LINKS -> true
+    }
+
+    private fun getDeadline(source: SearchSource) = when (source) {
+        SearchSource.WEB_SUGGESTIONS -> maxWebSuggestionDelay.toLong()
+        else -> source.deadlineMillis
     }
 
-    private fun getAppSearchResults(
-        apps: MutableList<AppInfo>,
+    private suspend fun getSearchTargets(
+        source: SearchSource,
+        apps: AllAppsList,
         query: String,
-    ): Flow<List<BaseAllAppsAdapter.AdapterItem>> = flow {
+        prefs: PreferenceManager,
+    ): List<SearchTargetCompat> = when (source) {
+        SearchSource.APPS -> getAppSearchTargets(apps, query)
+        SearchSource.WEB_SUGGESTIONS -> getWebSuggestionTargets(query)
+        SearchSource.CALCULATOR -> getCalculatorTargets(query)
+        SearchSource.CONTACTS -> getContactTargets(query, prefs)
+        SearchSource.SETTINGS -> getSettingTargets(query)
+        SearchSource.HISTORY -> getHistoryTargets(query)
+        SearchSource.FILES -> getFileTargets(query, prefs)
+        SearchSource.LINKS -> getSearchLinks(query)
+    }
+
+    private fun getAppSearchTargets(
+        apps: AllAppsList,
+        query: String,
+    ): List<SearchTargetCompat> {
         val searchTargets = mutableListOf<SearchTargetCompat>()
         val appResults = performAppSearch(apps, query)
 
         parseAppSearchResults(appResults, searchTargets)
 
         setFirstItemQuickLaunch(searchTargets)
-        emit(transformSearchResults(searchTargets))
-    }
-
-    private fun getLocalSearchResults(
-        query: String,
-        prefs: PreferenceManager,
-    ): Flow<List<BaseAllAppsAdapter.AdapterItem>> = flow {
-        val searchTargets = mutableListOf<SearchTargetCompat>()
-        val localSearchResults = performDeviceLocalSearch(query, prefs)
-        parseLocalSearchResults(localSearchResults, searchTargets)
-        emit(transformSearchResults(searchTargets))
+        return searchTargets
     }
 
     private fun getSearchLinks(
         query: String,
-    ): Flow<List<BaseAllAppsAdapter.AdapterItem>> = flow {
+    ): List<SearchTargetCompat> {
         val searchTargets = mutableListOf<SearchTargetCompat>()
 
         searchTargets.add(searchTargetFactory.createHeaderTarget(SPACE))
         if (useWebSuggestions) {
-            withContext(Dispatchers.IO) {
-                searchTargets.add(searchTargetFactory.createWebSearchTarget(query, webSuggestionsProvider))
-            }
+            searchTargets.add(searchTargetFactory.createWebSearchTarget(query, webSuggestionsProvider))
         }
         searchTargetFactory.createMarketSearchTarget(query)?.let { searchTargets.add(it) }
-        emit(transformSearchResults(searchTargets))
+        return searchTargets
     }
 
     private fun parseAppSearchResults(
@@ -225,175 +289,137 @@ class LawnchairLocalSearchAlgorithm(context: Context) : LawnchairSearchAlgorithm
         }
     }
 
-    private fun parseLocalSearchResults(
-        localSearchResults: MutableList<SearchResult>,
-        searchTargets: MutableList<SearchTargetCompat>,
-    ) {
-        val suggestionProvider = webSuggestionsProvider
-        val suggestions = filterByType(localSearchResults, WEB_SUGGESTION)
-        if (suggestions.isNotEmpty()) {
-            val suggestionsHeader =
-                searchTargetFactory.createHeaderTarget(context.getString(R.string.all_apps_search_result_suggestions))
-            searchTargets.add(suggestionsHeader)
-            searchTargets.addAll(
-                suggestions.map {
-                    searchTargetFactory.createWebSuggestionsTarget(it.resultData as String, suggestionProvider)
-                },
-            )
-        }
+    private fun performAppSearch(
+        apps: AllAppsList,
+        query: String,
+    ) = if (enableFuzzySearch) {
+        SearchUtils.fuzzySearch(apps.searchIndex, query, maxAppResultsCount, hiddenApps, hiddenAppsInSearch)
+    } else {
+        SearchUtils.normalSearch(apps.searchIndex, query, maxAppResultsCount, hiddenApps, hiddenAppsInSearch, session)
+    }
 
-        val calculator = filterByType(localSearchResults, CALCULATOR).firstOrNull()
-        val calcData = calculator?.resultData as? Calculation
-        if (calcData != null && calcData.isValid) {
-            val calculatorHeader =
-                searchTargetFactory.createHeaderTarget(context.getString(R.string.all_apps_search_result_calculator))
-            searchTargets.add(calculatorHeader)
-            searchTargets.add(
-                searchTargetFactory.createCalculatorTarget(calcData),
-            )
+    private suspend fun getWebSuggestionTargets(query: String): List<SearchTargetCompat> {
+        val suggestionProvider = webSuggestionsProvider
+        val provider = WebSearchProvider.fromString(suggestionProvider)
+        val suggestions = webSuggestionCache.getCached(provider, query, maxWebSuggestionsCount) ?: run {
+            // The search is cancelled by the next keystroke, so only the queries the user
+            // pauses on reach the network. Keep most of the delay for the request itself.
+            delay((maxWebSuggestionDelay / 4L).coerceAtMost(WEB_SUGGESTION_DEBOUNCE_MS))
+            webSuggestionCache.getSuggestions(provider, query, maxWebSuggestionsCount)
         }
-
-        val contacts = filterByType(localSearchResults, CONTACT)
-        if (contacts.isNotEmpty()) {
-            val contactsHeader =
-                searchTargetFactory.createHeaderTarget(context.getString(R.string.all_apps_search_result_contacts_from_device))
-            searchTargets.add(contactsHeader)
-            searchTargets.addAll(contacts.map { searchTargetFactory.createContactsTarget(it.resultData as ContactInfo) })
+        if (suggestions.isEmpty()) return emptyList()
+        return buildList {
+            add(searchTargetFactory.createHeaderTarget(context.getString(R.string.all_apps_search_result_suggestions)))
+            suggestions.mapTo(this) { searchTargetFactory.createWebSuggestionsTarget(it, suggestionProvider) }
         }
+    }
 
-        val settings = filterByType(localSearchResults, SETTINGS)
-        if (settings.isNotEmpty()) {
-            val settingsHeader =
-                searchTargetFactory.createHeaderTarget(context.getString(R.string.all_apps_search_result_settings_entry_from_device))
-            searchTargets.add(settingsHeader)
-            searchTargets.addAll(settings.mapNotNull { searchTargetFactory.createSettingsTarget(it.resultData as SettingInfo) })
-        }
+    private suspend fun getCalculatorTargets(query: String): List<SearchTargetCompat> {
+        val calculation = withContext(Dispatchers.IO) { calculateEquationFromString(query) }
+        if (!calculation.isValid) return emptyList()
+        return listOf(
+            searchTargetFactory.createHeaderTarget(context.getString(R.string.all_apps_search_result_calculator)),
+            searchTargetFactory.createCalculatorTarget(calculation),
+        )
+    }
 
-        // todo refactor to only show when search is first clicked
-        val recentKeyword = filterByType(localSearchResults, HISTORY)
-        if (recentKeyword.isNotEmpty()) {
-            val recentKeywordHeader = searchTargetFactory.createHeaderTarget(
-                context.getString(R.string.search_pref_result_history_title),
-                HEADER_JUSTIFY,
-            )
-            searchTargets.add(recentKeywordHeader)
-            searchTargets.addAll(recentKeyword.map { searchTargetFactory.createSearchHistoryTarget(it.resultData as RecentKeyword, suggestionProvider) })
+    private suspend fun getContactTargets(query: String, prefs: PreferenceManager): List<SearchTargetCompat> {
+        if (!requestContactPermissionGranted(context, prefs)) return emptyList()
+        val contacts = session.refineOrSearch(
+            CONTACT,
+            query,
+            maxPeopleCount,
+            { contact: ContactInfo, q -> ContactsIndex.matches(contact.name, q) },
+        ) {
+            findContactsByName(context, query, maxPeopleCount)
         }
-
-        val files = filterByType(localSearchResults, FILES)
-        if (files.isNotEmpty()) {
-            val filesHeader =
-                searchTargetFactory.createHeaderTarget(context.getString(R.string.all_apps_search_result_files))
-            searchTargets.add(filesHeader)
-            searchTargets.addAll(files.map { searchTargetFactory.createFilesTarget(it.resultData as IFileInfo) })
+        if (contacts.isEmpty()) return emptyList()
+        return buildList {
+            add(searchTargetFactory.createHeaderTarget(context.getString(R.string.all_apps_search_result_contacts_from_device)))
+            contacts.mapTo(this) { searchTargetFactory.createContactsTarget(it) }
         }
     }
 
-    private fun performAppSearch(
-        apps: MutableList<AppInfo>,
-        query: String,
-    ) = if (enableFuzzySearch) {
-        SearchUtils.fuzzySearch(apps, query, maxAppResultsCount, hiddenApps, hiddenAppsInSearch)
-    } else {
-        SearchUtils.normalSearch(apps, query, maxAppResultsCount, hiddenApps, hiddenAppsInSearch)
+    private suspend fun getSettingTargets(query: String): List<SearchTargetCompat> {
+        val catalog = SettingsCatalog.INSTANCE.get(context)
+        val settings = session.refineOrSearch(
+            SETTINGS,
+            query,
+            maxSettingsEntryCount,
+            { setting: SettingInfo, q -> catalog.matches(setting, q) },
+        ) {
+            findSettingsByNameAndAction(context, query, maxSettingsEntryCount)
+        }
+        if (settings.isEmpty()) return emptyList()
+        return buildList {
+            add(searchTargetFactory.createHeaderTarget(context.getString(R.string.all_apps_search_result_settings_entry_from_device)))
+            settings.mapNotNullTo(this) { searchTargetFactory.createSettingsTarget(it) }
+        }
     }
 
-    private suspend fun performDeviceLocalSearch(query: String, prefs: PreferenceManager): MutableList<SearchResult> =
-        withContext(Dispatchers.IO) {
-            val results = ArrayList<SearchResult>()
-
-            if (prefs.searchResultCalculator.get()) {
-                val calculations = calculateEquationFromString(query)
-                results.add(SearchResult(CALCULATOR, calculations))
-            }
-
-            val contactDeferred = async {
-                if (prefs.searchResultPeople.get() && requestContactPermissionGranted(
-                        context,
-                        prefs,
-                    )
-                ) {
-                    findContactsByName(context, query, maxPeopleCount)
-                        .map { SearchResult(CONTACT, it) }
-                } else {
-                    emptyList()
+    // todo refactor to only show when search is first clicked
+    private suspend fun getHistoryTargets(query: String): List<SearchTargetCompat> {
+        val recentKeywords = mutableListOf<RecentKeyword>()
+        getRecentKeyword(
+            context,
+            query,
+            maxRecentResultCount,
+            object : app.lawnchair.search.algorithms.data.SearchCallback {
+                override fun onSearchLoaded(items: List<Any>) {
+                    items.filterIsInstanceTo(recentKeywords)
                 }
-            }
 
-            val filesDeferred = async {
-                if (prefs.searchResultFiles.get() && checkAndRequestFilesPermission(
-                        context,
-                        prefs,
-                    )
-                ) {
-                    queryFilesInMediaStore(context, keyword = query, maxResult = maxFilesCount)
-                        .toList()
-                        .map { SearchResult(FILES, it) }
-                } else {
-                    emptyList()
-                }
-            }
-
-            val settingsDeferred = async {
-                if (prefs.searchResultSettingsEntry.get()) {
-                    findSettingsByNameAndAction(query, maxSettingsEntryCount)
-                        .map { SearchResult(SETTINGS, it) }
-                } else {
-                    emptyList()
-                }
-            }
-
-            val startPageSuggestionsDeferred = async {
-                try {
-                    val timeout = maxWebSuggestionDelay.toLong()
-                    val result = withTimeoutOrNull(timeout) {
-                        if (prefs.searchResultStartPageSuggestion.get()) {
-                            WebSearchProvider.fromString(webSuggestionsProvider).getSuggestions(query, maxWebSuggestionsCount).map {
-                                SearchResult(
-                                    WEB_SUGGESTION,
-                                    it,
-                                )
-                            }
-                        } else {
-                            emptyList()
-                        }
-                    }
-                    result ?: emptyList()
-                } catch (e: TimeoutCancellationException) {
-                    emptyList()
-                }
-            }
-
-            if (prefs.searchResulRecentSuggestion.get()) {
-                getRecentKeyword(
-                    context,
-                    query,
-                    maxRecentResultCount,
-                    object : app.lawnchair.search.algorithms.data.SearchCallback {
-                        override fun onSearchLoaded(items: List<Any>) {
-                            results.addAll(items.map { SearchResult(HISTORY, it) })
-                        }
-
-                        override fun onSearchFailed(error: String) {
-                            results.add(SearchResult(ERROR, error))
-                        }
-
-                        override fun onLoading() {
-                            results.add(SearchResult(LOADING, "Loading"))
-                        }
-                    },
-                )
-            }
+                override fun onSearchFailed(error: String) {}
 
-            results.addAll(contactDeferred.await())
-            results.addAll(filesDeferred.await())
-            results.addAll(settingsDeferred.await())
-            results.addAll(startPageSuggestionsDeferred.await())
+                override fun onLoading() {}
+            },
+        )
+        if (recentKeywords.isEmpty()) return emptyList()
+        val suggestionProvider = webSuggestionsProvider
+        return buildList {
+            add(
+                searchTargetFactory.createHeaderTarget(
+                    context.getString(R.string.search_pref_result_history_title),
+                    HEADER_JUSTIFY,
+                ),
+            )
+            recentKeywords.mapTo(this) { searchTargetFactory.createSearchHistoryTarget(it, suggestionProvider) }
+        }
+    }
 
-            results
+    private suspend fun getFileTargets(query: String, prefs: PreferenceManager): List<SearchTargetCompat> {
+        if (!checkAndRequestFilesPermission(context, prefs)) return emptyList()
+        val files = session.refineOrSearch(
+            FILES,
+            query,
+            maxFilesCount,
+            { file: IFileInfo, q -> FileSearchIndex.matches(file.name, q) },
+        ) {
+            queryFilesInMediaStore(context, keyword = query, maxResult = maxFilesCount)
+        }
+        if (files.isEmpty()) return emptyList()
+        return buildList {
+            add(searchTargetFactory.createHeaderTarget(context.getString(R.string.all_apps_search_result_files)))
+            files.mapTo(this) { searchTargetFactory.createFilesTarget(it) }
         }
+    }
+
+    /**
+     * Sources of search results, in the order their sections are displayed.
+     */
+    private enum class SearchSource(val deadlineMillis: Long) {
+        APPS(1000),
+        WEB_SUGGESTIONS(200),
+        CALCULATOR(200),
+        CONTACTS(500),
+        SETTINGS(500),
+        HISTORY(300),
+        FILES(500),
+        LINKS(1000),
+    }
 
-    private fun filterByType(results: List<SearchResult>, type: String): List<SearchResult> {
-        return results.filter { it.resultType == type }
+    companion object {
+        private const val TAG = "LawnchairLocalSearch"
+        private const val WEB_SUGGESTION_DEBOUNCE_MS = 100L
     }
 }
@@ -0,0 +1,60 @@
+package app.lawnchair.search.algorithms
+
+import java.io.PrintWriter
+
+/**
+ * Latency histograms of the search result sources, to find out which of them delays the
+ * results in the drawer. Dumped with the launcher state:
+ * `adb shell dumpsys activity app.lawnchair.LawnchairLauncher`
+ */
+object SearchLatencyMetrics {
+
+    /** Upper bounds of the histogram buckets, in milliseconds. The last bucket is unbounded. */
+    private val BUCKETS = longArrayOf(8, 16, 32, 64, 128, 256, 512, 1024)
+
+    private val histograms = linkedMapOf<String, Histogram>()
+
+    @Synchronized
+    fun record(source: String, durationMillis: Long, timedOut: Boolean) {
+        histograms.getOrPut(source) { Histogram() }.record(durationMillis, timedOut)
+    }
+
+    @Synchronized
+    fun dump(prefix: String, writer: PrintWriter) {
+        writer.println("${prefix}SearchLatencyMetrics:")
+        if (histograms.isEmpty()) {
+            writer.println("$prefix  no searches recorded")
+            return
+        }
+        histograms.forEach { (source, histogram) ->
+            writer.println("$prefix  $source: $histogram")
+        }
+    }
+
+    private class Histogram {
+        private val counts = IntArray(BUCKETS.size + 1)
+        private var count = 0
+        private var timeouts = 0
+        private var totalMillis = 0L
+        private var maxMillis = 0L
+
+        fun record(durationMillis: Long, timedOut: Boolean) {
+            val bucket = BUCKETS.indexOfFirst { durationMillis <= it }
+            counts[if (bucket < 0) BUCKETS.size else bucket]++
+            count++
+            if (timedOut) timeouts++
+            totalMillis += durationMillis
+            maxMillis = maxOf(maxMillis, durationMillis)
+        }
+
+        override fun toString() = buildString {
+            append("count=$count timeouts=$timeouts avg=${totalMillis / count.coerceAtLeast(1)}ms max=${maxMillis}ms [")
+            counts.forEachIndexed { i, bucketCount ->
+                if (i > 0) append(", ")
+                append(if (i < BUCKETS.size) "<=${BUCKETS[i]}ms" else ">${BUCKETS.last()}ms")
+                append('=').append(bucketCount)
+            }
+            append(']')
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package app.lawnchair.search.algorithms
+
+import com.android.launcher3.model.data.AppInfo
+import com.android.launcher3.search.AppTitleSearchIndex
+import java.util.Locale
+
+/**
+ * State kept between the keystrokes of a single search. When a query extends the previous one
+ * (e.g. "cal" then "calc"), the results of the previous query are filtered instead of searching
+ * from scratch, since they are a superset of the new ones.
+ *
+ * The session is reset when the search is cleared.
+ */
+class SearchSession {
+
+    private var appQuery = ""
+    private var appIndexVersion = -1
+    private var appMatches: List<AppInfo> = emptyList()
+    private var appMax = 0
+
+    private val localResults = mutableMapOf<String, LocalResults<*>>()
+
+    /**
+     * Returns up to [max] apps of [index] matching [query], which is expected to be lower case.
+     * The previous matches are only refined if they were complete (fewer than [max]).
+     */
+    @Synchronized
+    fun matchApps(index: AppTitleSearchIndex, query: String, max: Int): List<AppInfo> {
+        val version = index.version
+        appMatches = if (version == appIndexVersion && appMatches.size < appMax &&
+            query.extends(appQuery)
+        ) {
+            index.refine(appMatches, query).take(max)
+        } else {
+            index.query(query, max) { true }
+        }
+        appQuery = query
+        appIndexVersion = version
+        appMax = max
+        return appMatches
+    }
+
+    /**
+     * Returns the results of [search] for the provider identified by [type]. If the previous
+     * results of that provider were complete (fewer than [max]) and [query] extends their query,
+     * they are filtered with [matches] instead of running [search] again.
+     */
+    suspend fun <T> refineOrSearch(
+        type: String,
+        query: String,
+        max: Int,
+        matches: (T, String) -> Boolean,
+        search: suspend () -> List<T>,
+    ): List<T> {
+        val previous = previousResults<T>(type)
+        if (previous != null && previous.results.size < max && query.extends(previous.query)) {
+            return previous.results.filter { matches(it, query) }
+                .also { storeResults(type, LocalResults(query, it)) }
+        }
+        return search().also { storeResults(type, LocalResults(query, it)) }
+    }
+
+    @Synchronized
+    fun reset() {
+        appQuery = ""
+        appIndexVersion = -1
+        appMatches = emptyList()
+        appMax = 0
+        localResults.clear()
+    }
+
+    @Synchronized
+    @Suppress("UNCHECKED_CAST")
+    private fun <T> previousResults(type: String) = localResults[type] as LocalResults<T>?
+
+    @Synchronized
+    private fun storeResults(type: String, results: LocalResults<*>) {
+        localResults[type] = results
+    }
+
+    private fun String.extends(previous: String) = previous.isNotEmpty() &&
+        lowercase(Locale.getDefault()).startsWith(previous.lowercase(Locale.getDefault()))
+
+    private class LocalResults<T>(val query: String, val results: List<T>)
+}
@@ -6,40 +6,35 @@ import app.lawnchair.launcher
 import app.lawnchair.ui.preferences.components.HiddenAppsInSearch
 import com.android.launcher3.model.data.AppInfo
 import com.android.launcher3.popup.PopupPopulator
-import com.android.launcher3.search.StringMatcherUtility
+import com.android.launcher3.search.AppTitleSearchIndex
 import com.android.launcher3.shortcuts.ShortcutRequest
 import java.util.Locale
-import me.xdrop.fuzzywuzzy.FuzzySearch
 import me.xdrop.fuzzywuzzy.algorithms.WeightedRatio
 
 object SearchUtils {
-    fun normalSearch(apps: List<AppInfo>, query: String, maxResultsCount: Int, hiddenApps: Set<String>, hiddenAppsInSearch: String): List<AppInfo> {
+    fun normalSearch(index: AppTitleSearchIndex, query: String, maxResultsCount: Int, hiddenApps: Set<String>, hiddenAppsInSearch: String, session: SearchSession? = null): List<AppInfo> {
         // Do an intersection of the words in the query and each title, and filter out all the
-        // apps that don't match all of the words in the query.
+        // apps that don't match all of the words in the query. The index only hands out the
+        // apps having a word starting like the query, so this doesn't scan every app.
         val queryTextLower = query.lowercase(Locale.getDefault())
-        val matcher = StringMatcherUtility.StringMatcher.getInstance()
-        return apps.asSequence()
-            .filter { StringMatcherUtility.matches(queryTextLower, it.title.toString(), matcher) }
-            .filterHiddenApps(queryTextLower, hiddenApps, hiddenAppsInSearch)
-            .take(maxResultsCount)
-            .toList()
+        if (session != null) {
+            // Hidden apps can be filtered out after matching, each of them takes a slot at most
+            return session.matchApps(index, queryTextLower, maxResultsCount + hiddenApps.size).asSequence()
+                .filter { it.isVisibleInSearch(queryTextLower, hiddenApps, hiddenAppsInSearch) }
+                .take(maxResultsCount)
+                .toList()
+        }
+        return index.query(queryTextLower, maxResultsCount) {
+            it.isVisibleInSearch(queryTextLower, hiddenApps, hiddenAppsInSearch)
+        }
     }
 
-    fun fuzzySearch(apps: List<AppInfo>, query: String, maxResultsCount: Int, hiddenApps: Set<String>, hiddenAppsInSearch: String): List<AppInfo> {
+    fun fuzzySearch(index: AppTitleSearchIndex, query: String, maxResultsCount: Int, hiddenApps: Set<String>, hiddenAppsInSearch: String): List<AppInfo> {
         val queryTextLower = query.lowercase(Locale.getDefault())
-        val filteredApps = apps.asSequence()
-            .filterHiddenApps(queryTextLower, hiddenApps, hiddenAppsInSearch)
-            .toList()
-        val matches = FuzzySearch.extractSorted(
-            queryTextLower,
-            filteredApps,
-            { it.sectionName + it.title },
-            WeightedRatio(),
-            65,
-        )
-
-        return matches.take(maxResultsCount)
-            .map { it.referent }
+        val ratio = WeightedRatio()
+        return index.fuzzyQuery(queryTextLower, maxResultsCount, 65, { a, b -> ratio.apply(a, b) }) {
+            it.isVisibleInSearch(queryTextLower, hiddenApps, hiddenAppsInSearch)
+        }
     }
 
     fun getShortcuts(app: AppInfo, context: Context): List<ShortcutInfo> {
@@ -50,23 +45,21 @@ object SearchUtils {
     }
 }
 
-fun Sequence<AppInfo>.filterHiddenApps(
+fun AppInfo.isVisibleInSearch(
     query: String,
     hiddenApps: Set<String>,
     hiddenAppsInSearch: String,
-): Sequence<AppInfo> {
+): Boolean {
     return when (hiddenAppsInSearch) {
         HiddenAppsInSearch.ALWAYS -> {
-            this
+            true
         }
         HiddenAppsInSearch.IF_NAME_TYPED -> {
-            filter {
-                it.toComponentKey().toString() !in hiddenApps ||
-                    it.title.toString().lowercase(Locale.getDefault()) == query
-            }
+            toComponentKey().toString() !in hiddenApps ||
+                title.toString().lowercase(Locale.getDefault()) == query
         }
         else -> {
-            filter { it.toComponentKey().toString() !in hiddenApps }
+            toComponentKey().toString() !in hiddenApps
         }
     }
 }
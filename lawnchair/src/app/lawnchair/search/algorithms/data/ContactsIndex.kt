@@ -0,0 +1,249 @@
+package app.lawnchair.search.algorithms.data
+
+import android.content.Context
+import android.database.ContentObserver
+import android.net.Uri
+import android.provider.ContactsContract
+import app.lawnchair.util.uiHelperHandler
+import com.android.launcher3.util.MainThreadInitializedObject
+import com.android.launcher3.util.SafeCloseable
+import java.text.Normalizer
+import java.util.Locale
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withContext
+
+/**
+ * In-memory snapshot of the display names of the device contacts, so that searching contacts
+ * doesn't query the contacts provider on every keystroke.
+ *
+ * The snapshot is loaded on first use and reloaded in the background when the contacts change.
+ * Searches keep using the previous snapshot until the reload has finished.
+ * Names are matched by the start of the name, the start of any of its words, or their initials
+ * ("jd" matches "John Doe"). Only the best matches are resolved to [ContactInfo].
+ */
+class ContactsIndex private constructor(private val context: Context) : SafeCloseable {
+
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+    private val loadLock = Mutex()
+
+    // Incremented on every change of the contacts, compared to the generation of the snapshot
+    @Volatile
+    private var generation = 0
+
+    @Volatile
+    private var snapshot: Snapshot? = null
+
+    @Volatile
+    private var observerRegistered = false
+    private var reloadJob: Job? = null
+
+    private val observer = object : ContentObserver(uiHelperHandler) {
+        override fun onChange(selfChange: Boolean, uri: Uri?) {
+            generation++
+            // Contacts sync tends to notify in bursts, only reload once it has settled
+            reloadJob?.cancel()
+            reloadJob = scope.launch {
+                delay(RELOAD_DELAY_MS)
+                reloadSnapshot()
+            }
+        }
+    }
+
+    /**
+     * Returns up to [max] contacts matching [query], best matches first.
+     */
+    suspend fun search(query: String, max: Int): List<ContactInfo> {
+        if (query.isBlank() || max <= 0) return emptyList()
+        val normalizedQuery = normalize(query.trim())
+        val entries = getSnapshot().entries
+        val matches = entries.asSequence()
+            .mapNotNull { entry -> entry.rank(normalizedQuery)?.let { rank -> entry to rank } }
+            // sortedBy is stable, so equal ranks keep the provider's name order
+            .sortedBy { it.second }
+            .take(max)
+            .map { it.first.contactId }
+            .toList()
+        if (matches.isEmpty()) return emptyList()
+        return resolveContacts(matches)
+    }
+
+    override fun close() {
+        scope.cancel()
+        if (observerRegistered) {
+            context.contentResolver.unregisterContentObserver(observer)
+        }
+    }
+
+    private suspend fun getSnapshot(): Snapshot {
+        snapshot?.let { return it }
+        return loadLock.withLock {
+            snapshot ?: loadSnapshot().also { snapshot = it }
+        }
+    }
+
+    private suspend fun reloadSnapshot() {
+        loadLock.withLock {
+            if (snapshot?.generation != generation) {
+                snapshot = loadSnapshot()
+            }
+        }
+    }
+
+    private suspend fun loadSnapshot(): Snapshot = withContext(Dispatchers.IO) {
+        if (!observerRegistered) {
+            context.contentResolver.registerContentObserver(
+                ContactsContract.Contacts.CONTENT_URI,
+                true,
+                observer,
+            )
+            observerRegistered = true
+        }
+        // Read the generation first, so that a change during the load triggers another one
+        val loadGeneration = generation
+        val entries = ArrayList<Entry>()
+        context.contentResolver.query(
+            ContactsContract.Contacts.CONTENT_URI,
+            arrayOf(ContactsContract.Contacts._ID, ContactsContract.Contacts.DISPLAY_NAME_PRIMARY),
+            null,
+            null,
+            ContactsContract.Contacts.SORT_KEY_PRIMARY,
+        )?.use {
+            val idIndex = it.getColumnIndexOrThrow(ContactsContract.Contacts._ID)
+            val nameIndex = it.getColumnIndexOrThrow(ContactsContract.Contacts.DISPLAY_NAME_PRIMARY)
+            entries.ensureCapacity(it.count)
+            while (it.moveToNext()) {
+                val name = it.getString(nameIndex) ?: continue
+                entries.add(Entry(it.getString(idIndex), normalize(name)))
+            }
+        }
+        Snapshot(loadGeneration, entries)
+    }
+
+    /**
+     * Loads the details of [contactIds], keeping their order.
+     */
+    private suspend fun resolveContacts(contactIds: List<String>): List<ContactInfo> = withContext(Dispatchers.IO) {
+        val contactMap = HashMap<String, ContactInfo>()
+        val selection = ContactsContract.Data.CONTACT_ID + " IN (" +
+            contactIds.joinToString(",") { "?" } + ")"
+        context.contentResolver.query(
+            ContactsContract.Data.CONTENT_URI,
+            DATA_PROJECTION,
+            selection,
+            contactIds.toTypedArray(),
+            null,
+        )?.use {
+            val contactIdIndex = it.getColumnIndex(ContactsContract.Data.CONTACT_ID)
+            val displayNameIndex = it.getColumnIndex(ContactsContract.Data.DISPLAY_NAME)
+            val data1Index = it.getColumnIndex(ContactsContract.Data.DATA1)
+            val data3Index = it.getColumnIndex(ContactsContract.Data.DATA3)
+            val data5Index = it.getColumnIndex(ContactsContract.Data.DATA5)
+            val phonebookLabelIndex = it.getColumnIndex("phonebook_label")
+            val accountTypeIndex = it.getColumnIndex("account_type")
+            val accountNameIndex = it.getColumnIndex("account_name")
+            val mimeTypeIndex = it.getColumnIndex(ContactsContract.Data.MIMETYPE)
+            val photoUriIndex = it.getColumnIndex(ContactsContract.Data.PHOTO_URI)
+            while (it.moveToNext()) {
+                val contactId = it.getString(contactIdIndex) ?: continue
+                val mimeType = it.getString(mimeTypeIndex)
+                val data5 = it.getString(data5Index)
+                val phoneNumber = it.getString(data3Index) ?: data5 ?: it.getString(data1Index)
+                if (!EXCLUDED_MIME_TYPES.contains(mimeType)) {
+                    val displayName = it.getString(displayNameIndex)
+                    contactMap[contactId] = ContactInfo(
+                        contactId,
+                        displayName,
+                        phoneNumber,
+                        it.getString(phonebookLabelIndex) ?: "",
+                        it.getString(photoUriIndex) ?: "",
+                        contactId + displayName + phoneNumber,
+                    )
+                } else {
+                    contactMap[contactId]?.packages = accountJson(
+                        contactId,
+                        data5,
+                        it.getString(accountNameIndex),
+                        it.getString(accountTypeIndex),
+                        mimeType,
+                    )
+                }
+            }
+        }
+        contactIds.mapNotNull { contactMap[it] }
+    }
+
+    private class Snapshot(val generation: Int, val entries: List<Entry>)
+
+    private class Entry(val contactId: String, val name: String) {
+
+        private val wordStarts: IntArray
+        private val initials: String
+
+        init {
+            val starts = ArrayList<Int>()
+            for (i in name.indices) {
+                if (name[i].isLetterOrDigit() && (i == 0 || !name[i - 1].isLetterOrDigit())) {
+                    starts.add(i)
+                }
+            }
+            wordStarts = starts.toIntArray()
+            initials = starts.joinToString("") { name[it].toString() }
+        }
+
+        /**
+         * Returns how well [query] matches this contact, lower is better, or null if it doesn't.
+         */
+        fun rank(query: String): Int? = when {
+            name.startsWith(query) -> RANK_NAME_PREFIX
+            wordStarts.any { name.startsWith(query, it) } -> RANK_WORD_PREFIX
+            query.length > 1 && initials.startsWith(query) -> RANK_INITIALS
+            else -> null
+        }
+    }
+
+    companion object {
+        private const val RELOAD_DELAY_MS = 1000L
+
+        private const val RANK_NAME_PREFIX = 0
+        private const val RANK_WORD_PREFIX = 1
+        private const val RANK_INITIALS = 2
+
+        private val IGNORABLE = Regex("\\p{Mn}+")
+
+        private val DATA_PROJECTION = arrayOf(
+            ContactsContract.Data.CONTACT_ID,
+            ContactsContract.Data.DISPLAY_NAME,
+            ContactsContract.Data.DATA1,
+            ContactsContract.Data.DATA3,
+            ContactsContract.Data.DATA5,
+            "phonebook_label",
+            "account_type",
+            "account_name",
+            ContactsContract.Data.MIMETYPE,
+            ContactsContract.Data.PHOTO_URI,
+        )
+
+        @JvmField
+        val INSTANCE = MainThreadInitializedObject(::ContactsIndex)
+
+        /**
+         * Returns whether [name] matches [query] the way the index matches contacts.
+         */
+        fun matches(name: String, query: String): Boolean {
+            if (query.isBlank()) return false
+            return Entry("", normalize(name)).rank(normalize(query.trim())) != null
+        }
+
+        private fun normalize(text: String) = IGNORABLE
+            .replace(Normalizer.normalize(text, Normalizer.Form.NFD), "")
+            .lowercase(Locale.getDefault())
+    }
+}
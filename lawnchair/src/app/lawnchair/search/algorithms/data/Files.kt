@@ -2,24 +2,14 @@ package app.lawnchair.search.algorithms.data
 
 import android.annotation.DrawableRes
 import android.content.Context
-import android.database.Cursor
-import android.net.Uri
-import android.provider.MediaStore
+import app.lawnchair.search.algorithms.data.fileindex.FileSearchIndex
 import app.lawnchair.util.androidPkgTypes
 import app.lawnchair.util.archiveFileTypes
 import app.lawnchair.util.audioFileTypes
 import app.lawnchair.util.documentFileTypes
-import app.lawnchair.util.exists
 import app.lawnchair.util.imageFileTypes
-import app.lawnchair.util.isDirectory
-import app.lawnchair.util.isHidden
-import app.lawnchair.util.isRegularFile
-import app.lawnchair.util.mimeType2Extension
 import app.lawnchair.util.videoFileTypes
 import com.android.launcher3.R
-import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.withContext
-import okio.Path.Companion.toPath
 
 sealed interface IFileInfo {
     val path: String
@@ -82,96 +72,6 @@ data class FileInfo(
 
 suspend fun queryFilesInMediaStore(
     context: Context,
-    uri: Uri = MediaStore.Files.getContentUri("external"),
-    path: String = "",
     keyword: String,
     maxResult: Int,
-    mimes: Array<String>? = null,
-): Sequence<IFileInfo> = withContext(Dispatchers.IO) {
-    val selection = "${commonProjection[0]} like ? AND ${commonProjection[0]} like ? ".let {
-        if (mimes == null) it else it + "AND ${commonProjection[4]} IN (${mimes.selectionArgsPlaceHolder})"
-    }
-    val selectionArgs = arrayOf("%$path%", "%$keyword%").let {
-        if (mimes == null) it else it + mimes
-    }
-    getFileListFromMediaStore(
-        context,
-        uri,
-        commonProjection,
-        selection,
-        selectionArgs,
-        maxResult = maxResult,
-    ) { cursor ->
-        val filePath = cursor.getString(cursor.getColumnIndexOrThrow(commonProjection[0])).toPath()
-        if (filePath.isDirectory()) getFolderBean(cursor) else getFileBean(cursor)
-    }
-}
-
-private val Array<String>.selectionArgsPlaceHolder: String get() = Array(size) { "?" }.joinToString()
-private val commonProjection = arrayOf(
-    MediaStore.MediaColumns.DATA,
-    MediaStore.MediaColumns.DISPLAY_NAME,
-    MediaStore.MediaColumns.SIZE,
-    MediaStore.MediaColumns.DATE_MODIFIED,
-    MediaStore.MediaColumns.MIME_TYPE,
-    MediaStore.MediaColumns.TITLE,
-    MediaStore.MediaColumns._ID,
-)
-
-private suspend inline fun <T : Any> getFileListFromMediaStore(
-    context: Context,
-    uri: Uri,
-    projection: Array<String>?,
-    selection: String?,
-    selectionArgs: Array<String>?,
-    sortOrder: String = "${commonProjection[3]} DESC",
-    maxResult: Int,
-    crossinline body: (Cursor) -> T?,
-): Sequence<T> = withContext(Dispatchers.IO) {
-    context.contentResolver.query(uri, projection, selection, selectionArgs, sortOrder)
-        ?.use { cursor ->
-            var count = 0
-            buildList {
-                while (cursor.moveToNext()) {
-                    val bean = body(cursor) ?: continue
-                    add(bean)
-                    count++
-                    if (count >= maxResult) break
-                }
-            }.asSequence()
-        } ?: emptySequence()
-}
-
-private fun getFileBean(cursor: Cursor): IFileInfo? = cursor.run {
-    val mimeType = getString(getColumnIndexOrThrow(commonProjection[4]))
-    val title = getString(getColumnIndexOrThrow(commonProjection[1]))
-        ?: getString(getColumnIndexOrThrow(commonProjection[5]))?.let {
-            if (mimeType == null) it else "$it.${mimeType.mimeType2Extension()}"
-        } ?: return null
-    val path = getString(getColumnIndexOrThrow(commonProjection[0])).toPath()
-    val fileId = getString(getColumnIndexOrThrow(commonProjection[6]))
-    if (!path.isRegularFile() || path.isHidden) return null
-    val dateModified = getLong(getColumnIndexOrThrow(commonProjection[3])) * 1000
-    return FileInfo(
-        fileId,
-        path.toString(),
-        title,
-        getLong(getColumnIndexOrThrow(commonProjection[2])),
-        dateModified,
-        mimeType,
-    )
-}
-
-private fun getFolderBean(cursor: Cursor): FolderInfo? = cursor.run {
-    val title = getString(getColumnIndexOrThrow(commonProjection[1]))
-        ?: getString(getColumnIndexOrThrow(commonProjection[5])) ?: return null
-    val path = getString(getColumnIndexOrThrow(commonProjection[0])).toPath()
-    if (!path.exists || path.isHidden) return null
-    val dateModified = getLong(getColumnIndexOrThrow(commonProjection[3])) * 1000
-    return FolderInfo(
-        path.toString(),
-        title,
-        getLong(getColumnIndexOrThrow(commonProjection[2])),
-        dateModified,
-    )
-}
+): List<IFileInfo> = FileSearchIndex.INSTANCE.get(context).search(keyword, maxResult)
@@ -0,0 +1,196 @@
+package app.lawnchair.search.algorithms.data
+
+import android.content.Context
+import android.content.Intent
+import android.content.pm.PackageManager
+import android.net.Uri
+import android.os.Build
+import android.provider.Settings
+import android.util.Log
+import app.lawnchair.util.kotlinxJson
+import com.android.launcher3.util.MainThreadInitializedObject
+import java.io.File
+import java.lang.reflect.Modifier
+import java.text.Normalizer
+import java.util.Locale
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withContext
+import kotlinx.serialization.Serializable
+import kotlinx.serialization.Transient
+
+/**
+ * The system settings screens that can be opened from search, with the words to find them by.
+ *
+ * The catalog is built once from the `ACTION_*` constants of [Settings] and the labels of the
+ * activities handling them, then saved, so that it's only rebuilt when the system or the locale
+ * changes. Lookups go through a sorted list of the words of all entries, so a query only needs a
+ * binary search per word.
+ */
+class SettingsCatalog private constructor(private val context: Context) {
+
+    private val cacheFile = File(context.cacheDir, CACHE_FILE_NAME)
+    private val loadLock = Mutex()
+
+    @Volatile
+    private var catalog: Catalog? = null
+
+    /**
+     * Returns up to [max] settings with words starting with each of the words of [query].
+     */
+    suspend fun search(query: String, max: Int): List<SettingInfo> {
+        val queryWords = tokenize(query)
+        if (queryWords.isEmpty() || max <= 0) return emptyList()
+        val catalog = getCatalog()
+        // Look up the longest word first, it's likely to match the fewest entries
+        val sortedWords = queryWords.sortedByDescending { it.length }
+        val candidates = catalog.entriesWithWordPrefix(sortedWords.first())
+        return candidates.asSequence()
+            .map { catalog.entries[it] }
+            .filter { entry -> sortedWords.all { word -> entry.words.any { it.startsWith(word) } } }
+            .take(max)
+            .map { SettingInfo(it.name + it.action, it.name, it.action, it.requiresUri) }
+            .toList()
+    }
+
+    /**
+     * Returns whether [setting], a result of a previous [search], has words starting with each of
+     * the words of [query].
+     */
+    fun matches(setting: SettingInfo, query: String): Boolean {
+        val queryWords = tokenize(query)
+        if (queryWords.isEmpty()) return false
+        val entries = catalog?.entries ?: return false
+        val entry = entries.binarySearchBy(setting.name) { it.name }
+            .takeIf { it >= 0 }
+            ?.let { entries[it] }
+            ?: return false
+        return queryWords.all { word -> entry.words.any { it.startsWith(word) } }
+    }
+
+    private suspend fun getCatalog(): Catalog {
+        val key = cacheKey()
+        catalog?.takeIf { it.key == key }?.let { return it }
+        return loadLock.withLock {
+            catalog?.takeIf { it.key == key } ?: withContext(Dispatchers.IO) {
+                (readCatalog(key) ?: buildCatalog(key).also { writeCatalog(it) }).also { catalog = it }
+            }
+        }
+    }
+
+    private fun readCatalog(key: String): Catalog? = try {
+        if (cacheFile.exists()) {
+            kotlinxJson.decodeFromString<Catalog>(cacheFile.readText()).takeIf { it.key == key }
+        } else {
+            null
+        }
+    } catch (e: Exception) {
+        Log.w(TAG, "Failed to read the settings catalog", e)
+        null
+    }
+
+    private fun writeCatalog(catalog: Catalog) {
+        try {
+            cacheFile.writeText(kotlinxJson.encodeToString(Catalog.serializer(), catalog))
+        } catch (e: Exception) {
+            Log.w(TAG, "Failed to save the settings catalog", e)
+        }
+    }
+
+    private fun buildCatalog(key: String): Catalog {
+        val packageManager = context.packageManager
+        val settingsLabel = Intent(Settings.ACTION_SETTINGS).resolveLabel(packageManager)
+        val entries = Settings::class.java.fields
+            .asSequence()
+            .filter {
+                it.type == String::class.java && Modifier.isStatic(it.modifiers) && it.name.startsWith("ACTION_")
+            }
+            .map { it.name to it.get(null) as String }
+            .filter { (name, action) ->
+                !action.contains("REQUEST", ignoreCase = true) &&
+                    !name.contains("REQUEST", ignoreCase = true) &&
+                    !action.contains("PERMISSION", ignoreCase = true) &&
+                    !name.contains("DETAIL", ignoreCase = true) &&
+                    !name.contains("REMOTE", ignoreCase = true)
+            }
+            .map { (name, action) ->
+                val requiresUri = action.contains("URI")
+                val intent = Intent(action)
+                if (requiresUri) {
+                    intent.data = Uri.fromParts("package", context.packageName, null)
+                }
+                // Most screens only have the label of the settings app, which isn't worth matching
+                val label = intent.resolveLabel(packageManager)
+                    ?.takeIf { it != settingsLabel }
+                    .orEmpty()
+                val words = (tokenize(name.removePrefix("ACTION_")) + tokenize(label)).distinct()
+                CatalogEntry(name, action, requiresUri, words)
+            }
+            .sortedBy { it.name }
+            .toList()
+        return Catalog(key, entries)
+    }
+
+    private fun Intent.resolveLabel(packageManager: PackageManager): String? =
+        packageManager.resolveActivity(this, PackageManager.MATCH_DEFAULT_ONLY)
+            ?.loadLabel(packageManager)
+            ?.toString()
+
+    private fun cacheKey() = "${Build.FINGERPRINT}/${Locale.getDefault().toLanguageTag()}"
+
+    @Serializable
+    private class CatalogEntry(
+        val name: String,
+        val action: String,
+        val requiresUri: Boolean,
+        val words: List<String>,
+    )
+
+    @Serializable
+    private class Catalog(val key: String, val entries: List<CatalogEntry>) {
+
+        // Every word of every entry with the index of its entry, sorted by word
+        @Transient
+        private val wordIndex: List<Pair<String, Int>> = entries
+            .flatMapIndexed { i, entry -> entry.words.map { it to i } }
+            .sortedBy { it.first }
+
+        /**
+         * Returns the indexes of the entries with a word starting with [prefix], in order.
+         */
+        fun entriesWithWordPrefix(prefix: String): List<Int> {
+            // Lower bound of the prefix, the words aren't unique so binarySearch doesn't do
+            var low = 0
+            var high = wordIndex.size
+            while (low < high) {
+                val mid = (low + high) ushr 1
+                if (wordIndex[mid].first < prefix) low = mid + 1 else high = mid
+            }
+            val result = sortedSetOf<Int>()
+            var i = low
+            while (i < wordIndex.size && wordIndex[i].first.startsWith(prefix)) {
+                result.add(wordIndex[i].second)
+                i++
+            }
+            return result.toList()
+        }
+    }
+
+    companion object {
+        private const val TAG = "SettingsCatalog"
+        private const val CACHE_FILE_NAME = "settings_catalog.json"
+
+        private val WORD_SEPARATOR = Regex("[^\\p{L}\\p{N}]+")
+        private val IGNORABLE = Regex("\\p{Mn}+")
+
+        @JvmField
+        val INSTANCE = MainThreadInitializedObject(::SettingsCatalog)
+
+        private fun tokenize(text: String): List<String> = IGNORABLE
+            .replace(Normalizer.normalize(text, Normalizer.Form.NFD), "")
+            .lowercase(Locale.getDefault())
+            .split(WORD_SEPARATOR)
+            .filter { it.isNotEmpty() }
+    }
+}
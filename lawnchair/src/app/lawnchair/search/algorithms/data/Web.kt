@@ -96,8 +96,7 @@ data object Google : WebSearchProvider() {
 
     override val baseUrl = "https://www.google.com/"
 
-    override val service: GoogleService
-        get() = retrofit.create()
+    override val service: GoogleService by lazy { retrofit.create() }
 
     override suspend fun getSuggestions(query: String, maxSuggestions: Int): List<String> =
         withContext(Dispatchers.IO) {
@@ -110,17 +109,7 @@ data object Google : WebSearchProvider() {
 
                 if (response.isSuccessful) {
                     val responseBody = response.body()?.string() ?: return@withContext emptyList()
-
-                    val jsonPayload = Regex("\\((.*)\\)").find(responseBody)?.groupValues?.get(1)
-
-                    // Manual JSON parsing
-                    val jsonArray = JSONArray(jsonPayload)
-                    val suggestionsArray = jsonArray.getJSONArray(1) // Get the suggestions array
-                    val suggestionsList = mutableListOf<String>()
-                    for (i in 0 until suggestionsArray.length().coerceAtMost(maxSuggestions)) {
-                        suggestionsList.add(suggestionsArray.getString(i))
-                    }
-                    return@withContext suggestionsList
+                    return@withContext parseSuggestions(responseBody, maxSuggestions)
                 } else {
                     Log.w(
                         "GoogleSearchProvider",
@@ -134,6 +123,30 @@ data object Google : WebSearchProvider() {
             }
         }
 
+    /**
+     * Returns the first [maxSuggestions] suggestions of a response, which may be wrapped in a
+     * JSONP callback.
+     */
+    internal fun parseSuggestions(responseBody: String, maxSuggestions: Int): List<String> {
+        // The payload is wrapped in a JSONP callback, e.g. json([...])
+        val start = responseBody.indexOf('(')
+        val end = responseBody.lastIndexOf(')')
+        val jsonPayload = if (start >= 0 && end > start) {
+            responseBody.substring(start + 1, end)
+        } else {
+            responseBody
+        }
+
+        // Manual JSON parsing
+        val jsonArray = JSONArray(jsonPayload)
+        val suggestionsArray = jsonArray.getJSONArray(1) // Get the suggestions array
+        val suggestionsList = mutableListOf<String>()
+        for (i in 0 until suggestionsArray.length().coerceAtMost(maxSuggestions)) {
+            suggestionsList.add(suggestionsArray.getString(i))
+        }
+        return suggestionsList
+    }
+
     override fun getSearchUrl(query: String) = "https://google.com/search?q=$query"
 
     override fun toString() = "google"
@@ -0,0 +1,128 @@
+package app.lawnchair.search.algorithms.data
+
+import android.os.SystemClock
+import java.util.Locale
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.async
+
+/**
+ * Remembers the web suggestions of recent queries, so that typing back and forth doesn't send
+ * the same request again, and shares the requests that are still running between callers.
+ *
+ * Entries are evicted after [ttlMillis], or when more than [maxEntries] queries are cached. The
+ * network access goes through [fetch], so the cache can be tested against a local server.
+ */
+class WebSuggestionCache(
+    private val maxEntries: Int = DEFAULT_MAX_ENTRIES,
+    private val ttlMillis: Long = DEFAULT_TTL_MS,
+    private val clock: () -> Long = SystemClock::elapsedRealtime,
+    private val fetch: suspend (WebSearchProvider, String, Int) -> List<String> = { provider, query, max ->
+        provider.getSuggestions(query, max)
+    },
+) {
+
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+
+    // Access ordered, so that the first entry is the least recently used one
+    private val entries = LinkedHashMap<String, Entry>(maxEntries, 0.75f, true)
+    private val inFlight = HashMap<String, InFlight>()
+
+    /**
+     * Returns the suggestions for [query] if they are known without a request, or null.
+     */
+    @Synchronized
+    fun getCached(provider: WebSearchProvider, query: String, maxSuggestions: Int): List<String>? {
+        val normalizedQuery = normalize(query)
+        val now = clock()
+        getFresh(key(provider, normalizedQuery), now)
+            ?.takeIf { it.isComplete(maxSuggestions) }
+            ?.let { return it.suggestions.take(maxSuggestions) }
+
+        // The suggestions of a shorter prefix may already contain enough for this query
+        for (length in normalizedQuery.length - 1 downTo 1) {
+            val entry = getFresh(key(provider, normalizedQuery.substring(0, length)), now) ?: continue
+            val matching = entry.suggestions.filter { normalize(it).startsWith(normalizedQuery) }
+            if (matching.size >= maxSuggestions) return matching.take(maxSuggestions)
+        }
+        return null
+    }
+
+    /**
+     * Returns the suggestions for [query], from the cache when possible. Concurrent calls for
+     * the same query share a single request.
+     */
+    suspend fun getSuggestions(provider: WebSearchProvider, query: String, maxSuggestions: Int): List<String> {
+        if (query.isBlank() || maxSuggestions <= 0) return emptyList()
+        getCached(provider, query, maxSuggestions)?.let { return it }
+
+        val key = key(provider, normalize(query))
+        val request = synchronized(this) {
+            inFlight[key]?.takeIf { it.maxSuggestions >= maxSuggestions }
+                ?: InFlight(maxSuggestions, startRequest(key, provider, query, maxSuggestions))
+                    .also { inFlight[key] = it }
+        }
+        return request.result.await().take(maxSuggestions)
+    }
+
+    @Synchronized
+    fun clear() {
+        entries.clear()
+    }
+
+    private fun startRequest(
+        key: String,
+        provider: WebSearchProvider,
+        query: String,
+        maxSuggestions: Int,
+    ): Deferred<List<String>> = scope.async {
+        // Not cancelled with the caller, the result is still worth caching for the next one
+        try {
+            fetch(provider, query, maxSuggestions).also { suggestions ->
+                // Failures come back empty, don't keep them around
+                if (suggestions.isNotEmpty()) {
+                    put(key, Entry(suggestions, maxSuggestions, clock()))
+                }
+            }
+        } finally {
+            synchronized(this@WebSuggestionCache) {
+                if (inFlight[key]?.maxSuggestions == maxSuggestions) inFlight.remove(key)
+            }
+        }
+    }
+
+    @Synchronized
+    private fun put(key: String, entry: Entry) {
+        entries[key] = entry
+        if (entries.size > maxEntries) {
+            entries.remove(entries.keys.first())
+        }
+    }
+
+    private fun getFresh(key: String, now: Long): Entry? {
+        val entry = entries[key] ?: return null
+        if (now - entry.time > ttlMillis) {
+            entries.remove(key)
+            return null
+        }
+        return entry
+    }
+
+    private fun key(provider: WebSearchProvider, normalizedQuery: String) = "$provider/$normalizedQuery"
+
+    private fun normalize(query: String) = query.trim().lowercase(Locale.getDefault())
+
+    private class Entry(val suggestions: List<String>, val requested: Int, val time: Long) {
+        // A response shorter than requested already holds everything the provider had
+        fun isComplete(maxSuggestions: Int) = maxSuggestions <= requested || suggestions.size < requested
+    }
+
+    private class InFlight(val maxSuggestions: Int, val result: Deferred<List<String>>)
+
+    companion object {
+        private const val DEFAULT_MAX_ENTRIES = 64
+        private const val DEFAULT_TTL_MS = 5 * 60_000L
+    }
+}
@@ -0,0 +1,28 @@
+package app.lawnchair.search.algorithms.data.fileindex
+
+import androidx.room.Database
+import androidx.room.Room
+import androidx.room.RoomDatabase
+import com.android.launcher3.util.MainThreadInitializedObject
+
+/**
+ * Local copy of the MediaStore file names used by the file search. It's only a cache, so it's
+ * recreated instead of migrated when the schema changes.
+ */
+@Database(entities = [IndexedFile::class, FileIndexSyncState::class], version = 1)
+abstract class FileIndexDatabase : RoomDatabase() {
+
+    abstract fun indexedFileDao(): IndexedFileDao
+
+    companion object {
+        val INSTANCE = MainThreadInitializedObject { context ->
+            Room.databaseBuilder(
+                context,
+                FileIndexDatabase::class.java,
+                "file_search_index",
+            )
+                .fallbackToDestructiveMigration()
+                .build()
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package app.lawnchair.search.algorithms.data.fileindex
+
+import android.content.Context
+import android.database.Cursor
+import android.os.Build
+import android.os.SystemClock
+import android.provider.MediaStore
+import android.util.Log
+import androidx.annotation.RequiresApi
+import androidx.room.withTransaction
+import app.lawnchair.search.algorithms.data.FileInfo
+import app.lawnchair.search.algorithms.data.FolderInfo
+import app.lawnchair.search.algorithms.data.IFileInfo
+import app.lawnchair.util.mimeType2Extension
+import com.android.launcher3.util.MainThreadInitializedObject
+import java.text.Normalizer
+import java.util.Locale
+import kotlinx.coroutines.CoroutineName
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.MainScope
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.plus
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withContext
+
+/**
+ * Full text index of the names of the files in MediaStore, so that typing a query doesn't scan
+ * the MediaStore tables nor stat the returned files.
+ *
+ * The index is built in the background on first use. From Android R it's kept up to date with the
+ * MediaStore generation numbers, only copying the rows modified since the last sync; earlier
+ * versions rebuild it periodically.
+ */
+class FileSearchIndex private constructor(private val context: Context) {
+
+    private val scope = MainScope() + CoroutineName("FileSearchIndex")
+    private val database = FileIndexDatabase.INSTANCE.get(context)
+    private val dao = database.indexedFileDao()
+    private val syncLock = Mutex()
+
+    @Volatile
+    private var built = false
+
+    @Volatile
+    private var lastSync = 0L
+    private var lastMediaStoreCount = -1
+
+    /**
+     * Returns up to [max] files whose name has words starting with the words of [query], most
+     * recently modified first.
+     */
+    suspend fun search(query: String, max: Int): List<IFileInfo> {
+        val match = toMatchExpression(query) ?: return emptyList()
+        if (!built) {
+            sync()
+        } else if (SystemClock.uptimeMillis() - lastSync > SYNC_INTERVAL_MS && !syncLock.isLocked) {
+            scope.launch { sync() }
+        }
+        return dao.search(match, max).map { it.toFileInfo() }
+    }
+
+    private suspend fun sync() = withContext(Dispatchers.IO) {
+        syncLock.withLock {
+            if (built && SystemClock.uptimeMillis() - lastSync <= SYNC_INTERVAL_MS) return@withLock
+            try {
+                val states = dao.getSyncStates().associateBy { it.volume }
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+                    syncGenerations(states)
+                } else {
+                    syncPeriodically(states[VOLUME_EXTERNAL])
+                }
+                built = true
+            } catch (e: Exception) {
+                Log.e(TAG, "Failed to sync the file index", e)
+            }
+            lastSync = SystemClock.uptimeMillis()
+        }
+    }
+
+    /**
+     * Copies the rows modified since the last sync of each volume. A new MediaStore version means
+     * its generation numbers were reset, in which case the index is rebuilt.
+     */
+    @RequiresApi(Build.VERSION_CODES.R)
+    private suspend fun syncGenerations(states: Map<String, FileIndexSyncState>) {
+        val volumes = MediaStore.getExternalVolumeNames(context)
+        val versionChanged = volumes.any { states[it]?.mediaStoreVersion != MediaStore.getVersion(context, it) } ||
+            states.keys.any { it !in volumes }
+        if (versionChanged) {
+            database.withTransaction {
+                dao.deleteAll()
+                dao.clearSyncStates()
+            }
+        }
+        for (volume in volumes) {
+            val generation = MediaStore.getGeneration(context, volume)
+            val lastGeneration = if (versionChanged) -1L else states[volume]?.generation ?: -1L
+            if (generation == lastGeneration) continue
+            copyFiles(
+                volume,
+                "${MediaStore.MediaColumns.GENERATION_MODIFIED} > ?",
+                arrayOf(lastGeneration.toString()),
+            )
+            dao.setSyncState(FileIndexSyncState(volume, MediaStore.getVersion(context, volume), generation))
+        }
+        // Deletions don't leave rows to find by generation, only look for them when the count of
+        // files changed
+        val mediaStoreCount = context.contentResolver.query(
+            MediaStore.Files.getContentUri(VOLUME_EXTERNAL),
+            arrayOf(MediaStore.MediaColumns._ID),
+            null,
+            null,
+            null,
+        )?.use { it.count } ?: return
+        if (mediaStoreCount != lastMediaStoreCount) {
+            removeDeletedFiles()
+            lastMediaStoreCount = mediaStoreCount
+        }
+    }
+
+    /**
+     * Without generation numbers, rebuilds the index when it's older than [REBUILD_INTERVAL_MS].
+     * The generation of the sync state is the time of the last rebuild in this case.
+     */
+    private suspend fun syncPeriodically(state: FileIndexSyncState?) {
+        val now = System.currentTimeMillis()
+        if (state != null && now - state.generation in 0..REBUILD_INTERVAL_MS) return
+        rebuild()
+        dao.setSyncState(FileIndexSyncState(VOLUME_EXTERNAL, "", now))
+    }
+
+    private suspend fun rebuild() {
+        database.withTransaction {
+            dao.deleteAll()
+            copyFiles(VOLUME_EXTERNAL, null, null)
+        }
+    }
+
+    private suspend fun copyFiles(volume: String, selection: String?, selectionArgs: Array<String>?) {
+        context.contentResolver.query(
+            MediaStore.Files.getContentUri(volume),
+            PROJECTION,
+            selection,
+            selectionArgs,
+            null,
+        )?.use { cursor ->
+            val columns = Columns(cursor)
+            val batch = ArrayList<IndexedFile>(BATCH_SIZE)
+            val hidden = ArrayList<Long>()
+            while (cursor.moveToNext()) {
+                val file = columns.read(cursor)
+                if (file == null) {
+                    hidden.add(cursor.getLong(columns.id))
+                    continue
+                }
+                batch.add(file)
+                if (batch.size == BATCH_SIZE) {
+                    dao.insert(batch)
+                    batch.clear()
+                }
+            }
+            if (batch.isNotEmpty()) dao.insert(batch)
+            // Files that were renamed into hidden ones
+            hidden.chunked(BATCH_SIZE).forEach { dao.delete(it) }
+        }
+    }
+
+    private suspend fun removeDeletedFiles() {
+        val existingIds = HashSet<Long>()
+        context.contentResolver.query(
+            MediaStore.Files.getContentUri(VOLUME_EXTERNAL),
+            arrayOf(MediaStore.MediaColumns._ID),
+            null,
+            null,
+            null,
+        )?.use {
+            while (it.moveToNext()) existingIds.add(it.getLong(0))
+        } ?: return
+        dao.getIds().filterNot { it in existingIds }
+            .chunked(BATCH_SIZE)
+            .forEach { dao.delete(it) }
+    }
+
+    private class Columns(cursor: Cursor) {
+        val id = cursor.getColumnIndexOrThrow(MediaStore.MediaColumns._ID)
+        private val data = cursor.getColumnIndexOrThrow(MediaStore.MediaColumns.DATA)
+        private val displayName = cursor.getColumnIndexOrThrow(MediaStore.MediaColumns.DISPLAY_NAME)
+        private val title = cursor.getColumnIndexOrThrow(MediaStore.MediaColumns.TITLE)
+        private val size = cursor.getColumnIndexOrThrow(MediaStore.MediaColumns.SIZE)
+        private val dateModified = cursor.getColumnIndexOrThrow(MediaStore.MediaColumns.DATE_MODIFIED)
+        private val mimeType = cursor.getColumnIndexOrThrow(MediaStore.MediaColumns.MIME_TYPE)
+        private val format = cursor.getColumnIndexOrThrow(COLUMN_FORMAT)
+
+        /**
+         * Returns the file at the current position of [cursor], or null if it shouldn't be
+         * searchable.
+         */
+        fun read(cursor: Cursor): IndexedFile? {
+            val path = cursor.getString(data) ?: return null
+            if (path.split('/').any { it.startsWith('.') }) return null
+            val mime = cursor.getString(mimeType)
+            val isDirectory = cursor.getInt(format) == FORMAT_ASSOCIATION
+            val name = cursor.getString(displayName)
+                ?: cursor.getString(title)?.let {
+                    if (mime == null || isDirectory) it else "$it.${mime.mimeType2Extension()}"
+                }
+                ?: return null
+            return IndexedFile(
+                cursor.getLong(id),
+                name,
+                path,
+                mime,
+                cursor.getLong(size),
+                cursor.getLong(dateModified),
+                isDirectory,
+            )
+        }
+    }
+
+    companion object {
+        private const val TAG = "FileSearchIndex"
+        private const val VOLUME_EXTERNAL = "external"
+        private const val BATCH_SIZE = 500
+        private const val SYNC_INTERVAL_MS = 10_000L
+        private const val REBUILD_INTERVAL_MS = 10 * 60_000L
+
+        // MediaStore.Files.FileColumns.FORMAT, only public from R
+        private const val COLUMN_FORMAT = "format"
+
+        // MtpConstants.FORMAT_ASSOCIATION, the format of directories
+        private const val FORMAT_ASSOCIATION = 0x3001
+
+        private val PROJECTION = arrayOf(
+            MediaStore.MediaColumns._ID,
+            MediaStore.MediaColumns.DATA,
+            MediaStore.MediaColumns.DISPLAY_NAME,
+            MediaStore.MediaColumns.TITLE,
+            MediaStore.MediaColumns.SIZE,
+            MediaStore.MediaColumns.DATE_MODIFIED,
+            MediaStore.MediaColumns.MIME_TYPE,
+            COLUMN_FORMAT,
+        )
+
+        private val NON_ALPHANUMERIC = Regex("[^\\p{L}\\p{N}]+")
+        private val DIACRITICS = Regex("\\p{Mn}+")
+
+        @JvmField
+        val INSTANCE = MainThreadInitializedObject(::FileSearchIndex)
+
+        /**
+         * Returns whether [name] has words starting with each of the words of [query], like the
+         * names found by [search] for it.
+         */
+        fun matches(name: String, query: String): Boolean {
+            val queryWords = tokenize(query)
+            if (queryWords.isEmpty()) return false
+            val nameWords = tokenize(name)
+            return queryWords.all { word -> nameWords.any { it.startsWith(word) } }
+        }
+
+        // Same folding as the unicode61 tokenizer of the index
+        private fun tokenize(text: String): List<String> = DIACRITICS
+            .replace(Normalizer.normalize(text, Normalizer.Form.NFD), "")
+            .lowercase(Locale.ROOT)
+            .split(NON_ALPHANUMERIC)
+            .filter { it.isNotEmpty() }
+
+        /**
+         * Converts [query] to an FTS expression matching names with words starting with each of
+         * its words, or null if it has none.
+         */
+        private fun toMatchExpression(query: String): String? = query
+            .split(NON_ALPHANUMERIC)
+            .filter { it.isNotEmpty() }
+            .takeIf { it.isNotEmpty() }
+            ?.joinToString(" ") { "\"$it\"*" }
+
+        private fun IndexedFile.toFileInfo(): IFileInfo = if (isDirectory) {
+            FolderInfo(path, name, size, dateModified * 1000)
+        } else {
+            FileInfo(id.toString(), path, name, size, dateModified * 1000, mimeType)
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package app.lawnchair.search.algorithms.data.fileindex
+
+import androidx.room.ColumnInfo
+import androidx.room.Entity
+import androidx.room.Fts4
+import androidx.room.FtsOptions
+import androidx.room.PrimaryKey
+
+/**
+ * A MediaStore file, keyed by its MediaStore id. Only the name is full text indexed.
+ */
+@Fts4(
+    tokenizer = FtsOptions.TOKENIZER_UNICODE61,
+    tokenizerArgs = ["remove_diacritics=1"],
+    notIndexed = ["path", "mimeType", "size", "dateModified", "isDirectory"],
+)
+@Entity(tableName = "files")
+data class IndexedFile(
+    @PrimaryKey @ColumnInfo(name = "rowid") val id: Long,
+    val name: String,
+    val path: String,
+    val mimeType: String?,
+    val size: Long,
+    val dateModified: Long,
+    val isDirectory: Boolean,
+)
+
+/**
+ * The MediaStore state the index was last synced with.
+ */
+@Entity(tableName = "sync_state")
+data class FileIndexSyncState(
+    @PrimaryKey val volume: String,
+    val mediaStoreVersion: String,
+    val generation: Long,
+)
@@ -0,0 +1,36 @@
+package app.lawnchair.search.algorithms.data.fileindex
+
+import androidx.room.Dao
+import androidx.room.Insert
+import androidx.room.OnConflictStrategy
+import androidx.room.Query
+
+@Dao
+interface IndexedFileDao {
+    @Query(
+        "SELECT rowid, * FROM files WHERE files MATCH :match " +
+            "ORDER BY dateModified DESC LIMIT :limit",
+    )
+    suspend fun search(match: String, limit: Int): List<IndexedFile>
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    suspend fun insert(files: List<IndexedFile>)
+
+    @Query("DELETE FROM files WHERE rowid IN (:ids)")
+    suspend fun delete(ids: List<Long>)
+
+    @Query("SELECT rowid FROM files")
+    suspend fun getIds(): List<Long>
+
+    @Query("DELETE FROM files")
+    suspend fun deleteAll()
+
+    @Query("SELECT * FROM sync_state")
+    suspend fun getSyncStates(): List<FileIndexSyncState>
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    suspend fun setSyncState(state: FileIndexSyncState)
+
+    @Query("DELETE FROM sync_state")
+    suspend fun clearSyncStates()
+}
@@ -40,14 +40,18 @@ import androidx.compose.foundation.lazy.rememberLazyListState
 import androidx.compose.foundation.pager.HorizontalPager
 import androidx.compose.foundation.pager.rememberPagerState
 import androidx.compose.foundation.rememberScrollState
+import androidx.compose.material3.LinearProgressIndicator
 import androidx.compose.material3.MaterialTheme
 import androidx.compose.material3.Surface
 import androidx.compose.material3.Text
 import androidx.compose.runtime.Composable
 import androidx.compose.runtime.LaunchedEffect
+import androidx.compose.runtime.State
 import androidx.compose.runtime.getValue
 import androidx.compose.runtime.key
+import androidx.compose.runtime.remember
 import androidx.compose.runtime.rememberCoroutineScope
+import androidx.compose.runtime.rememberUpdatedState
 import androidx.compose.ui.Alignment
 import androidx.compose.ui.Modifier
 import androidx.compose.ui.draw.clip
@@ -59,6 +63,7 @@ import androidx.compose.ui.text.style.TextAlign
 import androidx.compose.ui.text.style.TextOverflow
 import androidx.compose.ui.unit.dp
 import androidx.lifecycle.compose.collectAsStateWithLifecycle
+import app.lawnchair.icons.IconPackWarmUp
 import app.lawnchair.preferences.PreferenceAdapter
 import app.lawnchair.preferences.getAdapter
 import app.lawnchair.preferences.preferenceManager
@@ -118,6 +123,13 @@ fun IconPackPreferences(
     val context = LocalContext.current
 
     val iconPackAdapter = prefs.iconPackPackage.getAdapter()
+    val iconPackWarmUp = remember { IconPackWarmUp.INSTANCE.get(context) }
+    val iconPackSwitch by iconPackWarmUp.progress.collectAsStateWithLifecycle()
+    // Shows the pack being switched to as selected while its icons are rendered
+    val iconPackSelection = IconPackSwitchAdapter(
+        state = rememberUpdatedState(iconPackSwitch?.packPackageName ?: iconPackAdapter.state.value),
+        warmUp = iconPackWarmUp,
+    )
     val themedIconPackAdapter = prefs.themedIconPackPackage.getAdapter()
     val themedIconsAdapter = prefs.themedIcons.getAdapter()
     val drawerThemedIconsAdapter = prefs.drawerThemedIcons.getAdapter()
@@ -193,9 +205,17 @@ fun IconPackPreferences(
                     0 -> {
                         PreferenceGroup {
                             IconPackGrid(
-                                adapter = iconPackAdapter,
+                                adapter = iconPackSelection,
                                 false,
                             )
+                            iconPackSwitch?.let {
+                                LinearProgressIndicator(
+                                    progress = { if (it.total > 0) it.rendered.toFloat() / it.total else 0f },
+                                    modifier = Modifier
+                                        .fillMaxWidth()
+                                        .padding(horizontal = 16.dp, vertical = 8.dp),
+                                )
+                            }
                             SwitchPreference(
                                 adapter = prefs.tintIconPackBackgrounds.getAdapter(),
                                 label = "Tint with accent color",
@@ -252,6 +272,16 @@ fun IconPackPreferences(
     }
 }
 
+private class IconPackSwitchAdapter(
+    override val state: State<String>,
+    private val warmUp: IconPackWarmUp,
+) : PreferenceAdapter<String> {
+
+    override fun onChange(newValue: String) {
+        warmUp.switchTo(newValue)
+    }
+}
+
 @Composable
 fun IconPackGrid(
     adapter: PreferenceAdapter<String>,
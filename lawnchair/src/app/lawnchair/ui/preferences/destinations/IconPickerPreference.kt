@@ -20,9 +20,10 @@ import androidx.compose.material3.DropdownMenuItem
 import androidx.compose.material3.MaterialTheme
 import androidx.compose.material3.Text
 import androidx.compose.runtime.Composable
+import androidx.compose.runtime.LaunchedEffect
 import androidx.compose.runtime.SideEffect
-import androidx.compose.runtime.derivedStateOf
 import androidx.compose.runtime.getValue
+import androidx.compose.runtime.mutableStateListOf
 import androidx.compose.runtime.mutableStateOf
 import androidx.compose.runtime.produceState
 import androidx.compose.runtime.remember
@@ -33,12 +34,11 @@ import androidx.compose.ui.platform.LocalContext
 import androidx.compose.ui.platform.LocalDensity
 import androidx.compose.ui.res.stringResource
 import androidx.compose.ui.unit.dp
-import androidx.lifecycle.compose.collectAsStateWithLifecycle
 import app.lawnchair.icons.CustomIconPack
 import app.lawnchair.icons.IconPack
 import app.lawnchair.icons.IconPackProvider
+import app.lawnchair.icons.IconPickerCategory
 import app.lawnchair.icons.IconPickerItem
-import app.lawnchair.icons.filter
 import app.lawnchair.ui.OverflowMenu
 import app.lawnchair.ui.preferences.components.layout.PreferenceGroupDescription
 import app.lawnchair.ui.preferences.components.layout.PreferenceLazyColumn
@@ -133,18 +133,18 @@ fun IconPickerGrid(
     onClickItem: (item: IconPickerItem) -> Unit,
 ) {
     var loadFailed by remember { mutableStateOf(false) }
-    val categoriesFlow = remember {
-        iconPack.getAllIcons()
-            .catch { loadFailed = true }
-    }
-    val categories by categoriesFlow.collectAsStateWithLifecycle(emptyList())
-    val filteredCategories by remember(searchQuery) {
-        derivedStateOf {
-            categories.asSequence()
-                .map { it.filter(searchQuery) }
-                .filter { it.items.isNotEmpty() }
-                .toList()
+    // Categories are appended as they're loaded, without copying the ones already shown
+    val filteredCategories = remember { mutableStateListOf<IconPickerCategory>() }
+    LaunchedEffect(searchQuery) {
+        filteredCategories.clear()
+        val categories = if (searchQuery.isBlank()) {
+            iconPack.getAllIcons()
+        } else {
+            iconPack.searchIcons(searchQuery)
         }
+        categories
+            .catch { loadFailed = true }
+            .collect { filteredCategories.add(it) }
     }
 
     val density = LocalDensity.current
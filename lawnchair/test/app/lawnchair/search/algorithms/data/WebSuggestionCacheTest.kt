@@ -0,0 +1,115 @@
+package app.lawnchair.search.algorithms.data
+
+import java.util.concurrent.atomic.AtomicInteger
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.async
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.yield
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+
+class WebSuggestionCacheTest {
+
+    private var now = 0L
+    private val fetches = AtomicInteger()
+
+    private fun createCache(
+        maxEntries: Int = 8,
+        suggestions: suspend (String, Int) -> List<String> = { query, max ->
+            List(max) { "$query $it" }
+        },
+    ) = WebSuggestionCache(
+        maxEntries = maxEntries,
+        ttlMillis = TTL_MS,
+        clock = { now },
+        fetch = { _, query, max ->
+            fetches.incrementAndGet()
+            suggestions(query, max)
+        },
+    )
+
+    @Test
+    fun cachedUntilExpired() = runBlocking {
+        val cache = createCache()
+        assertEquals(listOf("cat 0", "cat 1"), cache.getSuggestions(Google, "cat", 2))
+        assertEquals(listOf("cat 0", "cat 1"), cache.getSuggestions(Google, "Cat ", 2))
+        assertEquals(1, fetches.get())
+
+        now += TTL_MS + 1
+        assertNull(cache.getCached(Google, "cat", 2))
+        cache.getSuggestions(Google, "cat", 2)
+        assertEquals(2, fetches.get())
+    }
+
+    @Test
+    fun moreSuggestionsThanRequestedFetchAgain() = runBlocking {
+        val cache = createCache()
+        cache.getSuggestions(Google, "cat", 2)
+        assertEquals(listOf("cat 0"), cache.getSuggestions(Google, "cat", 1))
+        assertEquals(1, fetches.get())
+
+        assertEquals(3, cache.getSuggestions(Google, "cat", 3).size)
+        assertEquals(2, fetches.get())
+    }
+
+    @Test
+    fun leastRecentlyUsedEvicted() = runBlocking {
+        val cache = createCache(maxEntries = 2)
+        cache.getSuggestions(Google, "a", 1)
+        cache.getSuggestions(Google, "b", 1)
+        // Using a makes b the least recently used
+        cache.getSuggestions(Google, "a", 1)
+        cache.getSuggestions(Google, "c", 1)
+        assertEquals(3, fetches.get())
+
+        assertEquals(listOf("a 0"), cache.getCached(Google, "a", 1))
+        assertNull(cache.getCached(Google, "b", 1))
+    }
+
+    @Test
+    fun concurrentRequestsShared() = runBlocking {
+        val response = CompletableDeferred<List<String>>()
+        val cache = createCache(suggestions = { _, _ -> response.await() })
+        val first = async { cache.getSuggestions(Google, "dog", 2) }
+        val second = async { cache.getSuggestions(Google, "dog", 2) }
+        while (fetches.get() == 0) yield()
+        response.complete(listOf("dog food", "dog toys"))
+
+        assertEquals(listOf("dog food", "dog toys"), first.await())
+        assertEquals(listOf("dog food", "dog toys"), second.await())
+        assertEquals(1, fetches.get())
+    }
+
+    @Test
+    fun prefixSuggestionsReused() = runBlocking {
+        val cache = createCache(suggestions = { _, _ -> listOf("google", "gopro", "golang") })
+        cache.getSuggestions(Google, "go", 3)
+
+        assertEquals(listOf("google"), cache.getCached(Google, "goo", 1))
+        // Not enough suggestions of the prefix match
+        assertNull(cache.getCached(Google, "goo", 2))
+        assertEquals(1, fetches.get())
+    }
+
+    @Test
+    fun failuresNotCached() = runBlocking {
+        val cache = createCache(suggestions = { _, _ -> emptyList() })
+        assertEquals(emptyList<String>(), cache.getSuggestions(Google, "cat", 2))
+        assertEquals(emptyList<String>(), cache.getSuggestions(Google, "cat", 2))
+        assertEquals(2, fetches.get())
+    }
+
+    @Test
+    fun googleSuggestionsParsed() {
+        val jsonp = """window.google.ac.h(["cat",["cat food","cat toys","cats"],{}])"""
+        assertEquals(listOf("cat food", "cat toys"), Google.parseSuggestions(jsonp, 2))
+
+        val json = """["cat",["cat food","cat toys"]]"""
+        assertEquals(listOf("cat food", "cat toys"), Google.parseSuggestions(json, 5))
+    }
+
+    companion object {
+        private const val TTL_MS = 1_000L
+    }
+}
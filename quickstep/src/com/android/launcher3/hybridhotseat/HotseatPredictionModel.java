@@ -44,7 +44,7 @@ public class HotseatPredictionModel {
     public static Bundle convertDataModelToAppTargetBundle(Context context, BgDataModel dataModel) {
         Bundle bundle = new Bundle();
         ArrayList<AppTargetEvent> events = new ArrayList<>();
-        ArrayList<ItemInfo> workspaceItems = dataModel.getAllWorkspaceItems();
+        ArrayList<ItemInfo> workspaceItems = dataModel.getItemsSnapshot().getAllWorkspaceItems();
         for (ItemInfo item : workspaceItems) {
             AppTarget target = getAppTargetFromItemInfo(context, item);
             if (target != null && !isTrackedForHotseatPrediction(item)) continue;
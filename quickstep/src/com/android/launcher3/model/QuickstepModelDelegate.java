@@ -230,10 +230,7 @@ public class QuickstepModelDelegate extends ModelDelegate {
                         elapsedTime));
             }
         } else {
-            IntSparseArrayMap<ItemInfo> itemsIdMap;
-            synchronized (mDataModel) {
-                itemsIdMap = mDataModel.itemsIdMap.clone();
-            }
+            IntSparseArrayMap<ItemInfo> itemsIdMap = mDataModel.getItemsSnapshot().itemsIdMap;
             InstanceId instanceId = new InstanceIdSequence().newInstanceId();
             for (ItemInfo info : itemsIdMap) {
                 FolderInfo parent = getContainer(info, itemsIdMap);
@@ -272,10 +269,8 @@ public class QuickstepModelDelegate extends ModelDelegate {
                     MODEL_EXECUTOR,
                     (i, eventList) -> {
                         InstanceId instanceId = new InstanceIdSequence().newInstanceId();
-                        IntSparseArrayMap<ItemInfo> itemsIdMap;
-                        synchronized (mDataModel) {
-                            itemsIdMap = mDataModel.itemsIdMap.clone();
-                        }
+                        IntSparseArrayMap<ItemInfo> itemsIdMap =
+                                mDataModel.getItemsSnapshot().itemsIdMap;
 
                         for (ItemInfo info : itemsIdMap) {
                             FolderInfo parent = getContainer(info, itemsIdMap);
@@ -471,7 +466,8 @@ public class QuickstepModelDelegate extends ModelDelegate {
 
     private Bundle getBundleForWidgetsOnWorkspace(Context context, BgDataModel dataModel) {
         Bundle bundle = new Bundle();
-        ArrayList<AppTargetEvent> widgetEvents = dataModel.getAllWorkspaceItems().stream()
+        ArrayList<AppTargetEvent> widgetEvents = dataModel.getItemsSnapshot().getAllWorkspaceItems()
+                .stream()
                 .filter(PredictionHelper::isTrackedForWidgetPrediction)
                 .map(item -> {
                     AppTarget target = getAppTargetFromItemInfo(context, item);
@@ -57,7 +57,7 @@ public final class WidgetsPredictionUpdateTask extends BaseModelUpdateTask {
     @Override
     public void execute(@NonNull final LauncherAppState appState,
             @NonNull final BgDataModel dataModel, @NonNull final AllAppsList apps) {
-        Set<ComponentKey> widgetsInWorkspace = dataModel.appWidgets.stream().map(
+        Set<ComponentKey> widgetsInWorkspace = dataModel.getItemsSnapshot().appWidgets.stream().map(
                 widget -> new ComponentKey(widget.providerName, widget.user)).collect(
                 Collectors.toSet());
         Predicate<WidgetItem> notOnWorkspace = w -> !widgetsInWorkspace.contains(w);
@@ -71,6 +71,7 @@ import com.android.launcher3.dragndrop.DraggableView;
 import com.android.launcher3.folder.PreviewBackground;
 import com.android.launcher3.model.data.ItemInfo;
 import com.android.launcher3.model.data.LauncherAppWidgetInfo;
+import com.android.launcher3.util.BitmaskGridOccupancy;
 import com.android.launcher3.util.CellAndSpan;
 import com.android.launcher3.util.GridOccupancy;
 import com.android.launcher3.util.MultiTranslateDelegate;
@@ -134,6 +135,11 @@ public class CellLayout extends ViewGroup {
 
     protected GridOccupancy mOccupied;
     public GridOccupancy mTmpOccupied;
+    // Copy of mOccupied probed by findNearestArea, reused across drag events until mOccupied
+    // is replaced or modified
+    private BitmaskGridOccupancy mNearestAreaOccupied;
+    private GridOccupancy mNearestAreaSource;
+    private int mNearestAreaModCount;
 
     private OnTouchListener mInterceptTouchListener;
 
@@ -1361,6 +1367,7 @@ public class CellLayout extends ViewGroup {
                 spanX < minSpanX || spanY < minSpanY) {
             return bestXY;
         }
+        final BitmaskGridOccupancy occupied = ignoreOccupied ? null : getNearestAreaOccupied();
 
         for (int y = 0; y < countY - (minSpanY - 1); y++) {
             inner: for (int x = 0; x < countX - (minSpanX - 1); x++) {
@@ -1368,12 +1375,8 @@ public class CellLayout extends ViewGroup {
                 int xSize = -1;
                 if (!ignoreOccupied) {
                     // First, let's see if this thing fits anywhere
-                    for (int i = 0; i < minSpanX; i++) {
-                        for (int j = 0; j < minSpanY; j++) {
-                            if (mOccupied.cells[x + i][y + j]) {
-                                continue inner;
-                            }
-                        }
+                    if (!occupied.isRegionVacant(x, y, minSpanX, minSpanY)) {
+                        continue inner;
                     }
                     xSize = minSpanX;
                     ySize = minSpanY;
@@ -1386,21 +1389,17 @@ public class CellLayout extends ViewGroup {
                     boolean hitMaxY = ySize >= spanY;
                     while (!(hitMaxX && hitMaxY)) {
                         if (incX && !hitMaxX) {
-                            for (int j = 0; j < ySize; j++) {
-                                if (x + xSize > countX - 1 || mOccupied.cells[x + xSize][y + j]) {
-                                    // We can't move out horizontally
-                                    hitMaxX = true;
-                                }
+                            if (!occupied.isRegionVacant(x + xSize, y, 1, ySize)) {
+                                // We can't move out horizontally
+                                hitMaxX = true;
                             }
                             if (!hitMaxX) {
                                 xSize++;
                             }
                         } else if (!hitMaxY) {
-                            for (int i = 0; i < xSize; i++) {
-                                if (y + ySize > countY - 1 || mOccupied.cells[x + i][y + ySize]) {
-                                    // We can't move out vertically
-                                    hitMaxY = true;
-                                }
+                            if (!occupied.isRegionVacant(x, y + ySize, xSize, 1)) {
+                                // We can't move out vertically
+                                hitMaxY = true;
                             }
                             if (!hitMaxY) {
                                 ySize++;
@@ -1454,6 +1453,21 @@ public class CellLayout extends ViewGroup {
         return mOccupied;
     }
 
+    private BitmaskGridOccupancy getNearestAreaOccupied() {
+        if (mNearestAreaOccupied == null || mNearestAreaOccupied.getCountX() != mCountX
+                || mNearestAreaOccupied.getCountY() != mCountY) {
+            mNearestAreaOccupied = new BitmaskGridOccupancy(mCountX, mCountY);
+            mNearestAreaSource = null;
+        }
+        if (mNearestAreaSource != mOccupied
+                || mNearestAreaModCount != mOccupied.getModCount()) {
+            mNearestAreaOccupied.copyFrom(mOccupied);
+            mNearestAreaSource = mOccupied;
+            mNearestAreaModCount = mOccupied.getModCount();
+        }
+        return mNearestAreaOccupied;
+    }
+
     private void copySolutionToTempState(ItemConfiguration solution, View dragView) {
         mTmpOccupied.clear();
 
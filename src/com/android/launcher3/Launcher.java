@@ -375,6 +375,8 @@ public class Launcher extends StatefulActivity<LauncherState>
 
     @Thunk
     boolean mWorkspaceLoading = true;
+    // The workspace bound is a snapshot, the loaded items haven't replaced it yet
+    private boolean mWorkspaceSnapshotPending = false;
 
     // Used to notify when an activity launch has been deferred because launcher is
     // not yet resumed
@@ -1104,6 +1106,8 @@ public class Launcher extends StatefulActivity<LauncherState>
         hideKeyboard();
         logStopAndResume(false /* isResume */);
         mAppWidgetHolder.setActivityStarted(false);
+        mModel.flushPendingItemUpdates();
+        mModel.saveWorkspaceSnapshot();
         NotificationListener.removeNotificationsChangedListener(getPopupDataProvider());
         FloatingIconView.resetIconLoadResult();
     }
@@ -1942,7 +1946,7 @@ public class Launcher extends StatefulActivity<LauncherState>
     }
 
     public boolean isWorkspaceLocked() {
-        return mWorkspaceLoading || mPendingRequestArgs != null;
+        return mWorkspaceLoading || mWorkspaceSnapshotPending || mPendingRequestArgs != null;
     }
 
     public boolean isWorkspaceLoading() {
@@ -1958,6 +1962,11 @@ public class Launcher extends StatefulActivity<LauncherState>
         mWorkspaceLoading = value;
     }
 
+    @Override
+    public void setWorkspaceSnapshotPending(boolean pending) {
+        mWorkspaceSnapshotPending = pending;
+    }
+
     public void setWaitingForResult(PendingRequestArgs args) {
         mPendingRequestArgs = args;
     }
@@ -3234,6 +3243,7 @@ public class Launcher extends StatefulActivity<LauncherState>
         writer.println(prefix + "Misc:");
         dumpMisc(prefix + "\t", writer);
         writer.println(prefix + "\tmWorkspaceLoading=" + mWorkspaceLoading);
+        writer.println(prefix + "\tmWorkspaceSnapshotPending=" + mWorkspaceSnapshotPending);
         writer.println(prefix + "\tmPendingRequestArgs=" + mPendingRequestArgs
                 + " mPendingActivityResult=" + mPendingActivityResult);
         writer.println(prefix + "\tmRotationHelper: " + mRotationHelper);
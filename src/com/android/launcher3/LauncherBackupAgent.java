@@ -1,8 +1,11 @@
 package com.android.launcher3;
 
+import static com.android.launcher3.util.Executors.MODEL_EXECUTOR;
+
 import android.app.backup.BackupAgent;
 import android.app.backup.BackupDataInput;
 import android.app.backup.BackupDataOutput;
+import android.app.backup.FullBackupDataOutput;
 import android.os.ParcelFileDescriptor;
 
 import com.android.launcher3.logging.FileLog;
@@ -10,6 +13,7 @@ import com.android.launcher3.provider.RestoreDbTask;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.ExecutionException;
 
 public class LauncherBackupAgent extends BackupAgent {
 
@@ -39,6 +43,21 @@ public class LauncherBackupAgent extends BackupAgent {
         super.onRestoreFile(data, size, destination, type, mode, mtime);
     }
 
+    @Override
+    public void onFullBackup(FullBackupDataOutput data) throws IOException {
+        // The database has to contain the item updates still waiting to be batched
+        LauncherAppState app = LauncherAppState.getInstanceNoCreate();
+        if (app != null) {
+            try {
+                MODEL_EXECUTOR.submit(
+                        app.getModel().getModelDbController()::flushPendingItemUpdates).get();
+            } catch (InterruptedException | ExecutionException e) {
+                FileLog.e(TAG, "onFullBackup: Failed to write pending item updates", e);
+            }
+        }
+        super.onFullBackup(data);
+    }
+
     @Override
     public void onBackup(
             ParcelFileDescriptor oldState, BackupDataOutput data, ParcelFileDescriptor newState) {
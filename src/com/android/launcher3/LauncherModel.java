@@ -53,6 +53,7 @@ import com.android.launcher3.model.CacheDataUpdatedTask;
 import com.android.launcher3.model.ItemInstallQueue;
 import com.android.launcher3.model.LauncherBinder;
 import com.android.launcher3.model.LoaderTask;
+import com.android.launcher3.model.LoaderTrace;
 import com.android.launcher3.model.ModelDbController;
 import com.android.launcher3.model.ModelDelegate;
 import com.android.launcher3.model.ModelWriter;
@@ -62,6 +63,7 @@ import com.android.launcher3.model.PackageUpdatedTask;
 import com.android.launcher3.model.ReloadStringCacheTask;
 import com.android.launcher3.model.ShortcutsChangedTask;
 import com.android.launcher3.model.UserLockStateChangedTask;
+import com.android.launcher3.model.WorkspaceSnapshot;
 import com.android.launcher3.model.data.AppInfo;
 import com.android.launcher3.model.data.ItemInfo;
 import com.android.launcher3.model.data.WorkspaceItemInfo;
@@ -111,6 +113,11 @@ public class LauncherModel extends LauncherApps.Callback implements InstallSessi
     private final LauncherAppState mApp;
     @NonNull
     private final ModelDbController mModelDbController;
+    @NonNull
+    private final WorkspaceSnapshot mWorkspaceSnapshot;
+    @NonNull
+    private final LoaderTrace.History mLoaderTraces = new LoaderTrace.History();
+
     @NonNull
     private final Object mLock = new Object();
     @Nullable
@@ -169,6 +176,7 @@ public class LauncherModel extends LauncherApps.Callback implements InstallSessi
             final boolean isPrimaryInstance) {
         mApp = app;
         mModelDbController = new ModelDbController(context);
+        mWorkspaceSnapshot = new WorkspaceSnapshot(context);
         mBgAllAppsList = new AllAppsList(iconCache, appFilter);
         mModelDelegate = ModelDelegate.newInstance(context, app, mBgAllAppsList, mBgDataModel,
                 isPrimaryInstance);
@@ -183,6 +191,34 @@ public class LauncherModel extends LauncherApps.Callback implements InstallSessi
         return mModelDbController;
     }
 
+    @NonNull
+    public WorkspaceSnapshot getWorkspaceSnapshot() {
+        return mWorkspaceSnapshot;
+    }
+
+    @NonNull
+    public LoaderTrace.History getLoaderTraces() {
+        return mLoaderTraces;
+    }
+
+    /**
+     * Writes the item updates waiting to be batched, so that they aren't lost if the process dies.
+     */
+    public void flushPendingItemUpdates() {
+        MODEL_EXECUTOR.execute(mModelDbController::flushPendingItemUpdates);
+    }
+
+    /**
+     * Saves the loaded workspace so that it's bound right away on the next cold start.
+     */
+    public void saveWorkspaceSnapshot() {
+        MODEL_EXECUTOR.execute(() -> {
+            if (isModelLoaded()) {
+                mWorkspaceSnapshot.save(mBgDataModel, mApp.getInvariantDeviceProfile());
+            }
+        });
+    }
+
     /**
      * Adds the provided items to the workspace.
      */
@@ -718,6 +754,10 @@ public class LauncherModel extends LauncherApps.Callback implements InstallSessi
 
     public void dumpState(@Nullable final String prefix, @Nullable final FileDescriptor fd,
             @NonNull final PrintWriter writer, @NonNull final String[] args) {
+        if (args.length > 0 && TextUtils.equals(args[0], "--loader-trace")) {
+            mLoaderTraces.writeJson(writer);
+            return;
+        }
         if (args.length > 0 && TextUtils.equals(args[0], "--all")) {
             writer.println(prefix + "All apps list: size=" + mBgAllAppsList.data.size());
             for (AppInfo info : mBgAllAppsList.data) {
@@ -727,6 +767,7 @@ public class LauncherModel extends LauncherApps.Callback implements InstallSessi
             }
             writer.println();
         }
+        mLoaderTraces.dump(prefix, writer);
         mModelDelegate.dump(prefix, fd, writer, args);
         mBgDataModel.dump(prefix, fd, writer, args);
     }
@@ -30,12 +30,11 @@ import com.android.launcher3.model.AllAppsList;
 import com.android.launcher3.model.BaseModelUpdateTask;
 import com.android.launcher3.model.BgDataModel;
 import com.android.launcher3.model.data.AppInfo;
+import com.android.launcher3.search.AppTitleSearchIndex;
 import com.android.launcher3.search.SearchAlgorithm;
 import com.android.launcher3.search.SearchCallback;
-import com.android.launcher3.search.StringMatcherUtility;
 
 import java.util.ArrayList;
-import java.util.List;
 
 /**
  * The default search implementation.
@@ -71,7 +70,7 @@ public class DefaultAppSearchAlgorithm implements SearchAlgorithm<AdapterItem> {
             @Override
             public void execute(@NonNull final LauncherAppState app,
                     @NonNull final BgDataModel dataModel, @NonNull final AllAppsList apps) {
-                ArrayList<AdapterItem> result = getTitleMatchResult(apps.data, query);
+                ArrayList<AdapterItem> result = getTitleMatchResult(apps.getSearchIndex(), query);
                 if (mAddNoResultsMessage && result.isEmpty()) {
                     result.add(getEmptyMessageAdapterItem(query));
                 }
@@ -93,22 +92,15 @@ public class DefaultAppSearchAlgorithm implements SearchAlgorithm<AdapterItem> {
      * Filters {@link AppInfo}s matching specified query
      */
     @AnyThread
-    private static ArrayList<AdapterItem> getTitleMatchResult(List<AppInfo> apps, String query) {
+    private static ArrayList<AdapterItem> getTitleMatchResult(
+            AppTitleSearchIndex index, String query) {
         // Do an intersection of the words in the query and each title, and filter out
         // all the
         // apps that don't match all of the words in the query.
         final String queryTextLower = query.toLowerCase();
         final ArrayList<AdapterItem> result = new ArrayList<>();
-        StringMatcherUtility.StringMatcher matcher = StringMatcherUtility.StringMatcher.getInstance();
-
-        int resultCount = 0;
-        int total = apps.size();
-        for (int i = 0; i < total && resultCount < MAX_RESULTS_COUNT; i++) {
-            AppInfo info = apps.get(i);
-            if (StringMatcherUtility.matches(queryTextLower, info.title.toString(), matcher)) {
-                result.add(AdapterItem.asApp(info));
-                resultCount++;
-            }
+        for (AppInfo info : index.query(queryTextLower, MAX_RESULTS_COUNT, i -> true)) {
+            result.add(AdapterItem.asApp(info));
         }
         return result;
     }
@@ -195,7 +195,7 @@ public class FolderNameProvider implements ResourceBasedOverride {
         @Override
         public void execute(@NonNull final LauncherAppState app,
                 @NonNull final BgDataModel dataModel, @NonNull final AllAppsList apps) {
-            mFolderInfos = dataModel.folders.clone();
+            mFolderInfos = dataModel.getItemsSnapshot().folders.clone();
             mAppInfos = Arrays.asList(apps.copyData());
         }
     }
@@ -19,9 +19,11 @@ package com.android.launcher3.icons;
 import static com.android.launcher3.LauncherSettings.Favorites.ITEM_TYPE_DEEP_SHORTCUT;
 import static com.android.launcher3.util.Executors.MAIN_EXECUTOR;
 import static com.android.launcher3.util.Executors.MODEL_EXECUTOR;
+import static com.android.launcher3.util.Executors.THREAD_POOL_EXECUTOR;
 import static com.android.launcher3.widget.WidgetSections.NO_CATEGORY;
 
 import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.toList;
 
 import android.content.ComponentName;
 import android.content.Context;
@@ -71,7 +73,9 @@ import com.android.launcher3.util.Preconditions;
 import com.android.launcher3.widget.WidgetSections;
 import com.android.launcher3.widget.WidgetSections.WidgetSection;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -93,6 +97,10 @@ public class IconCache extends BaseIconCache {
 
     private static final String TAG = "Launcher.IconCache";
 
+    // Threads helping the loader thread to render icons missing from the database
+    private static final int MAX_ICON_RENDER_HELPERS =
+            Math.min(Runtime.getRuntime().availableProcessors(), 4) - 1;
+
     private final Predicate<ItemInfoWithIcon> mIsUsingFallbackOrNonDefaultIconCheck = w -> w.bitmap != null
             && (w.bitmap.isNullOrLowRes() || !isDefaultIcon(w.bitmap, w.user));
 
@@ -269,6 +277,22 @@ public class IconCache extends BaseIconCache {
         info.bitmap = bitmapInfo.withBadgeInfo(getShortcutInfoBadge(si));
     }
 
+    /**
+     * Fill in {@param info} with the icon cached for the deep shortcut it represents, without
+     * querying the shortcut. Uses the default icon if it isn't cached.
+     */
+    public synchronized void getCachedShortcutIcon(WorkspaceItemInfo info) {
+        ShortcutKey key = ShortcutKey.fromItemInfo(info);
+        BitmapInfo bitmapInfo = cacheLocked(key.componentName, info.user, () -> null,
+                mShortcutCachingLogic, false, false).bitmap;
+        if (bitmapInfo.isNullOrLowRes()) {
+            bitmapInfo = getDefaultIcon(info.user);
+        }
+        PackageItemInfo pkgInfo = new PackageItemInfo(key.getPackageName(), info.user);
+        getTitleAndIconForApp(pkgInfo, false);
+        info.bitmap = bitmapInfo.withBadgeInfo(pkgInfo.bitmap);
+    }
+
     /**
      * Returns the badging info for the shortcut
      */
@@ -380,8 +404,18 @@ public class IconCache extends BaseIconCache {
      * Load and fill icons requested in iconRequestInfos using a single bulk sql
      * query.
      */
-    public synchronized <T extends ItemInfoWithIcon> void getTitlesAndIconsInBulk(
+    public <T extends ItemInfoWithIcon> void getTitlesAndIconsInBulk(
             List<IconRequestInfo<T>> iconRequestInfos) {
+        getTitlesAndIconsInBulk(iconRequestInfos, null);
+    }
+
+    /**
+     * Same as {@link #getTitlesAndIconsInBulk(List)}, also counting in {@param stats} the
+     * components whose icon was found in the icon database and the ones it had to be rendered
+     * for.
+     */
+    public synchronized <T extends ItemInfoWithIcon> void getTitlesAndIconsInBulk(
+            List<IconRequestInfo<T>> iconRequestInfos, @Nullable BulkLoadStats stats) {
         Map<Pair<UserHandle, Boolean>, List<IconRequestInfo<T>>> iconLoadSubsectionsMap = iconRequestInfos.stream()
                 .filter(iconRequest -> {
                     if (iconRequest.itemInfo.getTargetComponent() == null) {
@@ -394,7 +428,8 @@ public class IconCache extends BaseIconCache {
                     }
                     return true;
                 })
-                .collect(groupingBy(iconRequest -> Pair.create(iconRequest.itemInfo.user, iconRequest.useLowResIcon)));
+                .collect(groupingBy(iconRequest -> Pair.create(iconRequest.itemInfo.user, iconRequest.useLowResIcon),
+                        LinkedHashMap::new, toList()));
 
         Trace.beginSection("loadIconsInBulk");
         iconLoadSubsectionsMap.forEach((sectionKey, filteredList) -> {
@@ -410,10 +445,12 @@ public class IconCache extends BaseIconCache {
                         }
                         return true;
                     })
-                    .collect(groupingBy(iconRequest -> iconRequest.itemInfo.getTargetComponent()));
+                    // Keeps the request order, so the icons shown first are also rendered first
+                    .collect(groupingBy(iconRequest -> iconRequest.itemInfo.getTargetComponent(),
+                            LinkedHashMap::new, toList()));
 
             Trace.beginSection("loadIconSubsectionInBulk");
-            loadIconSubsection(sectionKey, filteredList, duplicateIconRequestsMap);
+            loadIconSubsection(sectionKey, filteredList, duplicateIconRequestsMap, stats);
             Trace.endSection();
         });
         Trace.endSection();
@@ -422,7 +459,8 @@ public class IconCache extends BaseIconCache {
     private <T extends ItemInfoWithIcon> void loadIconSubsection(
             Pair<UserHandle, Boolean> sectionKey,
             List<IconRequestInfo<T>> filteredList,
-            Map<ComponentName, List<IconRequestInfo<T>>> duplicateIconRequestsMap) {
+            Map<ComponentName, List<IconRequestInfo<T>>> duplicateIconRequestsMap,
+            @Nullable BulkLoadStats stats) {
         Trace.beginSection("loadIconSubsectionWithDatabase");
         try (Cursor c = createBulkQueryCursor(
                 filteredList,
@@ -458,6 +496,10 @@ public class IconCache extends BaseIconCache {
 
         Trace.beginSection("loadIconSubsectionWithFallback");
         // Fallback title and icon loading
+        List<ComponentName> fallbackComponents = new ArrayList<>();
+        List<CacheEntry> fallbackEntries = new ArrayList<>();
+        List<Runnable> iconRenderTasks = new ArrayList<>();
+        int renderedIconCount = 0;
         for (ComponentName cn : duplicateIconRequestsMap.keySet()) {
             IconRequestInfo<T> iconRequestInfo = duplicateIconRequestsMap.get(cn).get(0);
             ItemInfoWithIcon itemInfo = iconRequestInfo.itemInfo;
@@ -483,7 +525,8 @@ public class IconCache extends BaseIconCache {
                 entry.contentDescription = itemInfo.contentDescription;
 
                 if (loadFallbackIcon) {
-                    loadFallbackIcon(
+                    renderedIconCount++;
+                    Runnable renderIcon = () -> loadFallbackIcon(
                             lai,
                             entry,
                             mLauncherActivityInfoCachingLogic,
@@ -491,23 +534,74 @@ public class IconCache extends BaseIconCache {
                             /* usePackageTitle= */ loadFallbackTitle,
                             cn,
                             sectionKey.first);
+                    if (lai != null) {
+                        // Rendering the icon is the slow part, and only needs the activity info
+                        iconRenderTasks.add(renderIcon);
+                    } else {
+                        // Falls back to the default icon, which needs the lock held here
+                        renderIcon.run();
+                    }
                 }
-                if (loadFallbackTitle && TextUtils.isEmpty(entry.title) && lai != null) {
-                    loadFallbackTitle(
-                            lai,
-                            entry,
-                            mLauncherActivityInfoCachingLogic,
-                            sectionKey.first);
-                }
+                fallbackComponents.add(cn);
+                fallbackEntries.add(entry);
+            }
+        }
 
-                for (IconRequestInfo<T> iconRequest : duplicateIconRequestsMap.get(cn)) {
-                    applyCacheEntry(entry, iconRequest.itemInfo);
-                }
+        // Render the missing icons in parallel, in the order they were requested
+        ParallelTaskRunner.run(iconRenderTasks, THREAD_POOL_EXECUTOR, MAX_ICON_RENDER_HELPERS);
+        if (stats != null) {
+            // Every component without a rendered icon got it from the icon database
+            stats.add(duplicateIconRequestsMap.size() - renderedIconCount, renderedIconCount);
+        }
+
+        for (int i = 0; i < fallbackComponents.size(); i++) {
+            ComponentName cn = fallbackComponents.get(i);
+            CacheEntry entry = fallbackEntries.get(i);
+            List<IconRequestInfo<T>> duplicateIconRequests = duplicateIconRequestsMap.get(cn);
+            LauncherActivityInfo lai = duplicateIconRequests.get(0).launcherActivityInfo;
+            if (TextUtils.isEmpty(entry.title) && lai != null) {
+                loadFallbackTitle(
+                        lai,
+                        entry,
+                        mLauncherActivityInfoCachingLogic,
+                        sectionKey.first);
+            }
+
+            for (IconRequestInfo<T> iconRequest : duplicateIconRequests) {
+                applyCacheEntry(entry, iconRequest.itemInfo);
             }
         }
         Trace.endSection();
     }
 
+    /**
+     * Counts of the icons loaded by {@link #getTitlesAndIconsInBulk(List, BulkLoadStats)}.
+     */
+    public static final class BulkLoadStats {
+
+        private int mHitCount;
+        private int mMissCount;
+
+        private synchronized void add(int hitCount, int missCount) {
+            mHitCount += hitCount;
+            mMissCount += missCount;
+        }
+
+        /**
+         * Returns how many components had their icon in the icon database.
+         */
+        public synchronized int getHitCount() {
+            return mHitCount;
+        }
+
+        /**
+         * Returns how many components had their icon rendered.
+         */
+        public synchronized int getMissCount() {
+            return mMissCount;
+        }
+    }
+
     /**
      * Fill in {@param infoInOut} with the corresponding icon and label.
      */
@@ -30,6 +30,8 @@ import com.android.launcher3.R;
 import com.android.launcher3.icons.cache.CachingLogic;
 import com.android.launcher3.util.ResourceBasedOverride;
 
+import app.lawnchair.icons.IconPackWarmUp;
+
 /**
  * Caching logic for LauncherActivityInfo.
  */
@@ -65,6 +67,11 @@ public class LauncherActivityCachingLogic
     @NonNull
     @Override
     public BitmapInfo loadIcon(@NonNull Context context, @NonNull LauncherActivityInfo object) {
+        // Rendered ahead of an icon pack switch
+        BitmapInfo prerendered = IconPackWarmUp.getPrerenderedIcon(object);
+        if (prerendered != null) {
+            return prerendered;
+        }
         try (LauncherIcons li = LauncherIcons.obtain(context)) {
             return li.createBadgedIconBitmap(LauncherAppState.getInstance(context)
                             .getIconProvider().getIcon(object, li.mFillResIconDpi),
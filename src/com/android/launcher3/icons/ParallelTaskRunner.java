@@ -0,0 +1,101 @@
+/*
+ * Copyright 2024, Lawnchair
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.icons;
+
+import android.util.Log;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a list of independent tasks on the calling thread, helped by up to a bounded number of
+ * threads from an executor. Tasks are picked in list order, so earlier tasks complete first.
+ *
+ * The calling thread never waits for a helper that hasn't started, so this doesn't deadlock when
+ * the executor is busy with tasks blocked on a lock held by the caller.
+ */
+final class ParallelTaskRunner {
+
+    private static final String TAG = "ParallelTaskRunner";
+
+    private final List<Runnable> mTasks;
+    private final AtomicInteger mNextTask = new AtomicInteger();
+    private final Object mLock = new Object();
+    private int mActiveHelpers = 0;
+
+    private ParallelTaskRunner(List<Runnable> tasks) {
+        mTasks = tasks;
+    }
+
+    /**
+     * Runs all {@param tasks} and returns once they are complete.
+     */
+    static void run(List<Runnable> tasks, Executor executor, int maxHelpers) {
+        if (tasks.isEmpty()) {
+            return;
+        }
+        ParallelTaskRunner runner = new ParallelTaskRunner(tasks);
+        int helpers = Math.min(maxHelpers, tasks.size() - 1);
+        for (int i = 0; i < helpers; i++) {
+            executor.execute(runner::help);
+        }
+        runner.runTasks();
+        runner.awaitHelpers();
+    }
+
+    private void help() {
+        synchronized (mLock) {
+            if (mNextTask.get() >= mTasks.size()) {
+                // Started too late, nothing left to do
+                return;
+            }
+            mActiveHelpers++;
+        }
+        try {
+            runTasks();
+        } finally {
+            synchronized (mLock) {
+                mActiveHelpers--;
+                mLock.notifyAll();
+            }
+        }
+    }
+
+    private void runTasks() {
+        int index;
+        while ((index = mNextTask.getAndIncrement()) < mTasks.size()) {
+            try {
+                mTasks.get(index).run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Task failed", e);
+            }
+        }
+    }
+
+    private void awaitHelpers() {
+        synchronized (mLock) {
+            while (mActiveHelpers > 0) {
+                try {
+                    mLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+}
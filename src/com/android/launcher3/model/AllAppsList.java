@@ -40,14 +40,21 @@ import com.android.launcher3.model.BgDataModel.Callbacks;
 import com.android.launcher3.model.data.AppInfo;
 import com.android.launcher3.model.data.ItemInfo;
 import com.android.launcher3.pm.PackageInstallInfo;
+import com.android.launcher3.search.AppTitleSearchIndex;
+import com.android.launcher3.util.ComponentKey;
 import com.android.launcher3.util.FlagOp;
 import com.android.launcher3.util.PackageManagerHelper;
+import com.android.launcher3.util.PackageUserKey;
 import com.android.launcher3.util.SafeCloseable;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 
@@ -77,6 +84,13 @@ public class AllAppsList {
 
     private AlphabeticIndexCompat mIndex;
 
+    private final AppTitleSearchIndex mSearchIndex = new AppTitleSearchIndex();
+
+    /** Apps of {@link #data} by component, the first one added wins for duplicates. */
+    private final HashMap<ComponentKey, AppInfo> mAppsByComponent = new HashMap<>();
+    /** Apps of {@link #data} by package, in the order they were added. */
+    private final HashMap<PackageUserKey, ArrayList<AppInfo>> mAppsByPackage = new HashMap<>();
+
     /**
      * @see Callbacks#FLAG_HAS_SHORTCUT_PERMISSION
      * @see Callbacks#FLAG_QUIET_MODE_ENABLED
@@ -154,6 +168,8 @@ public class AllAppsList {
         }
 
         data.add(info);
+        indexApp(info);
+        mSearchIndex.add(info);
         mDataChanged = true;
     }
 
@@ -180,6 +196,8 @@ public class AllAppsList {
         }
 
         data.add(promiseAppInfo);
+        indexApp(promiseAppInfo);
+        mSearchIndex.add(promiseAppInfo);
         mDataChanged = true;
 
         return promiseAppInfo;
@@ -190,43 +208,116 @@ public class AllAppsList {
 
     }
 
+    /**
+     * Returns the title index used to search through {@link #data}
+     */
+    public AppTitleSearchIndex getSearchIndex() {
+        return mSearchIndex;
+    }
+
+    /**
+     * Re-creates the search index from scratch, for when titles were loaded outside of
+     * {@link #add}.
+     */
+    public void rebuildSearchIndex() {
+        mSearchIndex.rebuild(data);
+    }
+
     /** Updates the given PackageInstallInfo's associated AppInfo's installation info. */
     public List<AppInfo> updatePromiseInstallInfo(PackageInstallInfo installInfo) {
         List<AppInfo> updatedAppInfos = new ArrayList<>();
-        UserHandle user = installInfo.user;
-        for (int i = data.size() - 1; i >= 0; i--) {
-            final AppInfo appInfo = data.get(i);
-            final ComponentName tgtComp = appInfo.getTargetComponent();
-            if (tgtComp != null && tgtComp.getPackageName().equals(installInfo.packageName)
-                    && appInfo.user.equals(user)) {
-                if (installInfo.state == PackageInstallInfo.STATUS_INSTALLED_DOWNLOADING
-                        || installInfo.state == PackageInstallInfo.STATUS_INSTALLING) {
-                    if (appInfo.isAppStartable()
-                            && installInfo.state == PackageInstallInfo.STATUS_INSTALLING) {
-                        continue;
-                    }
-                    appInfo.setProgressLevel(installInfo);
-
-                    updatedAppInfos.add(appInfo);
-                } else if (installInfo.state == PackageInstallInfo.STATUS_FAILED
-                        && !appInfo.isAppStartable()) {
-                    removeApp(i);
+        List<AppInfo> removedAppInfos = new ArrayList<>();
+        List<AppInfo> packageApps = getPackageApps(installInfo.packageName, installInfo.user);
+        for (int i = packageApps.size() - 1; i >= 0; i--) {
+            final AppInfo appInfo = packageApps.get(i);
+            if (installInfo.state == PackageInstallInfo.STATUS_INSTALLED_DOWNLOADING
+                    || installInfo.state == PackageInstallInfo.STATUS_INSTALLING) {
+                if (appInfo.isAppStartable()
+                        && installInfo.state == PackageInstallInfo.STATUS_INSTALLING) {
+                    continue;
                 }
+                appInfo.setProgressLevel(installInfo);
+
+                updatedAppInfos.add(appInfo);
+            } else if (installInfo.state == PackageInstallInfo.STATUS_FAILED
+                    && !appInfo.isAppStartable()) {
+                removedAppInfos.add(appInfo);
             }
         }
+        removeApps(removedAppInfos);
         return updatedAppInfos;
     }
 
-    private void removeApp(int index) {
-        AppInfo removed = data.remove(index);
-        if (removed != null) {
-            mDataChanged = true;
-            mRemoveListener.accept(removed);
+    /**
+     * Removes {@param apps} from {@link #data} in a single pass.
+     */
+    private void removeApps(List<AppInfo> apps) {
+        if (apps.isEmpty()) {
+            return;
+        }
+        Set<AppInfo> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+        removed.addAll(apps);
+        data.removeIf(removed::contains);
+        for (AppInfo info : apps) {
+            unindexApp(info);
+            mSearchIndex.remove(info);
+            mRemoveListener.accept(info);
         }
+        mDataChanged = true;
+    }
+
+    private void indexApp(AppInfo info) {
+        if (info.componentName == null) {
+            return;
+        }
+        mAppsByComponent.putIfAbsent(info.toComponentKey(), info);
+        mAppsByPackage.computeIfAbsent(
+                new PackageUserKey(info.componentName.getPackageName(), info.user),
+                k -> new ArrayList<>()).add(info);
+    }
+
+    private void unindexApp(AppInfo info) {
+        if (info.componentName == null) {
+            return;
+        }
+        PackageUserKey packageKey =
+                new PackageUserKey(info.componentName.getPackageName(), info.user);
+        ArrayList<AppInfo> packageApps = mAppsByPackage.get(packageKey);
+        if (packageApps != null) {
+            packageApps.remove(info);
+            if (packageApps.isEmpty()) {
+                mAppsByPackage.remove(packageKey);
+            }
+        }
+        ComponentKey componentKey = info.toComponentKey();
+        if (mAppsByComponent.get(componentKey) == info) {
+            mAppsByComponent.remove(componentKey);
+            // Fall back to a duplicate of the same component, if any
+            if (packageApps != null) {
+                for (AppInfo app : packageApps) {
+                    if (info.componentName.equals(app.componentName)) {
+                        mAppsByComponent.put(componentKey, app);
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a copy of the apps of {@param packageName} for {@param user}, in the order they were
+     * added.
+     */
+    private List<AppInfo> getPackageApps(String packageName, UserHandle user) {
+        ArrayList<AppInfo> packageApps = mAppsByPackage.get(new PackageUserKey(packageName, user));
+        return packageApps == null ? Collections.emptyList() : new ArrayList<>(packageApps);
     }
 
     public void clear() {
         data.clear();
+        mAppsByComponent.clear();
+        mAppsByPackage.clear();
+        mSearchIndex.clear();
         mDataChanged = false;
         // Reset the index as locales might have changed
         mIndex = new AlphabeticIndexCompat(LocaleList.getDefault());
@@ -251,13 +342,7 @@ public class AllAppsList {
      * Remove the apps for the given apk identified by packageName.
      */
     public void removePackage(String packageName, UserHandle user) {
-        final List<AppInfo> data = this.data;
-        for (int i = data.size() - 1; i >= 0; i--) {
-            AppInfo info = data.get(i);
-            if (info.user.equals(user) && packageName.equals(info.componentName.getPackageName())) {
-                removeApp(i);
-            }
-        }
+        removeApps(getPackageApps(packageName, user));
     }
 
     /**
@@ -275,10 +360,11 @@ public class AllAppsList {
     }
 
     public void updateIconsAndLabels(HashSet<String> packages, UserHandle user) {
-        for (AppInfo info : data) {
-            if (info.user.equals(user) && packages.contains(info.componentName.getPackageName())) {
+        for (String packageName : packages) {
+            for (AppInfo info : getPackageApps(packageName, user)) {
                 mIconCache.updateTitleAndIcon(info);
                 info.sectionName = mIndex.computeSectionName(info.title);
+                mSearchIndex.update(info);
                 mDataChanged = true;
             }
         }
@@ -294,16 +380,18 @@ public class AllAppsList {
         if (matches.size() > 0) {
             // Find disabled/removed activities and remove them from data and add them
             // to the removed list.
-            for (int i = data.size() - 1; i >= 0; i--) {
-                final AppInfo applicationInfo = data.get(i);
-                if (user.equals(applicationInfo.user)
-                        && packageName.equals(applicationInfo.componentName.getPackageName())) {
-                    if (!findActivity(matches, applicationInfo.componentName)) {
-                        Log.w(TAG, "Changing shortcut target due to app component name change.");
-                        removeApp(i);
-                    }
+            HashSet<ComponentName> matchedComponents = new HashSet<>(matches.size());
+            for (LauncherActivityInfo info : matches) {
+                matchedComponents.add(info.getComponentName());
+            }
+            List<AppInfo> removedApps = new ArrayList<>();
+            for (AppInfo applicationInfo : getPackageApps(packageName, user)) {
+                if (!matchedComponents.contains(applicationInfo.componentName)) {
+                    Log.w(TAG, "Changing shortcut target due to app component name change.");
+                    removedApps.add(applicationInfo);
                 }
             }
+            removeApps(removedApps);
 
             // Find enabled activities and add them to the adapter
             // Also updates existing activities with new labels/icons
@@ -316,6 +404,7 @@ public class AllAppsList {
 
                     mIconCache.getTitleAndIcon(applicationInfo, info, false /* useLowResIcon */);
                     applicationInfo.sectionName = mIndex.computeSectionName(applicationInfo.title);
+                    mSearchIndex.update(applicationInfo);
                     applicationInfo.setProgressLevel(
                             PackageManagerHelper.getLoadingProgress(info),
                             PackageInstallInfo.STATUS_INSTALLED_DOWNLOADING);
@@ -326,32 +415,16 @@ public class AllAppsList {
             }
         } else {
             // Remove all data for this package.
-            for (int i = data.size() - 1; i >= 0; i--) {
-                final AppInfo applicationInfo = data.get(i);
-                if (user.equals(applicationInfo.user)
-                        && packageName.equals(applicationInfo.componentName.getPackageName())) {
-                    mIconCache.remove(applicationInfo.componentName, user);
-                    removeApp(i);
-                }
+            List<AppInfo> removedApps = getPackageApps(packageName, user);
+            for (AppInfo applicationInfo : removedApps) {
+                mIconCache.remove(applicationInfo.componentName, user);
             }
+            removeApps(removedApps);
         }
 
         return matches;
     }
 
-    /**
-     * Returns whether <em>apps</em> contains <em>component</em>.
-     */
-    private static boolean findActivity(List<LauncherActivityInfo> apps,
-            ComponentName component) {
-        for (LauncherActivityInfo info : apps) {
-            if (info.getComponentName().equals(component)) {
-                return true;
-            }
-        }
-        return false;
-    }
-
     /**
      * Find an AppInfo object for the given componentName
      *
@@ -359,12 +432,7 @@ public class AllAppsList {
      */
     public @Nullable AppInfo findAppInfo(@NonNull ComponentName componentName,
                                           @NonNull UserHandle user) {
-        for (AppInfo info: data) {
-            if (componentName.equals(info.componentName) && user.equals(info.user)) {
-                return info;
-            }
-        }
-        return null;
+        return mAppsByComponent.get(new ComponentKey(componentName, user));
     }
 
     public AppInfo[] copyData() {
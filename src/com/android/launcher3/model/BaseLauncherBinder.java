@@ -35,6 +35,7 @@ import com.android.launcher3.model.BgDataModel.FixedContainerItems;
 import com.android.launcher3.model.data.AppInfo;
 import com.android.launcher3.model.data.ItemInfo;
 import com.android.launcher3.model.data.LauncherAppWidgetInfo;
+import com.android.launcher3.model.data.WorkspaceItemInfo;
 import com.android.launcher3.util.IntArray;
 import com.android.launcher3.util.IntSet;
 import com.android.launcher3.util.LooperExecutor;
@@ -149,6 +150,40 @@ public abstract class BaseLauncherBinder {
         }
     }
 
+    /**
+     * Binds the changes of a workspace which is already bound, instead of binding it again: the
+     * workspace items which look different, the extra items and the strings.
+     */
+    public void bindWorkspaceChanges(List<WorkspaceItemInfo> updated) {
+        ArrayList<FixedContainerItems> extraItems = new ArrayList<>();
+        StringCache cacheClone;
+        synchronized (mBgDataModel) {
+            mBgDataModel.extraItems.forEach(extraItems::add);
+            cacheClone = mBgDataModel.stringCache.clone();
+        }
+        if (!updated.isEmpty()) {
+            executeCallbacksTask(c -> c.bindWorkspaceItemsChanged(updated), mUiExecutor);
+        }
+        if (!FeatureFlags.CHANGE_MODEL_DELEGATE_LOADING_ORDER.get()) {
+            extraItems.forEach(item -> executeCallbacksTask(
+                    c -> c.bindExtraContainerItems(item), mUiExecutor));
+        }
+        executeCallbacksTask(c -> c.bindStringCache(cacheClone), mUiExecutor);
+    }
+
+    /**
+     * Keeps the workspace locked while {@param pending}, from the bind of a workspace snapshot
+     * until the loaded workspace replaced it. Unlike the binds, it isn't skipped by later binds
+     * so that the workspace always ends up unlocked.
+     */
+    public void setWorkspaceSnapshotPending(boolean pending) {
+        mUiExecutor.execute(() -> {
+            for (Callbacks cb : mCallbacksList) {
+                cb.setWorkspaceSnapshotPending(pending);
+            }
+        });
+    }
+
     /**
      * BindDeepShortcuts is abstract because it is a no-op for the go launcher.
      */
@@ -19,6 +19,7 @@ import static android.content.pm.LauncherApps.ShortcutQuery.FLAG_GET_KEY_FIELDS_
 
 import static com.android.launcher3.model.WidgetsModel.GO_DISABLE_WIDGETS;
 import static com.android.launcher3.shortcuts.ShortcutRequest.PINNED;
+import static com.android.launcher3.util.Executors.MODEL_EXECUTOR;
 
 import static java.util.stream.Collectors.groupingBy;
 import static java.util.stream.Collectors.mapping;
@@ -26,6 +27,7 @@ import static java.util.stream.Collectors.mapping;
 import android.content.Context;
 import android.content.pm.LauncherApps;
 import android.content.pm.ShortcutInfo;
+import android.os.Looper;
 import android.os.UserHandle;
 import android.text.TextUtils;
 import android.util.ArraySet;
@@ -92,6 +94,11 @@ public class BgDataModel {
      */
     public final ArrayList<ItemInfo> workspaceItems = new ArrayList<>();
 
+    /**
+     * Ids of {@link #workspaceItems}, to check if an item is there without scanning the list
+     */
+    private final IntSet mWorkspaceItemIds = new IntSet();
+
     /**
      * All LauncherAppWidgetInfo created by LauncherModel.
      */
@@ -132,16 +139,69 @@ public class BgDataModel {
      */
     public int lastLoadId = -1;
 
+    // Bumped every time the items change, written under the model lock
+    private volatile int mItemsVersion = 0;
+    private boolean mItemsSnapshotPublishPending;
+    private volatile ItemsSnapshot mItemsSnapshot = new ItemsSnapshot(0, new IntSparseArrayMap<>(),
+            new ArrayList<>(), new ArrayList<>(), new IntSparseArrayMap<>());
+
     /**
      * Clears all the data
      */
     public synchronized void clear() {
         workspaceItems.clear();
+        mWorkspaceItemIds.clear();
         appWidgets.clear();
         folders.clear();
         itemsIdMap.clear();
         deepShortcutMap.clear();
         extraItems.clear();
+        onItemsChanged();
+    }
+
+    /**
+     * Marks the items as changed, a new {@link ItemsSnapshot} is published once the model thread
+     * is done with its current task. Code modifying {@link #itemsIdMap}, {@link #workspaceItems},
+     * {@link #folders} or {@link #appWidgets} directly has to call it.
+     */
+    public synchronized void onItemsChanged() {
+        mItemsVersion++;
+        if (!mItemsSnapshotPublishPending) {
+            mItemsSnapshotPublishPending = true;
+            MODEL_EXECUTOR.post(this::publishItemsSnapshot);
+        }
+    }
+
+    /**
+     * Returns the version of the items, which changes every time {@link #onItemsChanged} is
+     * called.
+     */
+    public int getItemsVersion() {
+        return mItemsVersion;
+    }
+
+    /**
+     * Returns the last published snapshot of the items, without taking the model lock. It can
+     * miss the changes of the task the model thread is running, except on the model thread
+     * where it's always up to date.
+     */
+    @NonNull
+    public ItemsSnapshot getItemsSnapshot() {
+        ItemsSnapshot snapshot = mItemsSnapshot;
+        if (snapshot.version != mItemsVersion
+                && MODEL_EXECUTOR.getLooper() == Looper.myLooper()) {
+            publishItemsSnapshot();
+            snapshot = mItemsSnapshot;
+        }
+        return snapshot;
+    }
+
+    synchronized void publishItemsSnapshot() {
+        mItemsSnapshotPublishPending = false;
+        if (mItemsSnapshot.version != mItemsVersion) {
+            mItemsSnapshot = new ItemsSnapshot(mItemsVersion, itemsIdMap.clone(),
+                    new ArrayList<>(workspaceItems), new ArrayList<>(appWidgets), folders.clone());
+        }
     }
 
     /**
@@ -211,14 +271,14 @@ public class BgDataModel {
                             }
                         }
                     }
-                    workspaceItems.remove(item);
+                    removeWorkspaceItem(item);
                     break;
                 case LauncherSettings.Favorites.ITEM_TYPE_DEEP_SHORTCUT: {
                     updatedDeepShortcuts.add(item.user);
                     // Fall through.
                 }
                 case LauncherSettings.Favorites.ITEM_TYPE_APPLICATION:
-                    workspaceItems.remove(item);
+                    removeWorkspaceItem(item);
                     break;
                 case LauncherSettings.Favorites.ITEM_TYPE_APPWIDGET:
                 case LauncherSettings.Favorites.ITEM_TYPE_CUSTOM_APPWIDGET:
@@ -227,9 +287,31 @@ public class BgDataModel {
             }
             itemsIdMap.remove(item.id);
         }
+        onItemsChanged();
         updatedDeepShortcuts.forEach(user -> updateShortcutPinnedState(context, user));
     }
 
+    /**
+     * Adds {@param item} to {@link #workspaceItems}, unless it's already there.
+     */
+    public synchronized void addWorkspaceItem(ItemInfo item) {
+        if (!mWorkspaceItemIds.contains(item.id)) {
+            workspaceItems.add(item);
+            mWorkspaceItemIds.add(item.id);
+            onItemsChanged();
+        }
+    }
+
+    /**
+     * Removes {@param item} from {@link #workspaceItems}, only scanning the list if it's there.
+     */
+    public synchronized void removeWorkspaceItem(ItemInfo item) {
+        if (mWorkspaceItemIds.contains(item.id) && workspaceItems.remove(item)) {
+            mWorkspaceItemIds.remove(item.id);
+            onItemsChanged();
+        }
+    }
+
     public synchronized void addItem(Context context, ItemInfo item, boolean newItem) {
         addItem(context, item, newItem, null);
     }
@@ -249,12 +331,14 @@ public class BgDataModel {
             case LauncherSettings.Favorites.ITEM_TYPE_APP_PAIR:
                 folders.put(item.id, (FolderInfo) item);
                 workspaceItems.add(item);
+                mWorkspaceItemIds.add(item.id);
                 break;
             case LauncherSettings.Favorites.ITEM_TYPE_DEEP_SHORTCUT:
             case LauncherSettings.Favorites.ITEM_TYPE_APPLICATION:
                 if (item.container == LauncherSettings.Favorites.CONTAINER_DESKTOP ||
                         item.container == LauncherSettings.Favorites.CONTAINER_HOTSEAT) {
                     workspaceItems.add(item);
+                    mWorkspaceItemIds.add(item.id);
                 } else {
                     if (newItem) {
                         if (!folders.containsKey(item.container)) {
@@ -273,6 +357,7 @@ public class BgDataModel {
                 appWidgets.add((LauncherAppWidgetInfo) item);
                 break;
         }
+        onItemsChanged();
         if (newItem && item.itemType == LauncherSettings.Favorites.ITEM_TYPE_DEEP_SHORTCUT) {
             updateShortcutPinnedState(context, item.user);
         }
@@ -366,6 +451,7 @@ public class BgDataModel {
             // No placeholder -- create a new instance
             folderInfo = new FolderInfo();
             folders.put(id, folderInfo);
+            onItemsChanged();
         }
         return folderInfo;
     }
@@ -432,6 +518,59 @@ public class BgDataModel {
         }
     }
 
+    /**
+     * An immutable copy of the items of the model, which can be read from any thread without
+     * taking the model lock. The {@link ItemInfo}s are the ones of the model, not copies.
+     */
+    public static final class ItemsSnapshot {
+
+        /**
+         * The version of the items, which increases every time they change
+         */
+        public final int version;
+
+        /**
+         * All the items by id, see {@link BgDataModel#itemsIdMap}. Must not be modified.
+         */
+        public final IntSparseArrayMap<ItemInfo> itemsIdMap;
+
+        /**
+         * Folders and shortcuts directly on the home screen, see
+         * {@link BgDataModel#workspaceItems}
+         */
+        public final List<ItemInfo> workspaceItems;
+
+        /**
+         * All the widgets, see {@link BgDataModel#appWidgets}
+         */
+        public final List<LauncherAppWidgetInfo> appWidgets;
+
+        /**
+         * The folders by id, see {@link BgDataModel#folders}. Must not be modified.
+         */
+        public final IntSparseArrayMap<FolderInfo> folders;
+
+        private ItemsSnapshot(int version, IntSparseArrayMap<ItemInfo> itemsIdMap,
+                List<ItemInfo> workspaceItems, List<LauncherAppWidgetInfo> appWidgets,
+                IntSparseArrayMap<FolderInfo> folders) {
+            this.version = version;
+            this.itemsIdMap = itemsIdMap;
+            this.workspaceItems = Collections.unmodifiableList(workspaceItems);
+            this.appWidgets = Collections.unmodifiableList(appWidgets);
+            this.folders = folders;
+        }
+
+        /**
+         * Returns a list containing all workspace items including widgets.
+         */
+        public ArrayList<ItemInfo> getAllWorkspaceItems() {
+            ArrayList<ItemInfo> items = new ArrayList<>(workspaceItems.size() + appWidgets.size());
+            items.addAll(workspaceItems);
+            items.addAll(appWidgets);
+            return items;
+        }
+    }
+
     /**
      * An object containing items corresponding to a fixed container
      */
@@ -471,6 +610,12 @@ public class BgDataModel {
         default void bindItems(List<ItemInfo> shortcuts, boolean forceAnimateIcons) { }
         default void bindScreens(IntArray orderedScreenIds) { }
         default void finishBindingItems(IntSet pagesBoundFirst) { }
+
+        /**
+         * Called when the bound workspace is a snapshot, which the items being loaded are going
+         * to replace, and then once they did. Items shouldn't be moved meanwhile.
+         */
+        default void setWorkspaceSnapshotPending(boolean pending) { }
         default void preAddApps() { }
         default void bindAppsAdded(IntArray newScreens,
                 ArrayList<ItemInfo> addNotAnimated, ArrayList<ItemInfo> addAnimated) { }
@@ -33,8 +33,10 @@ import android.database.sqlite.SQLiteDatabase;
 import android.graphics.Point;
 import android.util.ArrayMap;
 import android.util.Log;
+import android.util.Pair;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.android.launcher3.InvariantDeviceProfile;
 import com.android.launcher3.LauncherSettings;
@@ -43,8 +45,9 @@ import com.android.launcher3.config.FeatureFlags;
 import com.android.launcher3.model.data.ItemInfo;
 import com.android.launcher3.pm.InstallSessionHelper;
 import com.android.launcher3.provider.LauncherDbUtils.SQLiteTransaction;
-import com.android.launcher3.util.GridOccupancy;
+import com.android.launcher3.util.BitmaskGridOccupancy;
 import com.android.launcher3.util.IntArray;
+import com.android.launcher3.util.IntSparseArrayMap;
 import com.android.launcher3.util.MainThreadInitializedObject.SandboxContext;
 import com.android.launcher3.widget.LauncherAppWidgetProviderInfo;
 import com.android.launcher3.widget.WidgetManagerHelper;
@@ -147,13 +150,102 @@ public class GridSizeMigrationUtil {
             @NonNull final DeviceGridState srcDeviceState,
             @NonNull final DeviceGridState destDeviceState) {
 
+        final MigrationPlan plan = planMigration(srcReader, destReader, destHotseatSize,
+                targetSize, srcDeviceState, destDeviceState);
+        if (!plan.removedIds.isEmpty()) {
+            removeEntryFromDb(destReader.mDb, destReader.mTableName, plan.removedIds);
+        }
+        if (!plan.hasItemsToAdd) {
+            return false;
+        }
+        for (DbEntry entry : plan.placedEntries) {
+            insertEntryInDb(helper, entry, srcReader.mTableName, destReader.mTableName);
+        }
+        return true;
+    }
+
+    /**
+     * Migrates the workspace of the preview in place, as if the target grid had no database
+     * yet. The layout is planned in memory first, then the items of {@code helper} are moved to
+     * their new positions and the ones which don't fit anymore are removed.
+     *
+     * @return false if the migration failed.
+     */
+    public static boolean migratePreviewGrid(
+            @NonNull Context context,
+            @NonNull InvariantDeviceProfile idp,
+            @NonNull DatabaseHelper helper) {
+
+        DeviceGridState srcDeviceState = new DeviceGridState(context);
+        DeviceGridState destDeviceState = new DeviceGridState(idp);
+        if (!needsToMigrate(srcDeviceState, destDeviceState)) {
+            return true;
+        }
+
+        long migrationStartTime = System.currentTimeMillis();
+        try (SQLiteTransaction t = new SQLiteTransaction(helper.getWritableDatabase())) {
+            DbReader srcReader = new DbReader(t.getDb(), TABLE_NAME, context,
+                    getValidPackages(context), true /* dryRun */);
+            Point targetSize = new Point(destDeviceState.getColumns(), destDeviceState.getRows());
+            MigrationPlan plan = planMigration(srcReader, null, destDeviceState.getNumHotseat(),
+                    targetSize, srcDeviceState, destDeviceState);
+
+            IntArray toBeRemoved = srcReader.getInvalidEntryIds().clone();
+            for (DbEntry entry : plan.droppedEntries) {
+                toBeRemoved.add(entry.id);
+                entry.mFolderItems.values().forEach(ids -> ids.forEach(toBeRemoved::add));
+            }
+            if (!toBeRemoved.isEmpty()) {
+                removeEntryFromDb(t.getDb(), TABLE_NAME, toBeRemoved);
+            }
+            ContentValues values = new ContentValues();
+            for (DbEntry entry : plan.placedEntries) {
+                values.clear();
+                entry.updateContentValues(values);
+                t.getDb().update(TABLE_NAME, values,
+                        LauncherSettings.Favorites._ID + " = " + entry.id, null);
+            }
+            t.commit();
+            return true;
+        } catch (Exception e) {
+            Log.e(TAG, "Error during preview grid migration", e);
+            return false;
+        } finally {
+            Log.v(TAG, "Preview workspace migration completed in "
+                    + (System.currentTimeMillis() - migrationStartTime));
+
+            // Save current configuration, so that the migration does not run again.
+            destDeviceState.writeToPrefs(context);
+        }
+    }
+
+    /**
+     * Computes where the items of {@code srcReader} go on the grid of {@code destReader},
+     * without writing to either database. A null {@code destReader} stands for an empty grid.
+     *
+     * The placement runs in the reading order of the source items: items which don't fit on a
+     * screen overflow to the next one, so each screen depends on the ones before it.
+     */
+    @NonNull
+    protected static MigrationPlan planMigration(
+            @NonNull final DbReader srcReader, @Nullable final DbReader destReader,
+            final int destHotseatSize, @NonNull final Point targetSize,
+            @NonNull final DeviceGridState srcDeviceState,
+            @NonNull final DeviceGridState destDeviceState) {
+
+        final MigrationPlan plan = new MigrationPlan();
         final List<DbEntry> srcHotseatItems = srcReader.loadHotseatEntries();
         final List<DbEntry> srcWorkspaceItems = srcReader.loadAllWorkspaceEntries();
-        final List<DbEntry> dstHotseatItems = destReader.loadHotseatEntries();
-        final List<DbEntry> dstWorkspaceItems = destReader.loadAllWorkspaceEntries();
+        final List<DbEntry> dstHotseatItems = destReader != null
+                ? destReader.loadHotseatEntries() : Collections.emptyList();
+        final List<DbEntry> dstWorkspaceItems = destReader != null
+                ? destReader.loadAllWorkspaceEntries() : Collections.emptyList();
+        final int destLastScreenId = destReader != null ? destReader.mLastScreenId : -1;
+        final Map<Integer, ArrayList<DbEntry>> destEntriesByScreenId = destReader != null
+                ? destReader.mWorkspaceEntriesByScreenId : Collections.emptyMap();
         final List<DbEntry> hotseatToBeAdded = new ArrayList<>(1);
         final List<DbEntry> workspaceToBeAdded = new ArrayList<>(1);
-        final IntArray toBeRemoved = new IntArray();
+        final IntArray toBeRemoved = plan.removedIds;
 
         calcDiff(srcHotseatItems, dstHotseatItems, hotseatToBeAdded, toBeRemoved);
         calcDiff(srcWorkspaceItems, dstWorkspaceItems, workspaceToBeAdded, toBeRemoved);
@@ -180,25 +272,23 @@ public class GridSizeMigrationUtil {
                     + hotseatToBeAdded.stream().map(DbEntry::toString).collect(
                             Collectors.joining(",\n", "[", "]")));
         }
-        if (!toBeRemoved.isEmpty()) {
-            removeEntryFromDb(destReader.mDb, destReader.mTableName, toBeRemoved);
-        }
         if (hotseatToBeAdded.isEmpty() && workspaceToBeAdded.isEmpty()) {
-            return false;
+            return plan;
         }
+        plan.hasItemsToAdd = true;
 
         // Sort the items by the reading order.
         Collections.sort(hotseatToBeAdded);
         Collections.sort(workspaceToBeAdded);
 
         // Migrate hotseat
-        solveHotseatPlacement(helper, destHotseatSize,
-                srcReader, destReader, dstHotseatItems, hotseatToBeAdded);
+        solveHotseatPlacement(destHotseatSize, dstHotseatItems, hotseatToBeAdded, plan);
+        plan.droppedEntries.addAll(hotseatToBeAdded);
 
         // Migrate workspace.
         // First we create a collection of the screens
         List<Integer> screens = new ArrayList<>();
-        for (int screenId = 0; screenId <= destReader.mLastScreenId; screenId++) {
+        for (int screenId = 0; screenId <= destLastScreenId; screenId++) {
             screens.add(screenId);
         }
 
@@ -213,8 +303,8 @@ public class GridSizeMigrationUtil {
             if (DEBUG) {
                 Log.d(TAG, "Migrating " + screenId);
             }
-            solveGridPlacement(helper, srcReader,
-                    destReader, screenId, trgX, trgY, workspaceToBeAdded, false);
+            solveGridPlacement(srcReader.mContext, destEntriesByScreenId.get(screenId), screenId,
+                    trgX, trgY, workspaceToBeAdded, false, plan);
             if (workspaceToBeAdded.isEmpty()) {
                 break;
             }
@@ -224,14 +314,14 @@ public class GridSizeMigrationUtil {
         // don't fit on
         // any of the screens, in this case we add them to new screens until all of them
         // are placed.
-        int screenId = destReader.mLastScreenId + 1;
+        int screenId = destLastScreenId + 1;
         while (!workspaceToBeAdded.isEmpty()) {
-            solveGridPlacement(helper, srcReader,
-                    destReader, screenId, trgX, trgY, workspaceToBeAdded, preservePages);
+            solveGridPlacement(srcReader.mContext, null, screenId,
+                    trgX, trgY, workspaceToBeAdded, preservePages, plan);
             screenId++;
         }
 
-        return true;
+        return plan;
     }
 
     /**
@@ -243,13 +333,18 @@ public class GridSizeMigrationUtil {
     private static void calcDiff(@NonNull final List<DbEntry> src,
             @NonNull final List<DbEntry> dest, @NonNull final List<DbEntry> toBeAdded,
             @NonNull final IntArray toBeRemoved) {
+        final Set<String> srcIds = new HashSet<>(src.size());
+        src.forEach(entry -> srcIds.add(entry.getEntryMigrationId()));
+        final Set<String> destIds = new HashSet<>(dest.size());
+        dest.forEach(entry -> destIds.add(entry.getEntryMigrationId()));
+
         src.forEach(entry -> {
-            if (!dest.contains(entry)) {
+            if (!destIds.contains(entry.getEntryMigrationId())) {
                 toBeAdded.add(entry);
             }
         });
         dest.forEach(entry -> {
-            if (!src.contains(entry)) {
+            if (!srcIds.contains(entry.getEntryMigrationId())) {
                 toBeRemoved.add(entry.id);
                 if (entry.itemType == LauncherSettings.Favorites.ITEM_TYPE_FOLDER) {
                     entry.mFolderItems.values().forEach(ids -> ids.forEach(toBeRemoved::add));
@@ -329,18 +424,18 @@ public class GridSizeMigrationUtil {
         return validPackages;
     }
 
-    private static void solveGridPlacement(@NonNull final DatabaseHelper helper,
-            @NonNull final DbReader srcReader, @NonNull final DbReader destReader,
+    private static void solveGridPlacement(@NonNull final Context context,
+            @Nullable final List<DbEntry> existingEntries,
             final int screenId, final int trgX, final int trgY,
-            @NonNull final List<DbEntry> sortedItemsToPlace, final boolean matchingScreenIdOnly) {
-        final GridOccupancy occupied = new GridOccupancy(trgX, trgY);
+            @NonNull final List<DbEntry> sortedItemsToPlace, final boolean matchingScreenIdOnly,
+            @NonNull final MigrationPlan plan) {
+        final BitmaskGridOccupancy occupied = new BitmaskGridOccupancy(trgX, trgY);
         final Point trg = new Point(trgX, trgY);
-        final Point next = new Point(0, screenId == 0 && FeatureFlags.topQsbOnFirstScreenEnabled(srcReader.mContext)
+        final Point next = new Point(0, screenId == 0 && FeatureFlags.topQsbOnFirstScreenEnabled(context)
                 ? 1
                 /* smartspace */ : 0);
-        List<DbEntry> existedEntries = destReader.mWorkspaceEntriesByScreenId.get(screenId);
-        if (existedEntries != null) {
-            for (DbEntry entry : existedEntries) {
+        if (existingEntries != null) {
+            for (DbEntry entry : existingEntries) {
                 occupied.markCells(entry, true);
             }
         }
@@ -352,11 +447,12 @@ public class GridSizeMigrationUtil {
             if (matchingScreenIdOnly && entry.screenId > screenId)
                 break;
             if (entry.minSpanX > trgX || entry.minSpanY > trgY) {
+                plan.droppedEntries.add(entry);
                 iterator.remove();
                 continue;
             }
             if (findPlacementForEntry(entry, next, trg, occupied, screenId)) {
-                insertEntryInDb(helper, entry, srcReader.mTableName, destReader.mTableName);
+                plan.placedEntries.add(entry);
                 iterator.remove();
             }
         }
@@ -371,35 +467,33 @@ public class GridSizeMigrationUtil {
      */
     private static boolean findPlacementForEntry(@NonNull final DbEntry entry,
             @NonNull final Point next, @NonNull final Point trg,
-            @NonNull final GridOccupancy occupied, final int screenId) {
+            @NonNull final BitmaskGridOccupancy occupied, final int screenId) {
         for (int y = next.y; y < trg.y; y++) {
-            for (int x = next.x; x < trg.x; x++) {
-                boolean fits = occupied.isRegionVacant(x, y, entry.spanX, entry.spanY);
-                boolean minFits = occupied.isRegionVacant(x, y, entry.minSpanX,
-                        entry.minSpanY);
-                if (minFits) {
-                    entry.spanX = entry.minSpanX;
-                    entry.spanY = entry.minSpanY;
-                }
-                if (fits || minFits) {
-                    entry.screenId = screenId;
-                    entry.cellX = x;
-                    entry.cellY = y;
-                    occupied.markCells(entry, true);
-                    next.set(x + entry.spanX, y);
-                    return true;
-                }
+            int x = occupied.findVacantX(y, next.x, entry.spanX, entry.spanY);
+            int minX = occupied.findVacantX(y, next.x, entry.minSpanX, entry.minSpanY);
+            // The item is shrunk to its min spans wherever they fit
+            if (minX >= 0 && (x < 0 || minX <= x)) {
+                x = minX;
+                entry.spanX = entry.minSpanX;
+                entry.spanY = entry.minSpanY;
+            }
+            if (x >= 0) {
+                entry.screenId = screenId;
+                entry.cellX = x;
+                entry.cellY = y;
+                occupied.markCells(entry, true);
+                next.set(x + entry.spanX, y);
+                return true;
             }
             next.set(0, next.y);
         }
         return false;
     }
 
-    private static void solveHotseatPlacement(
-            @NonNull final DatabaseHelper helper, final int hotseatSize,
-            @NonNull final DbReader srcReader, @NonNull final DbReader destReader,
+    private static void solveHotseatPlacement(final int hotseatSize,
             @NonNull final List<DbEntry> placedHotseatItems,
-            @NonNull final List<DbEntry> itemsToPlace) {
+            @NonNull final List<DbEntry> itemsToPlace,
+            @NonNull final MigrationPlan plan) {
 
         final boolean[] occupied = new boolean[hotseatSize];
         for (DbEntry entry : placedHotseatItems) {
@@ -414,28 +508,66 @@ public class GridSizeMigrationUtil {
                 // to something other than -1.
                 entry.cellX = i;
                 entry.cellY = 0;
-                insertEntryInDb(helper, entry, srcReader.mTableName, destReader.mTableName);
+                plan.placedEntries.add(entry);
                 occupied[entry.screenId] = true;
             }
         }
     }
 
+    /**
+     * The result of {@link #planMigration}: the items to remove from the target grid, and the
+     * new positions of the items to add to it.
+     */
+    protected static class MigrationPlan {
+
+        /** Items of the target grid which aren't in the source grid anymore */
+        final IntArray removedIds = new IntArray();
+        /** Items to add with their new positions, hotseat first, in the order they were placed */
+        final List<DbEntry> placedEntries = new ArrayList<>();
+        /** Items which don't fit in the target hotseat or are too big for the target grid */
+        final List<DbEntry> droppedEntries = new ArrayList<>();
+        /** Whether the source grid has items which the target grid doesn't */
+        boolean hasItemsToAdd;
+    }
+
     protected static class DbReader {
 
         private final SQLiteDatabase mDb;
         private final String mTableName;
         private final Context mContext;
         private final Set<String> mValidPackages;
+        private final boolean mDryRun;
         private int mLastScreenId = -1;
 
         private final Map<Integer, ArrayList<DbEntry>> mWorkspaceEntriesByScreenId = new ArrayMap<>();
+        // Invalid items, only collected in a dry run instead of being removed
+        private final IntArray mInvalidEntryIds = new IntArray();
+        // Id and intent of the items in folders, by folder id, loaded on the first folder
+        private IntSparseArrayMap<List<Pair<Integer, String>>> mFolderItemRows;
 
         DbReader(SQLiteDatabase db, String tableName, Context context,
                 Set<String> validPackages) {
+            this(db, tableName, context, validPackages, false /* dryRun */);
+        }
+
+        /**
+         * @param dryRun if true, invalid items are only collected in {@link #getInvalidEntryIds}
+         *               and the table is never modified
+         */
+        DbReader(SQLiteDatabase db, String tableName, Context context,
+                Set<String> validPackages, boolean dryRun) {
             mDb = db;
             mTableName = tableName;
             mContext = context;
             mValidPackages = validPackages;
+            mDryRun = dryRun;
+        }
+
+        /**
+         * Returns the items which would have been removed from the table if this wasn't a dry run.
+         */
+        IntArray getInvalidEntryIds() {
+            return mInvalidEntryIds;
         }
 
         protected List<DbEntry> loadHotseatEntries() {
@@ -489,7 +621,7 @@ public class GridSizeMigrationUtil {
                 }
                 hotseatEntries.add(entry);
             }
-            removeEntryFromDb(mDb, mTableName, entriesToRemove);
+            removeInvalidEntries(entriesToRemove);
             c.close();
             return hotseatEntries;
         }
@@ -590,21 +722,26 @@ public class GridSizeMigrationUtil {
                 }
                 mWorkspaceEntriesByScreenId.get(entry.screenId).add(entry);
             }
-            removeEntryFromDb(mDb, mTableName, entriesToRemove);
+            removeInvalidEntries(entriesToRemove);
             c.close();
             return workspaceEntries;
         }
 
         private int getFolderItemsCount(DbEntry entry) {
-            Cursor c = queryWorkspace(
-                    new String[] { LauncherSettings.Favorites._ID, LauncherSettings.Favorites.INTENT },
-                    LauncherSettings.Favorites.CONTAINER + " = " + entry.id);
+            if (mFolderItemRows == null) {
+                mFolderItemRows = loadFolderItemRows();
+            }
+            List<Pair<Integer, String>> rows = mFolderItemRows.get(entry.id);
+            if (rows == null) {
+                return 0;
+            }
 
             int total = 0;
-            while (c.moveToNext()) {
+            IntArray entriesToRemove = new IntArray();
+            for (Pair<Integer, String> row : rows) {
                 try {
-                    int id = c.getInt(0);
-                    String intent = c.getString(1);
+                    int id = row.first;
+                    String intent = row.second;
                     verifyIntent(intent);
                     total++;
                     if (!entry.mFolderItems.containsKey(intent)) {
@@ -612,13 +749,48 @@ public class GridSizeMigrationUtil {
                     }
                     entry.mFolderItems.get(intent).add(id);
                 } catch (Exception e) {
-                    removeEntryFromDb(mDb, mTableName, IntArray.wrap(c.getInt(0)));
+                    entriesToRemove.add(row.first);
                 }
             }
-            c.close();
+            removeInvalidEntries(entriesToRemove);
             return total;
         }
 
+        /**
+         * Reads the items of all the folders at once, rather than querying each folder.
+         */
+        private IntSparseArrayMap<List<Pair<Integer, String>>> loadFolderItemRows() {
+            IntSparseArrayMap<List<Pair<Integer, String>>> rowsByFolderId =
+                    new IntSparseArrayMap<>();
+            try (Cursor c = queryWorkspace(
+                    new String[] { LauncherSettings.Favorites._ID,
+                            LauncherSettings.Favorites.INTENT,
+                            LauncherSettings.Favorites.CONTAINER },
+                    LauncherSettings.Favorites.CONTAINER + " > 0")) {
+                while (c.moveToNext()) {
+                    int folderId = c.getInt(2);
+                    List<Pair<Integer, String>> rows = rowsByFolderId.get(folderId);
+                    if (rows == null) {
+                        rows = new ArrayList<>();
+                        rowsByFolderId.put(folderId, rows);
+                    }
+                    rows.add(Pair.create(c.getInt(0), c.getString(1)));
+                }
+            }
+            return rowsByFolderId;
+        }
+
+        private void removeInvalidEntries(IntArray entryIds) {
+            if (entryIds.isEmpty()) {
+                return;
+            }
+            if (mDryRun) {
+                mInvalidEntryIds.addAll(entryIds);
+            } else {
+                removeEntryFromDb(mDb, mTableName, entryIds);
+            }
+        }
+
         private Cursor queryWorkspace(String[] columns, String where) {
             return mDb.query(mTableName, columns, where, null, null, null, null);
         }
@@ -650,6 +822,8 @@ public class GridSizeMigrationUtil {
         private String mIntent;
         private String mProvider;
         private Map<String, Set<Integer>> mFolderItems = new HashMap<>();
+        // Computed on first use, once the entry is fully loaded
+        private String mMigrationId;
 
         /** Comparator according to the reading order */
         @Override
@@ -694,6 +868,13 @@ public class GridSizeMigrationUtil {
          * migration id even thought they have different database ids.
          */
         public String getEntryMigrationId() {
+            if (mMigrationId == null) {
+                mMigrationId = computeEntryMigrationId();
+            }
+            return mMigrationId;
+        }
+
+        private String computeEntryMigrationId() {
             switch (itemType) {
                 case LauncherSettings.Favorites.ITEM_TYPE_FOLDER:
                     return getFolderMigrationId();
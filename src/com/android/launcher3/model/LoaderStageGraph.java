@@ -0,0 +1,230 @@
+/*
+ * Copyright 2024, Lawnchair
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.model;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the stages of the loader which don't touch the model, typically IPC queries, on a bounded
+ * number of threads of an executor. A stage starts once the stages it depends on are complete.
+ * The loader thread stays the only one writing to the model, it only takes the results of the
+ * stages when it needs them.
+ *
+ * The loader thread never waits for a stage that hasn't started, it runs it itself instead. When
+ * the executor is busy, the stages then run in order on the loader thread as they did before.
+ */
+final class LoaderStageGraph {
+
+    private static final String TAG = "LoaderStageGraph";
+
+    private static final int STATE_PENDING = 0;
+    private static final int STATE_QUEUED = 1;
+    private static final int STATE_RUNNING = 2;
+    private static final int STATE_DONE = 3;
+
+    private final Executor mExecutor;
+    private final int mMaxConcurrentStages;
+    private final LoaderTrace mTrace;
+
+    private final Object mLock = new Object();
+    // All guarded by mLock
+    private final List<Stage<?>> mStages = new ArrayList<>();
+    private int mStagesOnExecutor = 0;
+    private boolean mStarted;
+    private boolean mCancelled;
+
+    /**
+     * @param trace records the time taken by each stage
+     */
+    LoaderStageGraph(Executor executor, int maxConcurrentStages, LoaderTrace trace) {
+        mExecutor = executor;
+        mMaxConcurrentStages = maxConcurrentStages;
+        mTrace = trace;
+    }
+
+    /**
+     * Adds a stage running {@param work} once all of {@param dependencies} are complete.
+     */
+    <T> Stage<T> add(String name, Callable<T> work, Stage<?>... dependencies) {
+        Stage<T> stage = new Stage<>(name, work, dependencies);
+        synchronized (mLock) {
+            mStages.add(stage);
+            if (mStarted) {
+                scheduleReadyStagesLocked();
+            }
+        }
+        return stage;
+    }
+
+    /**
+     * Starts running the stages which are ready.
+     */
+    void start() {
+        synchronized (mLock) {
+            mStarted = true;
+            scheduleReadyStagesLocked();
+        }
+    }
+
+    /**
+     * Skips the stages which haven't started yet.
+     */
+    void cancel() {
+        synchronized (mLock) {
+            mCancelled = true;
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * Returns the result of {@param stage}, running it on the calling thread if it hasn't
+     * started yet. Returns null if the stage failed or the graph was cancelled.
+     */
+    @Nullable
+    <T> T await(Stage<T> stage) {
+        for (Stage<?> dependency : stage.mDependencies) {
+            await(dependency);
+        }
+        synchronized (mLock) {
+            if (stage.mState == STATE_QUEUED) {
+                // Still waiting for a thread, its executor task will skip it
+                mStagesOnExecutor--;
+            }
+            if (stage.mState == STATE_PENDING || stage.mState == STATE_QUEUED) {
+                stage.mState = STATE_RUNNING;
+            } else {
+                while (stage.mState != STATE_DONE && !mCancelled) {
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return null;
+                    }
+                }
+                return stage.mResult;
+            }
+        }
+        runStage(stage, false);
+        synchronized (mLock) {
+            return stage.mResult;
+        }
+    }
+
+    /**
+     * Returns the number of stages queued or running on the executor.
+     */
+    @VisibleForTesting
+    int getStagesOnExecutor() {
+        synchronized (mLock) {
+            return mStagesOnExecutor;
+        }
+    }
+
+    private void scheduleReadyStagesLocked() {
+        for (Stage<?> stage : mStages) {
+            if (mCancelled || mStagesOnExecutor >= mMaxConcurrentStages) {
+                return;
+            }
+            if (stage.mState == STATE_PENDING && stage.isReadyLocked()) {
+                stage.mState = STATE_QUEUED;
+                mStagesOnExecutor++;
+                mExecutor.execute(() -> runQueuedStage(stage));
+            }
+        }
+    }
+
+    private void runQueuedStage(Stage<?> stage) {
+        synchronized (mLock) {
+            if (stage.mState != STATE_QUEUED) {
+                // Already run by the loader thread
+                return;
+            }
+            if (mCancelled) {
+                stage.mState = STATE_DONE;
+                mStagesOnExecutor--;
+                mLock.notifyAll();
+                return;
+            }
+            stage.mState = STATE_RUNNING;
+        }
+        runStage(stage, true);
+    }
+
+    private <T> void runStage(Stage<T> stage, boolean onExecutor) {
+        long startNanos = SystemClock.elapsedRealtimeNanos();
+        T result = null;
+        try {
+            result = stage.mWork.call();
+        } catch (Exception e) {
+            Log.e(TAG, "Loader stage " + stage.mName + " failed", e);
+        }
+        long endNanos = SystemClock.elapsedRealtimeNanos();
+        mTrace.addSpan(stage.mName, startNanos, endNanos);
+        Log.d(TAG, stage.mName + " took " + TimeUnit.NANOSECONDS.toMillis(endNanos - startNanos)
+                + "ms" + (onExecutor ? " in parallel" : ""));
+
+        synchronized (mLock) {
+            stage.mResult = result;
+            stage.mState = STATE_DONE;
+            if (onExecutor) {
+                mStagesOnExecutor--;
+            }
+            mLock.notifyAll();
+            if (mStarted) {
+                scheduleReadyStagesLocked();
+            }
+        }
+    }
+
+    /**
+     * A unit of work of the loader, and its result once complete.
+     */
+    static final class Stage<T> {
+
+        private final String mName;
+        private final Callable<T> mWork;
+        private final Stage<?>[] mDependencies;
+
+        // Guarded by the graph's lock
+        private int mState = STATE_PENDING;
+        private T mResult;
+
+        private Stage(String name, Callable<T> work, Stage<?>[] dependencies) {
+            mName = name;
+            mWork = work;
+            mDependencies = dependencies;
+        }
+
+        private boolean isReadyLocked() {
+            for (Stage<?> dependency : mDependencies) {
+                if (dependency.mState != STATE_DONE) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -26,6 +26,7 @@ import static com.android.launcher3.model.data.ItemInfoWithIcon.FLAG_DISABLED_SA
 import static com.android.launcher3.model.data.ItemInfoWithIcon.FLAG_DISABLED_SUSPENDED;
 import static com.android.launcher3.testing.shared.TestProtocol.testLogD;
 import static com.android.launcher3.util.Executors.MODEL_EXECUTOR;
+import static com.android.launcher3.util.Executors.THREAD_POOL_EXECUTOR;
 import static com.android.launcher3.util.PackageManagerHelper.hasShortcutsPermission;
 import static com.android.launcher3.util.PackageManagerHelper.isSystemApp;
 
@@ -60,6 +61,7 @@ import com.android.launcher3.LauncherAppState;
 import com.android.launcher3.LauncherModel;
 import com.android.launcher3.LauncherSettings.Favorites;
 import com.android.launcher3.Utilities;
+import com.android.launcher3.Workspace;
 import com.android.launcher3.config.FeatureFlags;
 import com.android.launcher3.folder.Folder;
 import com.android.launcher3.folder.FolderGridOrganizer;
@@ -100,12 +102,14 @@ import com.android.launcher3.widget.WidgetManagerHelper;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CancellationException;
+import java.util.function.Function;
 
 import app.lawnchair.LawnchairAppKt;
 import app.lawnchair.preferences.PreferenceManager;
@@ -122,6 +126,10 @@ public class LoaderTask implements Runnable {
 
     private static final boolean DEBUG = true;
 
+    // The stages running in parallel are mostly waiting for IPC
+    private static final int MAX_CONCURRENT_STAGES =
+            Math.min(Runtime.getRuntime().availableProcessors(), 4);
+
     @NonNull
     protected final LauncherAppState mApp;
     private final AllAppsList mBgAllAppsList;
@@ -139,6 +147,9 @@ public class LoaderTask implements Runnable {
 
     private final InstallSessionHelper mSessionHelper;
     private final IconCache mIconCache;
+    private final WorkspaceSnapshot mWorkspaceSnapshot;
+    private final LoaderTrace mTrace = new LoaderTrace();
+    private final IconCache.BulkLoadStats mIconStats = new IconCache.BulkLoadStats();
 
     private final UserManagerState mUserManagerState = new UserManagerState();
 
@@ -149,6 +160,8 @@ public class LoaderTask implements Runnable {
 
     private final Set<PackageUserKey> mPendingPackages = new HashSet<>();
     private boolean mItemsDeleted = false;
+    // Whether the workspace is locked until the snapshot bound is replaced
+    private boolean mWorkspaceSnapshotPending = false;
     private String mDbName;
 
     public LoaderTask(@NonNull LauncherAppState app, AllAppsList bgAllAppsList, BgDataModel bgModel,
@@ -164,6 +177,7 @@ public class LoaderTask implements Runnable {
         mUserCache = UserCache.INSTANCE.get(mApp.getContext());
         mSessionHelper = InstallSessionHelper.INSTANCE.get(mApp.getContext());
         mIconCache = mApp.getIconCache();
+        mWorkspaceSnapshot = mApp.getModel().getWorkspaceSnapshot();
     }
 
     protected synchronized void waitForIdle() {
@@ -206,9 +220,27 @@ public class LoaderTask implements Runnable {
         }
 
         TraceHelper.INSTANCE.beginSection(TAG);
+        mTrace.start();
+        mApp.getModel().getLoaderTraces().add(mTrace);
         LoaderMemoryLogger memoryLogger = new LoaderMemoryLogger();
+        LoaderStageGraph stages = new LoaderStageGraph(
+                THREAD_POOL_EXECUTOR, MAX_CONCURRENT_STAGES, mTrace);
+        String outcome = LoaderTrace.OUTCOME_FAILED;
         try (LauncherModel.LoaderTransaction transaction = mApp.getModel().beginLoader(this)) {
             List<ShortcutInfo> allShortcuts = new ArrayList<>();
+            List<ItemInfo> snapshotItems = bindWorkspaceSnapshot();
+            mTrace.setCount("snapshotItems", snapshotItems == null ? 0 : snapshotItems.size());
+
+            // Query what the next steps need while the workspace is loaded
+            Function<UserHandle, List<LauncherActivityInfo>> activityLists =
+                    addActivityListStages(stages);
+            Function<UserHandle, List<ShortcutInfo>> deepShortcuts =
+                    addDeepShortcutStages(stages);
+            LoaderStageGraph.Stage<List<AppWidgetProviderInfo>> widgetProviders = stages.add(
+                    "query widget providers",
+                    () -> new WidgetManagerHelper(mApp.getContext()).getAllProviders(null));
+            stages.start();
+
             loadWorkspace(allShortcuts, "", memoryLogger);
 
             // Sanitize data re-syncs widgets/shortcuts based on the workspace loaded from
@@ -224,8 +256,22 @@ public class LoaderTask implements Runnable {
                 logASplit("sanitizeData");
             }
 
+            synchronized (mBgDataModel) {
+                mTrace.setCount("workspaceItems", mBgDataModel.workspaceItems.size());
+                mTrace.setCount("folders", mBgDataModel.folders.size());
+                mTrace.setCount("appWidgets", mBgDataModel.appWidgets.size());
+            }
+
             verifyNotStopped();
-            mLauncherBinder.bindWorkspace(true /* incrementBindId */, /* isBindSync= */ false);
+            boolean snapshotReconciled =
+                    snapshotItems != null && reconcileWorkspaceSnapshot(snapshotItems);
+            if (!snapshotReconciled) {
+                mLauncherBinder.bindWorkspace(true /* incrementBindId */, /* isBindSync= */ false);
+            }
+            finishWorkspaceSnapshot();
+            mTrace.setCount("snapshotReconciled", snapshotReconciled ? 1 : 0);
+            // Readers off the model thread shouldn't wait for the whole load to see the items
+            mBgDataModel.publishItemsSnapshot();
             logASplit("bindWorkspace");
 
             mModelDelegate.workspaceLoadComplete();
@@ -243,10 +289,11 @@ public class LoaderTask implements Runnable {
             Trace.beginSection("LoadAllApps");
             List<LauncherActivityInfo> allActivityList;
             try {
-                allActivityList = loadAllApps();
+                allActivityList = loadAllApps(activityLists);
             } finally {
                 Trace.endSection();
             }
+            mTrace.setCount("allApps", allActivityList.size());
             logASplit("loadAllApps");
 
             if (FeatureFlags.CHANGE_MODEL_DELEGATE_LOADING_ORDER.get()) {
@@ -277,7 +324,8 @@ public class LoaderTask implements Runnable {
             verifyNotStopped();
 
             // third step
-            List<ShortcutInfo> allDeepShortcuts = loadDeepShortcuts();
+            List<ShortcutInfo> allDeepShortcuts = loadDeepShortcuts(deepShortcuts);
+            mTrace.setCount("deepShortcuts", allDeepShortcuts.size());
             logASplit("loadDeepShortcuts");
 
             verifyNotStopped();
@@ -296,7 +344,9 @@ public class LoaderTask implements Runnable {
             verifyNotStopped();
 
             // fourth step
-            List<ComponentWithLabelAndIcon> allWidgetsList = mBgDataModel.widgetsModel.update(mApp, null);
+            List<ComponentWithLabelAndIcon> allWidgetsList = mBgDataModel.widgetsModel.update(
+                    mApp, null, stages.await(widgetProviders));
+            mTrace.setCount("widgetsAndShortcuts", allWidgetsList.size());
             logASplit("load widgets");
 
             verifyNotStopped();
@@ -323,14 +373,25 @@ public class LoaderTask implements Runnable {
             logASplit("finish icon update");
 
             mModelDelegate.modelLoadComplete();
+            mWorkspaceSnapshot.onWorkspaceLoaded(
+                    mBgDataModel, mApp.getInvariantDeviceProfile(), mDbName);
+            logASplit("save workspace snapshot");
             transaction.commit();
             memoryLogger.clearLogs();
+            outcome = LoaderTrace.OUTCOME_COMPLETE;
         } catch (CancellationException e) {
             // Loader stopped, ignore
             logASplit("Cancelled");
+            outcome = LoaderTrace.OUTCOME_CANCELLED;
         } catch (Exception e) {
             memoryLogger.printLogs();
             throw e;
+        } finally {
+            finishWorkspaceSnapshot();
+            stages.cancel();
+            mTrace.setCount("iconCacheHits", mIconStats.getHitCount());
+            mTrace.setCount("iconCacheMisses", mIconStats.getMissCount());
+            mTrace.finish(outcome);
         }
         TraceHelper.INSTANCE.endSection();
     }
@@ -340,6 +401,83 @@ public class LoaderTask implements Runnable {
         this.notify();
     }
 
+    /**
+     * Binds the workspace saved after the last load, if this is a cold start, so that it shows
+     * up before the favorites are loaded. Returns the items bound, or null if there is none.
+     */
+    @Nullable
+    private List<ItemInfo> bindWorkspaceSnapshot() {
+        Trace.beginSection("BindWorkspaceSnapshot");
+        try {
+            InvariantDeviceProfile idp = mApp.getInvariantDeviceProfile();
+            List<ItemInfo> items = mWorkspaceSnapshot.readOnColdStart(idp);
+            if (items == null) {
+                return null;
+            }
+            Context context = mApp.getContext();
+            synchronized (mBgDataModel) {
+                mBgDataModel.clear();
+                for (ItemInfo item : items) {
+                    mBgDataModel.addItem(context, item, false);
+                }
+            }
+
+            // Icons are only taken from the icon cache, the loader renders the missing ones
+            List<IconRequestInfo<WorkspaceItemInfo>> iconRequestInfos = new ArrayList<>();
+            FolderGridOrganizer verifier = new FolderGridOrganizer(idp);
+            for (ItemInfo item : items) {
+                if (!(item instanceof WorkspaceItemInfo)) {
+                    continue;
+                }
+                WorkspaceItemInfo info = (WorkspaceItemInfo) item;
+                if (info.itemType == Favorites.ITEM_TYPE_DEEP_SHORTCUT) {
+                    mIconCache.getCachedShortcutIcon(info);
+                } else {
+                    FolderInfo folder = mBgDataModel.folders.get(info.container);
+                    boolean useLowResIcon = folder != null
+                            && !verifier.setFolderInfo(folder).isItemInPreview(info.rank);
+                    iconRequestInfos.add(new IconRequestInfo<>(info, null, useLowResIcon));
+                }
+            }
+            tryLoadWorkspaceIconsInBulk(iconRequestInfos);
+
+            verifyNotStopped();
+            // The items bound are compared with the loaded ones, they can't move until then
+            mWorkspaceSnapshotPending = true;
+            mLauncherBinder.setWorkspaceSnapshotPending(true);
+            mLauncherBinder.bindWorkspace(true /* incrementBindId */, /* isBindSync= */ false);
+            logASplit("bindWorkspaceSnapshot");
+            return items;
+        } finally {
+            Trace.endSection();
+        }
+    }
+
+    /**
+     * Unlocks the workspace locked by {@link #bindWorkspaceSnapshot}, once the loaded workspace
+     * is bound or the load ended.
+     */
+    private void finishWorkspaceSnapshot() {
+        if (mWorkspaceSnapshotPending) {
+            mWorkspaceSnapshotPending = false;
+            mLauncherBinder.setWorkspaceSnapshotPending(false);
+        }
+    }
+
+    /**
+     * Keeps the workspace bound from the snapshot if the loaded workspace is the same, only
+     * binding what changed. Returns false if the loaded workspace has to be bound instead.
+     */
+    private boolean reconcileWorkspaceSnapshot(List<ItemInfo> snapshotItems) {
+        List<WorkspaceItemInfo> updated = new ArrayList<>();
+        if (!WorkspaceSnapshot.reconcile(snapshotItems, mBgDataModel, updated)) {
+            FileLog.d(TAG, "Workspace changed since the snapshot, binding it again");
+            return false;
+        }
+        mLauncherBinder.bindWorkspaceChanges(updated);
+        return true;
+    }
+
     protected void loadWorkspace(
             List<ShortcutInfo> allDeepShortcuts,
             String selection,
@@ -424,11 +562,14 @@ public class LoaderTask implements Runnable {
 
                 List<IconRequestInfo<WorkspaceItemInfo>> iconRequestInfos = new ArrayList<>();
 
+                int rowsRead = 0;
                 while (!mStopped && c.moveToNext()) {
+                    rowsRead++;
                     processWorkspaceItem(c, memoryLogger, installingPkgs, isSdCardReady,
                             tempPackageKey, widgetHelper, pmHelper,
                             iconRequestInfos, unlockedUsers, isSafeMode, allDeepShortcuts);
                 }
+                mTrace.setCount("favoritesRowsRead", rowsRead);
                 tryLoadWorkspaceIconsInBulk(iconRequestInfos);
             } finally {
                 IOUtils.closeSilently(c);
@@ -869,7 +1010,10 @@ public class LoaderTask implements Runnable {
             List<IconRequestInfo<WorkspaceItemInfo>> iconRequestInfos) {
         Trace.beginSection("LoadWorkspaceIconsInBulk");
         try {
-            mIconCache.getTitlesAndIconsInBulk(iconRequestInfos);
+            // Render the icons visible right after loading first: hotseat, then first screen
+            iconRequestInfos.sort(Comparator.comparingInt(
+                    iconRequestInfo -> getIconLoadPriority(iconRequestInfo.itemInfo)));
+            mIconCache.getTitlesAndIconsInBulk(iconRequestInfos, mIconStats);
             for (IconRequestInfo<WorkspaceItemInfo> iconRequestInfo : iconRequestInfos) {
                 WorkspaceItemInfo wai = iconRequestInfo.itemInfo;
                 if (mIconCache.isDefaultIcon(wai.bitmap, wai.user)) {
@@ -881,6 +1025,20 @@ public class LoaderTask implements Runnable {
         }
     }
 
+    /**
+     * Returns the order in which the icon of {@param info} is rendered, lower first: the icons
+     * visible right after loading come first. Icon pack switches render in the same order.
+     */
+    public static int getIconLoadPriority(ItemInfo info) {
+        if (info.container == Favorites.CONTAINER_HOTSEAT) {
+            return 0;
+        } else if (info.container == Favorites.CONTAINER_DESKTOP
+                && info.screenId == Workspace.FIRST_SCREEN_ID) {
+            return 1;
+        }
+        return 2;
+    }
+
     private void setIgnorePackages(IconCacheUpdateHandler updateHandler) {
         // Ignore packages which have a promise icon.
         synchronized (mBgDataModel) {
@@ -908,10 +1066,14 @@ public class LoaderTask implements Runnable {
             IntArray deletedFolderIds = mApp.getModel().getModelDbController().deleteEmptyFolders();
             synchronized (mBgDataModel) {
                 for (int folderId : deletedFolderIds) {
-                    mBgDataModel.workspaceItems.remove(mBgDataModel.folders.get(folderId));
+                    FolderInfo folder = mBgDataModel.folders.get(folderId);
+                    if (folder != null) {
+                        mBgDataModel.removeWorkspaceItem(folder);
+                    }
                     mBgDataModel.folders.remove(folderId);
                     mBgDataModel.itemsIdMap.remove(folderId);
                 }
+                mBgDataModel.onItemsChanged();
             }
         }
     }
@@ -934,7 +1096,51 @@ public class LoaderTask implements Runnable {
         }
     }
 
-    private List<LauncherActivityInfo> loadAllApps() {
+    /**
+     * Adds a stage querying the activities of each user, returning the function taking their
+     * results. Queries the activities on the calling thread if the stage failed.
+     */
+    private Function<UserHandle, List<LauncherActivityInfo>> addActivityListStages(
+            LoaderStageGraph stages) {
+        Map<UserHandle, LoaderStageGraph.Stage<List<LauncherActivityInfo>>> userStages =
+                new ArrayMap<>();
+        for (UserHandle user : mUserCache.getUserProfiles()) {
+            userStages.put(user, stages.add("query activities of " + user,
+                    () -> mLauncherApps.getActivityList(null, user)));
+        }
+        return user -> {
+            LoaderStageGraph.Stage<List<LauncherActivityInfo>> stage = userStages.get(user);
+            List<LauncherActivityInfo> apps = stage == null ? null : stages.await(stage);
+            return apps != null ? apps : mLauncherApps.getActivityList(null, user);
+        };
+    }
+
+    /**
+     * Adds a stage querying the deep shortcuts of each unlocked user, returning the function
+     * taking their results. Queries the shortcuts on the calling thread if the stage failed or
+     * the user was unlocked since.
+     */
+    private Function<UserHandle, List<ShortcutInfo>> addDeepShortcutStages(
+            LoaderStageGraph stages) {
+        Context context = mApp.getContext();
+        Map<UserHandle, LoaderStageGraph.Stage<List<ShortcutInfo>>> userStages = new ArrayMap<>();
+        for (UserHandle user : mUserCache.getUserProfiles()) {
+            userStages.put(user, stages.add("query deep shortcuts of " + user,
+                    () -> hasShortcutsPermission(context) && mUserManager.isUserUnlocked(user)
+                            ? new ShortcutRequest(context, user).query(ShortcutRequest.ALL)
+                            : null));
+        }
+        return user -> {
+            LoaderStageGraph.Stage<List<ShortcutInfo>> stage = userStages.get(user);
+            List<ShortcutInfo> shortcuts = stage == null ? null : stages.await(stage);
+            return shortcuts != null
+                    ? shortcuts
+                    : new ShortcutRequest(context, user).query(ShortcutRequest.ALL);
+        };
+    }
+
+    private List<LauncherActivityInfo> loadAllApps(
+            Function<UserHandle, List<LauncherActivityInfo>> activityLists) {
         final List<UserHandle> profiles = mUserCache.getUserProfiles();
         List<LauncherActivityInfo> allActivityList = new ArrayList<>();
         // Clear the list of apps
@@ -946,7 +1152,7 @@ public class LoaderTask implements Runnable {
         List<IconRequestInfo<AppInfo>> iconRequestInfos = new ArrayList<>();
         for (UserHandle user : profiles) {
             // Query for the set of apps
-            final List<LauncherActivityInfo> apps = mLauncherApps.getActivityList(null, user);
+            final List<LauncherActivityInfo> apps = activityLists.apply(user);
             // Fail if we don't have any apps
             // TODO: Fix this. Only fail for the current user.
             if (apps == null || apps.isEmpty()) {
@@ -986,8 +1192,10 @@ public class LoaderTask implements Runnable {
         if (enableBulkLoading) {
             Trace.beginSection("LoadAllAppsIconsInBulk");
             try {
-                mIconCache.getTitlesAndIconsInBulk(iconRequestInfos);
+                mIconCache.getTitlesAndIconsInBulk(iconRequestInfos, mIconStats);
                 iconRequestInfos.forEach(iconRequestInfo -> mBgAllAppsList.updateSectionName(iconRequestInfo.itemInfo));
+                // Titles were only loaded now, index them in one go
+                mBgAllAppsList.rebuildSearchIndex();
             } finally {
                 Trace.endSection();
             }
@@ -1005,15 +1213,15 @@ public class LoaderTask implements Runnable {
         return allActivityList;
     }
 
-    private List<ShortcutInfo> loadDeepShortcuts() {
+    private List<ShortcutInfo> loadDeepShortcuts(
+            Function<UserHandle, List<ShortcutInfo>> deepShortcuts) {
         List<ShortcutInfo> allShortcuts = new ArrayList<>();
         mBgDataModel.deepShortcutMap.clear();
 
         if (mBgAllAppsList.hasShortcutHostPermission()) {
             for (UserHandle user : mUserCache.getUserProfiles()) {
                 if (mUserManager.isUserUnlocked(user)) {
-                    List<ShortcutInfo> shortcuts = new ShortcutRequest(mApp.getContext(), user)
-                            .query(ShortcutRequest.ALL);
+                    List<ShortcutInfo> shortcuts = deepShortcuts.apply(user);
                     allShortcuts.addAll(shortcuts);
                     mBgDataModel.updateDeepShortcutCounts(null, user, shortcuts);
                 }
@@ -1090,7 +1298,8 @@ public class LoaderTask implements Runnable {
         FileLog.d(TAG, widgetDimension.toString());
     }
 
-    private static void logASplit(String label) {
+    private void logASplit(String label) {
+        mTrace.split(label);
         if (DEBUG) {
             Log.d(TAG, label);
         }
@@ -0,0 +1,260 @@
+/*
+ * Copyright 2024, Lawnchair
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.model;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.ArrayMap;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Structured timing of a load: the duration of each step and stage of the loader, and counters
+ * such as the items loaded, the rows read from the database or the icon cache hits.
+ *
+ * The last loads are kept in a {@link History}, which is printed by dumpsys and can be exported
+ * in the JSON trace event format opened by Perfetto:
+ * $ adb shell dumpsys activity provider com.android.launcher3 --loader-trace
+ */
+public final class LoaderTrace {
+
+    public static final String OUTCOME_COMPLETE = "complete";
+    public static final String OUTCOME_CANCELLED = "cancelled";
+    public static final String OUTCOME_FAILED = "failed";
+
+    private final Object mLock = new Object();
+    // All guarded by mLock
+    private final ArrayList<Span> mSpans = new ArrayList<>();
+    private final ArrayMap<String, Long> mCounters = new ArrayMap<>();
+    private long mStartWallTime;
+    private long mStartNanos;
+    private int mLoaderTid;
+    private long mEndNanos = -1;
+    @Nullable
+    private String mOutcome;
+
+    // Only used by the loader thread
+    private long mSplitStartNanos;
+
+    public LoaderTrace() {
+        start();
+    }
+
+    /**
+     * Marks the start of the load, on the loader thread.
+     */
+    public void start() {
+        synchronized (mLock) {
+            mStartWallTime = System.currentTimeMillis();
+            mStartNanos = SystemClock.elapsedRealtimeNanos();
+            mLoaderTid = Process.myTid();
+            mSplitStartNanos = mStartNanos;
+        }
+    }
+
+    /**
+     * Records a span named {@param name} from the previous split, or the start, until now.
+     */
+    public void split(String name) {
+        long now = SystemClock.elapsedRealtimeNanos();
+        addSpan(name, mSplitStartNanos, now);
+        mSplitStartNanos = now;
+    }
+
+    /**
+     * Records a span named {@param name} on the calling thread, with times in
+     * {@link SystemClock#elapsedRealtimeNanos()}.
+     */
+    public void addSpan(String name, long startNanos, long endNanos) {
+        Span span = new Span(name, startNanos, endNanos, Process.myTid(),
+                Thread.currentThread().getName());
+        synchronized (mLock) {
+            mSpans.add(span);
+        }
+    }
+
+    /**
+     * Sets the counter {@param name} to {@param value}.
+     */
+    public void setCount(String name, long value) {
+        synchronized (mLock) {
+            mCounters.put(name, value);
+        }
+    }
+
+    /**
+     * Marks the end of the load, with how it ended.
+     */
+    public void finish(String outcome) {
+        synchronized (mLock) {
+            mEndNanos = SystemClock.elapsedRealtimeNanos();
+            mOutcome = outcome;
+        }
+    }
+
+    private void dump(String prefix, PrintWriter writer) {
+        synchronized (mLock) {
+            String date = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US)
+                    .format(new Date(mStartWallTime));
+            writer.println(prefix + "Load at " + date + ": "
+                    + (mOutcome == null
+                            ? "running"
+                            : mOutcome + " in " + toMillis(mEndNanos - mStartNanos) + "ms"));
+            for (Span span : mSpans) {
+                writer.println(prefix + "  " + span.mName + ": "
+                        + toMillis(span.mEndNanos - span.mStartNanos) + "ms"
+                        + " on " + span.mThreadName);
+            }
+            for (Map.Entry<String, Long> counter : mCounters.entrySet()) {
+                writer.println(prefix + "  " + counter.getKey() + "=" + counter.getValue());
+            }
+        }
+    }
+
+    private void addTraceEvents(JSONArray events, int index, int pid, Map<Integer, String> threads)
+            throws JSONException {
+        synchronized (mLock) {
+            String loadName = "Load #" + index;
+            long endNanos = mEndNanos < 0 ? SystemClock.elapsedRealtimeNanos() : mEndNanos;
+            JSONObject loadArgs = new JSONObject()
+                    .put("outcome", mOutcome == null ? "running" : mOutcome)
+                    .put("startTime", mStartWallTime);
+            for (Map.Entry<String, Long> counter : mCounters.entrySet()) {
+                loadArgs.put(counter.getKey(), counter.getValue());
+            }
+            events.put(newCompleteEvent(loadName, mStartNanos, endNanos, pid, mLoaderTid)
+                    .put("args", loadArgs));
+
+            for (Span span : mSpans) {
+                threads.put(span.mTid, span.mThreadName);
+                events.put(newCompleteEvent(span.mName, span.mStartNanos, span.mEndNanos, pid,
+                        span.mTid).put("args", new JSONObject().put("load", loadName)));
+            }
+        }
+    }
+
+    private static JSONObject newCompleteEvent(
+            String name, long startNanos, long endNanos, int pid, int tid) throws JSONException {
+        return new JSONObject()
+                .put("name", name)
+                .put("cat", "loader")
+                .put("ph", "X")
+                .put("ts", TimeUnit.NANOSECONDS.toMicros(startNanos))
+                .put("dur", TimeUnit.NANOSECONDS.toMicros(endNanos - startNanos))
+                .put("pid", pid)
+                .put("tid", tid);
+    }
+
+    private static long toMillis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    private static class Span {
+
+        private final String mName;
+        private final long mStartNanos;
+        private final long mEndNanos;
+        private final int mTid;
+        private final String mThreadName;
+
+        Span(String name, long startNanos, long endNanos, int tid, String threadName) {
+            mName = name;
+            mStartNanos = startNanos;
+            mEndNanos = endNanos;
+            mTid = tid;
+            mThreadName = threadName;
+        }
+    }
+
+    /**
+     * The traces of the last loads, oldest first.
+     */
+    public static final class History {
+
+        private static final String TAG = "LoaderTrace";
+        private static final int MAX_SIZE = 10;
+
+        private final ArrayDeque<LoaderTrace> mTraces = new ArrayDeque<>(MAX_SIZE);
+
+        /**
+         * Adds {@param trace}, dropping the oldest trace if the history is full.
+         */
+        public synchronized void add(@NonNull LoaderTrace trace) {
+            if (mTraces.size() == MAX_SIZE) {
+                mTraces.removeFirst();
+            }
+            mTraces.addLast(trace);
+        }
+
+        private synchronized List<LoaderTrace> getTraces() {
+            return new ArrayList<>(mTraces);
+        }
+
+        /**
+         * Prints the timing of the last loads.
+         */
+        public void dump(String prefix, PrintWriter writer) {
+            writer.println(prefix + "Loader traces:");
+            for (LoaderTrace trace : getTraces()) {
+                trace.dump(prefix + "  ", writer);
+            }
+        }
+
+        /**
+         * Prints the last loads in the JSON trace event format.
+         */
+        public void writeJson(PrintWriter writer) {
+            int pid = Process.myPid();
+            JSONArray events = new JSONArray();
+            Map<Integer, String> threads = new ArrayMap<>();
+            try {
+                List<LoaderTrace> traces = getTraces();
+                for (int i = 0; i < traces.size(); i++) {
+                    traces.get(i).addTraceEvents(events, i, pid, threads);
+                }
+                for (Map.Entry<Integer, String> thread : threads.entrySet()) {
+                    events.put(new JSONObject()
+                            .put("name", "thread_name")
+                            .put("ph", "M")
+                            .put("pid", pid)
+                            .put("tid", thread.getKey())
+                            .put("args", new JSONObject().put("name", thread.getValue())));
+                }
+                writer.println(new JSONObject()
+                        .put("traceEvents", events)
+                        .put("displayTimeUnit", "ms"));
+            } catch (JSONException e) {
+                Log.e(TAG, "Unable to export the loader traces", e);
+            }
+        }
+    }
+}
@@ -23,7 +23,9 @@ import static com.android.launcher3.LauncherSettings.Favorites.addTableToDb;
 import static com.android.launcher3.LauncherSettings.Settings.LAYOUT_DIGEST_KEY;
 import static com.android.launcher3.LauncherSettings.Settings.LAYOUT_DIGEST_LABEL;
 import static com.android.launcher3.LauncherSettings.Settings.LAYOUT_DIGEST_TAG;
+import static com.android.launcher3.provider.LauncherDbUtils.itemIdMatch;
 import static com.android.launcher3.provider.LauncherDbUtils.tableExists;
+import static com.android.launcher3.util.Executors.MODEL_EXECUTOR;
 
 import android.app.blob.BlobHandle;
 import android.app.blob.BlobStoreManager;
@@ -76,6 +78,8 @@ import org.xmlpull.v1.XmlPullParser;
 
 import java.io.InputStream;
 import java.io.StringReader;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import app.lawnchair.LawnchairApp;
 import app.lawnchair.LawnchairAppKt;
@@ -91,19 +95,34 @@ public class ModelDbController {
     private static final String EMPTY_DATABASE_CREATED = "EMPTY_DATABASE_CREATED";
     public static final String EXTRA_DB_NAME = "db_name";
 
+    // How long item updates wait for the next ones, so that a reorder is written at once
+    private static final long ITEM_UPDATES_WRITE_DELAY_MS = 200;
+    // How many times in a row item updates are written again after failing
+    private static final int ITEM_UPDATES_MAX_RETRIES = 3;
+
     protected DatabaseHelper mOpenHelper;
 
     private final Context mContext;
 
+    private final Object mItemUpdatesLock = new Object();
+    // Guarded by mItemUpdatesLock, held while they are written
+    private LinkedHashMap<Integer, ContentValues> mPendingItemUpdates = new LinkedHashMap<>();
+    private int mItemUpdatesFailures = 0;
+    private final Runnable mWritePendingItemUpdates = this::flushPendingItemUpdates;
+
     public ModelDbController(Context context) {
         mContext = context;
     }
 
-    private synchronized void createDbIfNotExists() {
-        if (mOpenHelper == null) {
-            mOpenHelper = createDatabaseHelper(false /* forMigration */);
-            RestoreDbTask.restoreIfNeeded(mContext, this);
+    private void createDbIfNotExists() {
+        synchronized (this) {
+            if (mOpenHelper == null) {
+                mOpenHelper = createDatabaseHelper(false /* forMigration */);
+                RestoreDbTask.restoreIfNeeded(mContext, this);
+            }
         }
+        // Any access to the database sees the item updates made before it
+        flushPendingItemUpdates();
     }
 
     protected DatabaseHelper createDatabaseHelper(boolean forMigration) {
@@ -206,6 +225,66 @@ public class ModelDbController {
         return count;
     }
 
+    /**
+     * Updates the favorite {@param itemId} with {@param values} shortly after, in a single
+     * transaction with the other item updates made meanwhile. Successive updates of an item are
+     * merged into one.
+     */
+    public void updateItemLater(int itemId, ContentValues values) {
+        synchronized (mItemUpdatesLock) {
+            if (mPendingItemUpdates.isEmpty()) {
+                MODEL_EXECUTOR.getHandler().postDelayed(
+                        mWritePendingItemUpdates, ITEM_UPDATES_WRITE_DELAY_MS);
+            }
+            ContentValues pendingValues = mPendingItemUpdates.get(itemId);
+            if (pendingValues == null) {
+                mPendingItemUpdates.put(itemId, new ContentValues(values));
+            } else {
+                pendingValues.putAll(values);
+            }
+        }
+    }
+
+    /**
+     * Writes the item updates which are waiting to be written, if any. Backups and tests can use
+     * it as a barrier, other accesses to the database already write them first.
+     *
+     * If the write fails, the updates are kept to be written again later, up to
+     * {@link #ITEM_UPDATES_MAX_RETRIES} times in a row.
+     */
+    @WorkerThread
+    public void flushPendingItemUpdates() {
+        synchronized (mItemUpdatesLock) {
+            if (mPendingItemUpdates.isEmpty()) {
+                return;
+            }
+            MODEL_EXECUTOR.getHandler().removeCallbacks(mWritePendingItemUpdates);
+            LinkedHashMap<Integer, ContentValues> updates = mPendingItemUpdates;
+            mPendingItemUpdates = new LinkedHashMap<>();
+
+            try (SQLiteTransaction t = newTransaction()) {
+                for (Map.Entry<Integer, ContentValues> update : updates.entrySet()) {
+                    update(Favorites.TABLE_NAME, update.getValue(), itemIdMatch(update.getKey()), null);
+                }
+                t.commit();
+                mItemUpdatesFailures = 0;
+            } catch (SQLException e) {
+                mItemUpdatesFailures++;
+                if (mItemUpdatesFailures > ITEM_UPDATES_MAX_RETRIES) {
+                    Log.e(TAG, "Dropping " + updates.size() + " item updates after "
+                            + ITEM_UPDATES_MAX_RETRIES + " retries", e);
+                    mItemUpdatesFailures = 0;
+                    return;
+                }
+                Log.e(TAG, "Failed to write " + updates.size() + " item updates, retrying", e);
+                // No update was queued meanwhile as the lock is held while writing
+                mPendingItemUpdates = updates;
+                MODEL_EXECUTOR.getHandler().postDelayed(
+                        mWritePendingItemUpdates, ITEM_UPDATES_WRITE_DELAY_MS);
+            }
+        }
+    }
+
     /**
      * Clears a previously set flag corresponding to empty db creation
      */
@@ -309,9 +388,12 @@ public class ModelDbController {
             Log.e(TAG, "migrateGridIfNeeded - target db is same as current: " + targetDbName);
             return false;
         }
+        if (mContext instanceof SandboxContext) {
+            // The preview works on its own copy of the workspace, migrate it in place
+            return GridSizeMigrationUtil.migratePreviewGrid(mContext, idp, mOpenHelper);
+        }
         DatabaseHelper oldHelper = mOpenHelper;
-        mOpenHelper = (mContext instanceof SandboxContext) ? oldHelper
-                : createDatabaseHelper(true /* forMigration */);
+        mOpenHelper = createDatabaseHelper(true /* forMigration */);
         try {
             return GridSizeMigrationUtil.migrateGridIfNeeded(mContext, idp, mOpenHelper,
                     oldHelper.getWritableDatabase());
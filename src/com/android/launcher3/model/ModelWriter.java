@@ -42,7 +42,6 @@ import com.android.launcher3.model.data.FolderInfo;
 import com.android.launcher3.model.data.ItemInfo;
 import com.android.launcher3.model.data.LauncherAppWidgetInfo;
 import com.android.launcher3.model.data.WorkspaceItemInfo;
-import com.android.launcher3.provider.LauncherDbUtils.SQLiteTransaction;
 import com.android.launcher3.util.ContentWriter;
 import com.android.launcher3.util.Executors;
 import com.android.launcher3.util.ItemInfoMatcher;
@@ -54,6 +53,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
@@ -66,6 +66,11 @@ public class ModelWriter {
 
     private static final String TAG = "ModelWriter";
 
+    // Walking the stack is slow during drags, so only some writes keep where they came from, to
+    // report them if they leave the model inconsistent
+    private static final int STACK_TRACE_SAMPLING_INTERVAL = FeatureFlags.IS_STUDIO_BUILD ? 1 : 32;
+    private static final AtomicInteger sWriteCount = new AtomicInteger();
+
     private final Context mContext;
     private final LauncherModel mModel;
     private final BgDataModel mBgDataModel;
@@ -130,7 +135,18 @@ public class ModelWriter {
         }
     }
 
-    private void checkItemInfoLocked(int itemId, ItemInfo item, StackTraceElement[] stackTrace) {
+    /**
+     * Returns the current stack trace for one in {@link #STACK_TRACE_SAMPLING_INTERVAL} writes,
+     * null otherwise.
+     */
+    @Nullable
+    private static StackTraceElement[] sampleStackTrace() {
+        return sWriteCount.getAndIncrement() % STACK_TRACE_SAMPLING_INTERVAL == 0
+                ? new Throwable().getStackTrace() : null;
+    }
+
+    private void checkItemInfoLocked(
+            int itemId, ItemInfo item, @Nullable StackTraceElement[] stackTrace) {
         ItemInfo modelItem = mBgDataModel.itemsIdMap.get(itemId);
         if (modelItem != null && item != modelItem) {
             // check all the data is consistent
@@ -259,7 +275,7 @@ public class ModelWriter {
         notifyOtherCallbacks(c -> c.bindItems(Collections.singletonList(item), false));
 
         ModelVerifier verifier = new ModelVerifier();
-        final StackTraceElement[] stackTrace = new Throwable().getStackTrace();
+        final StackTraceElement[] stackTrace = sampleStackTrace();
         newModelTask(() -> {
             // Write the item on background thread, as some properties might have been
             // updated in
@@ -433,8 +449,9 @@ public class ModelWriter {
 
         @Override
         public void runImpl() {
-            mModel.getModelDbController().update(
-                    TABLE_NAME, mWriter.get().getValues(mContext), itemIdMatch(mItemId), null);
+            // Written with the other updates of the gesture, see ModelDbController#updateItemLater
+            mModel.getModelDbController().updateItemLater(
+                    mItemId, mWriter.get().getValues(mContext));
             updateItemArrays(mItem, mItemId);
         }
     }
@@ -450,28 +467,23 @@ public class ModelWriter {
 
         @Override
         public void runImpl() {
-            try (SQLiteTransaction t = mModel.getModelDbController().newTransaction()) {
-                int count = mItems.size();
-                for (int i = 0; i < count; i++) {
-                    ItemInfo item = mItems.get(i);
-                    final int itemId = item.id;
-                    mModel.getModelDbController().update(
-                            TABLE_NAME, mValues.get(i), itemIdMatch(itemId), null);
-                    updateItemArrays(item, itemId);
-                }
-                t.commit();
-            } catch (Exception e) {
-                e.printStackTrace();
+            int count = mItems.size();
+            for (int i = 0; i < count; i++) {
+                ItemInfo item = mItems.get(i);
+                final int itemId = item.id;
+                mModel.getModelDbController().updateItemLater(itemId, mValues.get(i));
+                updateItemArrays(item, itemId);
             }
         }
     }
 
     private abstract class UpdateItemBaseRunnable extends ModelTask {
+        @Nullable
         private final StackTraceElement[] mStackTrace;
         private final ModelVerifier mVerifier = new ModelVerifier();
 
         UpdateItemBaseRunnable() {
-            mStackTrace = new Throwable().getStackTrace();
+            mStackTrace = sampleStackTrace();
         }
 
         protected void updateItemArrays(ItemInfo item, int itemId) {
@@ -503,16 +515,16 @@ public class ModelWriter {
                         case Favorites.ITEM_TYPE_DEEP_SHORTCUT:
                         case Favorites.ITEM_TYPE_FOLDER:
                         case Favorites.ITEM_TYPE_APP_PAIR:
-                            if (!mBgDataModel.workspaceItems.contains(modelItem)) {
-                                mBgDataModel.workspaceItems.add(modelItem);
-                            }
+                            mBgDataModel.addWorkspaceItem(modelItem);
                             break;
                         default:
                             break;
                     }
-                } else {
-                    mBgDataModel.workspaceItems.remove(modelItem);
+                } else if (modelItem != null) {
+                    mBgDataModel.removeWorkspaceItem(modelItem);
                 }
+                // The item itself changed, not only the collections
+                mBgDataModel.onItemsChanged();
                 mVerifier.verifyModel();
             }
         }
@@ -24,7 +24,7 @@ import com.android.launcher3.LauncherAppState;
 import com.android.launcher3.LauncherSettings;
 import com.android.launcher3.config.FeatureFlags;
 import com.android.launcher3.model.data.ItemInfo;
-import com.android.launcher3.util.GridOccupancy;
+import com.android.launcher3.util.BitmaskGridOccupancy;
 import com.android.launcher3.util.IntArray;
 import com.android.launcher3.util.IntSet;
 
@@ -102,7 +102,8 @@ public class WorkspaceItemSpaceFinder {
             int[] xy, int spanX, int spanY) {
         InvariantDeviceProfile profile = app.getInvariantDeviceProfile();
 
-        GridOccupancy occupied = new GridOccupancy(profile.numColumns, profile.numRows);
+        BitmaskGridOccupancy occupied =
+                new BitmaskGridOccupancy(profile.numColumns, profile.numRows);
         if (occupiedPos != null) {
             for (ItemInfo r : occupiedPos) {
                 occupied.markCells(r, true);
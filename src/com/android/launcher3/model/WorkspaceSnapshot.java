@@ -0,0 +1,519 @@
+/*
+ * Copyright 2024, Lawnchair
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.model;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.os.UserHandle;
+import android.text.TextUtils;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import com.android.launcher3.InvariantDeviceProfile;
+import com.android.launcher3.LauncherSettings.Favorites;
+import com.android.launcher3.model.data.FolderInfo;
+import com.android.launcher3.model.data.ItemInfo;
+import com.android.launcher3.model.data.ItemInfoWithIcon;
+import com.android.launcher3.model.data.LauncherAppWidgetInfo;
+import com.android.launcher3.model.data.WorkspaceItemInfo;
+import com.android.launcher3.pm.UserCache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.zip.CRC32;
+
+/**
+ * A copy of the workspace written after it's loaded, so that it can be bound on the next cold
+ * start while the favorites are loaded from the database. The loaded workspace then replaces it,
+ * keeping the items already bound if nothing moved.
+ *
+ * Icons aren't part of the snapshot, items are read with the intent and user their icons are
+ * cached under and the icons are taken from the icon cache. The snapshot isn't written while an
+ * app or a widget of the workspace is being installed or restored.
+ *
+ * Layout, all integers big endian, strings as their length in bytes (-1 for null) followed by
+ * their UTF-8 bytes:
+ * - header: magic, format version, database name, grid columns, rows and hotseat icons
+ * - items: count, then for each item its type, common fields and type specific fields. The
+ *   workspace items come first, each folder directly followed by its contents, then the widgets.
+ * The file is memory mapped when read.
+ *
+ * This class is not thread safe, it's only used on the model thread.
+ */
+public class WorkspaceSnapshot {
+
+    private static final String TAG = "WorkspaceSnapshot";
+    private static final String FILE_NAME = "workspace_snapshot.bin";
+    private static final int MAGIC = 0x4c575353; // LWSS
+    private static final int FORMAT_VERSION = 1;
+    private static final long NO_CHECKSUM = -1;
+    private static final int NO_VERSION = -1;
+
+    private final Context mContext;
+    private final File mFile;
+
+    // Database of the workspace last loaded, the snapshot is only kept for the main one
+    @Nullable
+    private String mLoadedDbName;
+    private long mSavedChecksum = NO_CHECKSUM;
+    // Version of the items last saved, see BgDataModel#getItemsVersion
+    private int mSavedItemsVersion = NO_VERSION;
+    private boolean mWasRead;
+
+    public WorkspaceSnapshot(Context context) {
+        this(context, new File(context.getCacheDir(), FILE_NAME));
+    }
+
+    @VisibleForTesting
+    WorkspaceSnapshot(Context context, File file) {
+        mContext = context;
+        mFile = file;
+    }
+
+    /**
+     * Returns the items of the snapshot written for {@param idp}, or null if there is none. Items
+     * are in the order they were written: the workspace items, each folder directly followed by
+     * its contents, then the widgets. Only the first call returns the items, later loads aren't
+     * cold starts and already have the workspace bound.
+     */
+    @WorkerThread
+    @Nullable
+    public List<ItemInfo> readOnColdStart(InvariantDeviceProfile idp) {
+        if (mWasRead) {
+            return null;
+        }
+        mWasRead = true;
+        File file = getFile().getBaseFile();
+        if (!file.exists()) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            ByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION
+                    || !TextUtils.equals(readString(buffer), idp.dbFile)
+                    || buffer.getInt() != idp.numColumns
+                    || buffer.getInt() != idp.numRows
+                    || buffer.getInt() != idp.numDatabaseHotseatIcons) {
+                return null;
+            }
+            UserCache userCache = UserCache.INSTANCE.get(mContext);
+            int count = buffer.getInt();
+            List<ItemInfo> items = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                ItemInfo item = readItem(buffer, userCache);
+                if (item == null) {
+                    return null;
+                }
+                items.add(item);
+            }
+
+            buffer.rewind();
+            CRC32 checksum = new CRC32();
+            checksum.update(buffer);
+            mSavedChecksum = checksum.getValue();
+            return items;
+        } catch (IOException | URISyntaxException | RuntimeException e) {
+            // Truncated or otherwise unreadable, it will be rewritten after loading
+            Log.w(TAG, "Failed to read the workspace snapshot", e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes the workspace loaded from {@param dbName} in {@param dataModel}, if it's the main
+     * database of {@param idp}.
+     */
+    @WorkerThread
+    public void onWorkspaceLoaded(BgDataModel dataModel, InvariantDeviceProfile idp,
+            @Nullable String dbName) {
+        mLoadedDbName = dbName;
+        mSavedItemsVersion = NO_VERSION;
+        save(dataModel, idp);
+    }
+
+    /**
+     * Writes the workspace in {@param dataModel} if it changed since the snapshot was written.
+     * Nothing is serialized if the items didn't change since the last save.
+     */
+    @WorkerThread
+    public void save(BgDataModel dataModel, InvariantDeviceProfile idp) {
+        if (mLoadedDbName == null || !mLoadedDbName.equals(idp.dbFile)
+                || dataModel.getItemsVersion() == mSavedItemsVersion) {
+            return;
+        }
+        int itemsVersion;
+        UserCache userCache = UserCache.INSTANCE.get(mContext);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            writeString(out, idp.dbFile);
+            out.writeInt(idp.numColumns);
+            out.writeInt(idp.numRows);
+            out.writeInt(idp.numDatabaseHotseatIcons);
+            synchronized (dataModel) {
+                itemsVersion = dataModel.getItemsVersion();
+                List<ItemInfo> items = collectItems(dataModel);
+                if (items == null) {
+                    // The next load won't look like this workspace. The version isn't saved, an
+                    // install completing doesn't always change it.
+                    delete();
+                    return;
+                }
+                out.writeInt(items.size());
+                for (ItemInfo item : items) {
+                    writeItem(out, item, userCache);
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to create the workspace snapshot", e);
+            return;
+        }
+
+        byte[] data = bytes.toByteArray();
+        CRC32 checksum = new CRC32();
+        checksum.update(data);
+        if (checksum.getValue() == mSavedChecksum) {
+            mSavedItemsVersion = itemsVersion;
+            return;
+        }
+        AtomicFile file = getFile();
+        FileOutputStream fos;
+        try {
+            fos = file.startWrite();
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to write the workspace snapshot", e);
+            return;
+        }
+        try {
+            fos.write(data);
+        } catch (IOException e) {
+            file.failWrite(fos);
+            Log.e(TAG, "Unable to write the workspace snapshot", e);
+            return;
+        }
+        file.finishWrite(fos);
+        mSavedChecksum = checksum.getValue();
+        mSavedItemsVersion = itemsVersion;
+    }
+
+    private void delete() {
+        getFile().delete();
+        mSavedChecksum = NO_CHECKSUM;
+    }
+
+    private AtomicFile getFile() {
+        return new AtomicFile(mFile);
+    }
+
+    /**
+     * Replaces the items loaded in {@param dataModel} by the items read from the snapshot, which
+     * are the ones bound, if the workspace is the same. The state of the loaded items is copied
+     * to the bound ones.
+     *
+     * @param outUpdated filled with the bound items which look different after loading
+     * @return false if the workspace changed since the snapshot was written, in which case it
+     *         has to be bound again
+     */
+    public static boolean reconcile(List<ItemInfo> snapshotItems, BgDataModel dataModel,
+            List<WorkspaceItemInfo> outUpdated) {
+        synchronized (dataModel) {
+            if (snapshotItems.size() != dataModel.itemsIdMap.size()) {
+                return false;
+            }
+            for (ItemInfo item : snapshotItems) {
+                ItemInfo loaded = dataModel.itemsIdMap.get(item.id);
+                if (loaded == null || !isSameItem(item, loaded)) {
+                    return false;
+                }
+            }
+
+            for (ItemInfo item : snapshotItems) {
+                ItemInfo loaded = dataModel.itemsIdMap.get(item.id);
+                if (item instanceof WorkspaceItemInfo) {
+                    WorkspaceItemInfo info = (WorkspaceItemInfo) item;
+                    if (copyState((WorkspaceItemInfo) loaded, info)) {
+                        outUpdated.add(info);
+                    }
+                } else if (item instanceof LauncherAppWidgetInfo) {
+                    copyState((LauncherAppWidgetInfo) loaded, (LauncherAppWidgetInfo) item);
+                } else if (item instanceof FolderInfo) {
+                    dataModel.folders.put(item.id, (FolderInfo) item);
+                }
+                dataModel.itemsIdMap.put(item.id, item);
+            }
+            dataModel.workspaceItems.replaceAll(item -> dataModel.itemsIdMap.get(item.id));
+            dataModel.appWidgets.replaceAll(
+                    item -> (LauncherAppWidgetInfo) dataModel.itemsIdMap.get(item.id));
+            dataModel.onItemsChanged();
+        }
+        return true;
+    }
+
+    /**
+     * Returns the items of the workspace in the order they're written, or null if it can't be
+     * written.
+     */
+    @Nullable
+    private static List<ItemInfo> collectItems(BgDataModel dataModel) {
+        List<ItemInfo> items = new ArrayList<>(dataModel.itemsIdMap.size());
+        for (ItemInfo item : dataModel.workspaceItems) {
+            if (!isSteady(item)) {
+                return null;
+            }
+            items.add(item);
+            if (item instanceof FolderInfo) {
+                for (WorkspaceItemInfo info : ((FolderInfo) item).contents) {
+                    if (!isSteady(info)) {
+                        return null;
+                    }
+                    items.add(info);
+                }
+            }
+        }
+        for (LauncherAppWidgetInfo widget : dataModel.appWidgets) {
+            if (!isSteady(widget)) {
+                return null;
+            }
+            items.add(widget);
+        }
+        return items.size() == dataModel.itemsIdMap.size() ? items : null;
+    }
+
+    /**
+     * Returns whether {@param item} is expected to be loaded the same way on the next start.
+     */
+    private static boolean isSteady(ItemInfo item) {
+        switch (item.itemType) {
+            case Favorites.ITEM_TYPE_APPLICATION:
+            case Favorites.ITEM_TYPE_DEEP_SHORTCUT: {
+                WorkspaceItemInfo info = (WorkspaceItemInfo) item;
+                return !info.isPromise()
+                        && (info.runtimeStatusFlags
+                                & ItemInfoWithIcon.FLAG_SHOW_DOWNLOAD_PROGRESS_MASK) == 0;
+            }
+            case Favorites.ITEM_TYPE_FOLDER:
+            case Favorites.ITEM_TYPE_APP_PAIR:
+                return item instanceof FolderInfo;
+            case Favorites.ITEM_TYPE_APPWIDGET:
+            case Favorites.ITEM_TYPE_CUSTOM_APPWIDGET:
+                return ((LauncherAppWidgetInfo) item).restoreStatus
+                        == LauncherAppWidgetInfo.RESTORE_COMPLETED;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isSameItem(ItemInfo item, ItemInfo loaded) {
+        if (item.getClass() != loaded.getClass()
+                || item.itemType != loaded.itemType
+                || item.container != loaded.container
+                || item.screenId != loaded.screenId
+                || item.cellX != loaded.cellX
+                || item.cellY != loaded.cellY
+                || item.spanX != loaded.spanX
+                || item.spanY != loaded.spanY
+                || item.rank != loaded.rank
+                || !item.user.equals(loaded.user)
+                || !isSteady(loaded)) {
+            return false;
+        }
+        if (item instanceof WorkspaceItemInfo) {
+            WorkspaceItemInfo info = (WorkspaceItemInfo) item;
+            WorkspaceItemInfo loadedInfo = (WorkspaceItemInfo) loaded;
+            // The people of a shortcut aren't part of the snapshot
+            return loadedInfo.getPersonKeys().length == 0
+                    && info.status == loadedInfo.status
+                    && info.options == loadedInfo.options
+                    && info.intent.toUri(0).equals(loadedInfo.intent.toUri(0));
+        } else if (item instanceof FolderInfo) {
+            FolderInfo folder = (FolderInfo) item;
+            FolderInfo loadedFolder = (FolderInfo) loaded;
+            if (!TextUtils.equals(folder.title, loadedFolder.title)
+                    || folder.options != loadedFolder.options
+                    || folder.contents.size() != loadedFolder.contents.size()) {
+                return false;
+            }
+            for (int i = 0; i < folder.contents.size(); i++) {
+                if (folder.contents.get(i).id != loadedFolder.contents.get(i).id) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (item instanceof LauncherAppWidgetInfo) {
+            LauncherAppWidgetInfo widget = (LauncherAppWidgetInfo) item;
+            LauncherAppWidgetInfo loadedWidget = (LauncherAppWidgetInfo) loaded;
+            return widget.appWidgetId == loadedWidget.appWidgetId
+                    && Objects.equals(widget.providerName, loadedWidget.providerName)
+                    && widget.options == loadedWidget.options;
+        }
+        return false;
+    }
+
+    /**
+     * Copies the state resolved while loading from {@param from} to {@param to}, returning
+     * whether it changes how the item looks.
+     */
+    private static boolean copyState(WorkspaceItemInfo from, WorkspaceItemInfo to) {
+        boolean changed = from.bitmap != to.bitmap
+                || from.runtimeStatusFlags != to.runtimeStatusFlags
+                || !TextUtils.equals(from.title, to.title)
+                || !TextUtils.equals(from.contentDescription, to.contentDescription)
+                || !TextUtils.equals(from.disabledMessage, to.disabledMessage);
+        to.title = from.title;
+        to.contentDescription = from.contentDescription;
+        to.bitmap = from.bitmap;
+        to.runtimeStatusFlags = from.runtimeStatusFlags;
+        to.disabledMessage = from.disabledMessage;
+        return changed;
+    }
+
+    private static void copyState(LauncherAppWidgetInfo from, LauncherAppWidgetInfo to) {
+        to.minSpanX = from.minSpanX;
+        to.minSpanY = from.minSpanY;
+        to.sourceContainer = from.sourceContainer;
+        to.bindOptions = from.bindOptions;
+    }
+
+    @Nullable
+    private static ItemInfo readItem(ByteBuffer buffer, UserCache userCache)
+            throws URISyntaxException {
+        int itemType = buffer.getInt();
+        final ItemInfo item;
+        switch (itemType) {
+            case Favorites.ITEM_TYPE_APPLICATION:
+            case Favorites.ITEM_TYPE_DEEP_SHORTCUT:
+                item = new WorkspaceItemInfo();
+                break;
+            case Favorites.ITEM_TYPE_FOLDER:
+            case Favorites.ITEM_TYPE_APP_PAIR:
+                item = new FolderInfo();
+                break;
+            case Favorites.ITEM_TYPE_APPWIDGET:
+            case Favorites.ITEM_TYPE_CUSTOM_APPWIDGET:
+                item = new LauncherAppWidgetInfo(LauncherAppWidgetInfo.NO_ID, null);
+                break;
+            default:
+                return null;
+        }
+        item.itemType = itemType;
+        item.id = buffer.getInt();
+        item.container = buffer.getInt();
+        item.screenId = buffer.getInt();
+        item.cellX = buffer.getInt();
+        item.cellY = buffer.getInt();
+        item.spanX = buffer.getInt();
+        item.spanY = buffer.getInt();
+        item.minSpanX = buffer.getInt();
+        item.minSpanY = buffer.getInt();
+        item.rank = buffer.getInt();
+        UserHandle user = userCache.getUserForSerialNumber(buffer.getLong());
+        if (user == null) {
+            return null;
+        }
+        item.user = user;
+        item.title = readString(buffer);
+        item.contentDescription = readString(buffer);
+
+        if (item instanceof WorkspaceItemInfo) {
+            WorkspaceItemInfo info = (WorkspaceItemInfo) item;
+            info.intent = Intent.parseUri(readString(buffer), 0);
+            info.status = buffer.getInt();
+            info.options = buffer.getInt();
+        } else if (item instanceof FolderInfo) {
+            ((FolderInfo) item).options = buffer.getInt();
+        } else {
+            LauncherAppWidgetInfo widget = (LauncherAppWidgetInfo) item;
+            widget.appWidgetId = buffer.getInt();
+            widget.providerName = ComponentName.unflattenFromString(readString(buffer));
+            widget.options = buffer.getInt();
+            if (widget.providerName == null) {
+                return null;
+            }
+        }
+        return item;
+    }
+
+    private static void writeItem(DataOutputStream out, ItemInfo item, UserCache userCache)
+            throws IOException {
+        out.writeInt(item.itemType);
+        out.writeInt(item.id);
+        out.writeInt(item.container);
+        out.writeInt(item.screenId);
+        out.writeInt(item.cellX);
+        out.writeInt(item.cellY);
+        out.writeInt(item.spanX);
+        out.writeInt(item.spanY);
+        out.writeInt(item.minSpanX);
+        out.writeInt(item.minSpanY);
+        out.writeInt(item.rank);
+        out.writeLong(userCache.getSerialNumberForUser(item.user));
+        writeString(out, item.title);
+        writeString(out, item.contentDescription);
+
+        if (item instanceof WorkspaceItemInfo) {
+            WorkspaceItemInfo info = (WorkspaceItemInfo) item;
+            writeString(out, info.intent.toUri(0));
+            out.writeInt(info.status);
+            out.writeInt(info.options);
+        } else if (item instanceof FolderInfo) {
+            out.writeInt(((FolderInfo) item).options);
+        } else {
+            LauncherAppWidgetInfo widget = (LauncherAppWidgetInfo) item;
+            out.writeInt(widget.appWidgetId);
+            writeString(out, widget.providerName.flattenToString());
+            out.writeInt(widget.options);
+        }
+    }
+
+    @Nullable
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, @Nullable CharSequence string)
+            throws IOException {
+        if (string == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = string.toString().getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
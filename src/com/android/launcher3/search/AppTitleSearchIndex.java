@@ -0,0 +1,476 @@
+/*
+ * Copyright 2024, Lawnchair
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.search;
+
+import androidx.annotation.NonNull;
+
+import com.android.launcher3.model.data.AppInfo;
+import com.android.launcher3.search.StringMatcherUtility.PreparedQuery;
+import com.android.launcher3.search.StringMatcherUtility.PreparedTarget;
+import com.android.launcher3.search.StringMatcherUtility.StringMatcher;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.function.Predicate;
+import java.util.function.ToIntBiFunction;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory index over app titles which narrows down the candidates checked by
+ * {@link StringMatcherUtility#matches} so that a query does not scan every app. Titles are
+ * {@link StringMatcher#prepareTarget prepared} once when indexed, so matching a candidate doesn't
+ * allocate.
+ *
+ * Every title is keyed by its first one and two primary collation elements at each of its break
+ * positions (as defined by {@link StringMatcher}), so that keys follow the collator's equivalences
+ * (accents, "ß" and "ss", Korean jamo...). A query only verifies the apps sharing the key of its
+ * own first elements, and results are returned in the order the apps were added to the index.
+ *
+ * For {@link #fuzzyQuery fuzzy queries}, the section name and title of every app are also keyed
+ * by their character n-grams. Only the apps sharing the most n-grams with the query are scored,
+ * and the best of them are kept in a bounded heap, so the cost of a query does not grow with the
+ * number of installed apps. This is a deliberate trade-off: unlike scoring every app, an app which
+ * shares few n-grams with the query is never scored, even if the scorer would have ranked it high
+ * enough to be returned.
+ *
+ * The index is mutated on the model thread by {@link com.android.launcher3.model.AllAppsList}
+ * while queries can come from any thread, hence all access is synchronized.
+ */
+public class AppTitleSearchIndex {
+
+    private static final int KEY_LENGTH = 2;
+    private static final int MAX_GRAM_LENGTH = 3;
+    private static final int MAX_FUZZY_CANDIDATES = 64;
+
+    /** Key of the bucket containing every indexed app, in insertion order */
+    private static final String KEY_ALL = "";
+    private static final String[] NO_KEYS = new String[0];
+
+    // Characters which are dropped before fuzzy matching
+    private static final Pattern NON_ALPHANUMERIC = Pattern.compile("[^\\p{L}\\p{N}]");
+
+    private final StringMatcher mMatcher = StringMatcher.getInstance();
+    private final HashMap<AppInfo, Entry> mEntries = new HashMap<>();
+    private final HashMap<String, ArrayList<Entry>> mBuckets = new HashMap<>();
+    private final HashMap<String, ArrayList<Entry>> mGramBuckets = new HashMap<>();
+
+    private long mNextSequence;
+    private int mVersion;
+
+    /**
+     * Adds {@param info} at the end of the index. If it is already present, it is re-indexed
+     * using its current title.
+     */
+    public synchronized void add(@NonNull AppInfo info) {
+        Entry entry = mEntries.get(info);
+        if (entry != null) {
+            reindex(entry);
+            return;
+        }
+        entry = new Entry(info, mNextSequence++);
+        mEntries.put(info, entry);
+        insertKeys(entry);
+        mVersion++;
+    }
+
+    /**
+     * Re-indexes {@param info} if its title changed since it was last indexed, keeping its
+     * position relative to the other apps.
+     */
+    public synchronized void update(@NonNull AppInfo info) {
+        Entry entry = mEntries.get(info);
+        if (entry == null) {
+            add(info);
+        } else if (!entry.title.equals(titleOf(info))) {
+            reindex(entry);
+        }
+    }
+
+    public synchronized void remove(@NonNull AppInfo info) {
+        Entry entry = mEntries.remove(info);
+        if (entry != null) {
+            removeKeys(entry);
+            mVersion++;
+        }
+    }
+
+    /**
+     * Replaces the content of the index with {@param apps}, preserving their order.
+     */
+    public synchronized void rebuild(@NonNull Collection<AppInfo> apps) {
+        clear();
+        for (AppInfo info : apps) {
+            add(info);
+        }
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+        mBuckets.clear();
+        mGramBuckets.clear();
+        mNextSequence = 0;
+        mVersion++;
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Returns a number which changes whenever an app is added, removed or re-indexed, so that
+     * callers can tell whether results computed earlier are still valid.
+     */
+    public synchronized int getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * Returns up to {@param maxResults} apps accepted by {@param filter} whose title
+     * {@link StringMatcherUtility#matches matches} {@param query}.
+     */
+    public synchronized List<AppInfo> query(
+            @NonNull String query, int maxResults, @NonNull Predicate<AppInfo> filter) {
+        List<AppInfo> result = new ArrayList<>();
+        if (query.isEmpty() || maxResults <= 0) {
+            return result;
+        }
+        PreparedQuery preparedQuery = mMatcher.prepareQuery(query);
+        // Chinese queries are matched anywhere in the title, so they can't use the break keys.
+        // Without collation elements, titles are matched with the collator itself.
+        int[] primaries = preparedQuery.getPrimaries();
+        String key = StringMatcherUtility.requestSimpleFuzzySearch(query) || primaries == null
+                ? KEY_ALL : getKey(primaries, 0);
+        ArrayList<Entry> candidates = mBuckets.get(key);
+        if (candidates == null) {
+            return result;
+        }
+        for (Entry entry : candidates) {
+            if (StringMatcherUtility.matches(preparedQuery, entry.target)
+                    && filter.test(entry.info)) {
+                result.add(entry.info);
+                if (result.size() >= maxResults) {
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the apps of {@param candidates} whose title still
+     * {@link StringMatcherUtility#matches matches} {@param query}, in the same order. This is
+     * meant to narrow down the result of a previous query that {@param query} extends.
+     */
+    public synchronized List<AppInfo> refine(
+            @NonNull List<AppInfo> candidates, @NonNull String query) {
+        List<AppInfo> result = new ArrayList<>();
+        if (query.isEmpty()) {
+            return result;
+        }
+        PreparedQuery preparedQuery = mMatcher.prepareQuery(query);
+        for (AppInfo info : candidates) {
+            Entry entry = mEntries.get(info);
+            if (entry != null && StringMatcherUtility.matches(preparedQuery, entry.target)) {
+                result.add(info);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns up to {@param maxResults} apps accepted by {@param filter}, sorted by decreasing
+     * {@param scorer} score of their section name and title against {@param query}. Apps scoring
+     * below {@param cutoff} are dropped, and ties keep the order in which apps were added.
+     *
+     * Only the {@link #MAX_FUZZY_CANDIDATES} apps sharing the most n-grams with the query (or
+     * {@param maxResults} of them if more) are scored, so with many similar titles an app the
+     * scorer would have ranked high enough can be missing from the result.
+     */
+    public synchronized List<AppInfo> fuzzyQuery(@NonNull String query, int maxResults,
+            int cutoff, @NonNull ToIntBiFunction<String, String> scorer,
+            @NonNull Predicate<AppInfo> filter) {
+        List<AppInfo> result = new ArrayList<>();
+        String text = normalizeForFuzzySearch(query);
+        if (text.isEmpty() || maxResults <= 0) {
+            return result;
+        }
+
+        // Start with the longest n-grams, as shorter ones match almost every app. Only fallback
+        // to those when longer ones found too few apps.
+        HashMap<Entry, int[]> shared = new HashMap<>();
+        for (int n = Math.min(MAX_GRAM_LENGTH, text.length()); n > 0; n--) {
+            countSharedGrams(text, n, shared, filter);
+            if (shared.size() >= maxResults || (n < MAX_GRAM_LENGTH && !shared.isEmpty())) {
+                break;
+            }
+        }
+
+        ArrayList<Entry> candidates = new ArrayList<>(shared.keySet());
+        int maxCandidates = Math.max(MAX_FUZZY_CANDIDATES, maxResults);
+        if (candidates.size() > maxCandidates) {
+            candidates.sort((a, b) -> shared.get(b)[0] != shared.get(a)[0]
+                    ? Integer.compare(shared.get(b)[0], shared.get(a)[0])
+                    : Long.compare(a.sequence, b.sequence));
+            candidates.subList(maxCandidates, candidates.size()).clear();
+        }
+
+        // Min-heap of the best matches, the worst one being evicted first
+        PriorityQueue<ScoredEntry> best = new PriorityQueue<>(maxResults + 1);
+        for (Entry entry : candidates) {
+            int score = scorer.applyAsInt(text, entry.fuzzyText);
+            if (score < cutoff) {
+                continue;
+            }
+            best.add(new ScoredEntry(entry, score));
+            if (best.size() > maxResults) {
+                best.poll();
+            }
+        }
+
+        ScoredEntry[] sorted = best.toArray(new ScoredEntry[0]);
+        Arrays.sort(sorted, Collections.reverseOrder());
+        for (ScoredEntry scored : sorted) {
+            result.add(scored.entry.info);
+        }
+        return result;
+    }
+
+    /**
+     * Adds to {@param shared} the number of distinct n-grams of length {@param n} that each
+     * accepted entry has in common with {@param text}.
+     */
+    private void countSharedGrams(String text, int n, HashMap<Entry, int[]> shared,
+            Predicate<AppInfo> filter) {
+        HashSet<String> grams = new HashSet<>();
+        addGrams(text, n, grams);
+        for (String gram : grams) {
+            ArrayList<Entry> bucket = mGramBuckets.get(gram);
+            if (bucket == null) {
+                continue;
+            }
+            for (Entry entry : bucket) {
+                int[] count = shared.get(entry);
+                if (count == null) {
+                    if (!filter.test(entry.info)) {
+                        continue;
+                    }
+                    count = new int[1];
+                    shared.put(entry, count);
+                }
+                count[0]++;
+            }
+        }
+    }
+
+    private void reindex(Entry entry) {
+        removeKeys(entry);
+        entry.setTitle(titleOf(entry.info));
+        insertKeys(entry);
+        mVersion++;
+    }
+
+    private void insertKeys(Entry entry) {
+        entry.keys = computeKeys(entry.target);
+        insertInto(mBuckets, entry.keys, entry);
+        entry.grams = computeGrams(entry.fuzzyText);
+        insertInto(mGramBuckets, entry.grams, entry);
+    }
+
+    private void removeKeys(Entry entry) {
+        removeFrom(mBuckets, entry.keys, entry);
+        entry.keys = NO_KEYS;
+        removeFrom(mGramBuckets, entry.grams, entry);
+        entry.grams = NO_KEYS;
+    }
+
+    private static void insertInto(
+            HashMap<String, ArrayList<Entry>> buckets, String[] keys, Entry entry) {
+        for (String key : keys) {
+            ArrayList<Entry> bucket = buckets.get(key);
+            if (bucket == null) {
+                bucket = new ArrayList<>();
+                buckets.put(key, bucket);
+            }
+            int index = indexOf(bucket, entry.sequence);
+            if (index < 0) {
+                bucket.add(-index - 1, entry);
+            }
+        }
+    }
+
+    private static void removeFrom(
+            HashMap<String, ArrayList<Entry>> buckets, String[] keys, Entry entry) {
+        for (String key : keys) {
+            ArrayList<Entry> bucket = buckets.get(key);
+            if (bucket == null) {
+                continue;
+            }
+            int index = indexOf(bucket, entry.sequence);
+            if (index >= 0) {
+                bucket.remove(index);
+            }
+            if (bucket.isEmpty()) {
+                buckets.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Binary search of {@param sequence} in a bucket sorted by sequence. Follows the contract of
+     * {@link java.util.Arrays#binarySearch}.
+     */
+    private static int indexOf(ArrayList<Entry> bucket, long sequence) {
+        int low = 0;
+        int high = bucket.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midSequence = bucket.get(mid).sequence;
+            if (midSequence < sequence) {
+                low = mid + 1;
+            } else if (midSequence > sequence) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private static String[] computeKeys(PreparedTarget target) {
+        HashSet<String> keys = new HashSet<>();
+        keys.add(KEY_ALL);
+        int[] primaries = target.getPrimaries();
+        if (primaries == null) {
+            return keys.toArray(NO_KEYS);
+        }
+        for (int start : target.getBreaks()) {
+            // Index every prefix of the key so that shorter queries find it as well
+            for (int length = 1; length <= KEY_LENGTH && start + length <= primaries.length;
+                    length++) {
+                keys.add(getKey(primaries, start, length));
+            }
+        }
+        return keys.toArray(NO_KEYS);
+    }
+
+    private static String[] computeGrams(String text) {
+        HashSet<String> grams = new HashSet<>();
+        for (int n = 1; n <= MAX_GRAM_LENGTH; n++) {
+            addGrams(text, n, grams);
+        }
+        return grams.toArray(NO_KEYS);
+    }
+
+    /**
+     * Adds all the n-grams of length {@param n} of {@param text} which don't span over a space.
+     */
+    private static void addGrams(String text, int n, Collection<String> out) {
+        int wordStart = 0;
+        for (int i = 0; i + n <= text.length(); i++) {
+            if (text.charAt(i + n - 1) == ' ') {
+                wordStart = i + n;
+            }
+            if (i >= wordStart) {
+                out.add(text.substring(i, i + n));
+            }
+        }
+    }
+
+    /**
+     * Lower cases {@param text} and replaces the characters which are neither letters nor digits
+     * with spaces, as done by the fuzzy matching library before scoring.
+     */
+    private static String normalizeForFuzzySearch(String text) {
+        return NON_ALPHANUMERIC.matcher(text.toLowerCase(Locale.getDefault()))
+                .replaceAll(" ")
+                .trim();
+    }
+
+    /**
+     * Returns the key of the primary collation elements of a query, made of at most
+     * {@link #KEY_LENGTH} elements from {@param start}.
+     */
+    private static String getKey(int[] primaries, int start) {
+        return getKey(primaries, start, Math.min(KEY_LENGTH, primaries.length - start));
+    }
+
+    private static String getKey(int[] primaries, int start, int length) {
+        StringBuilder key = new StringBuilder();
+        for (int i = start; i < start + length; i++) {
+            key.append(primaries[i]).append(',');
+        }
+        return key.toString();
+    }
+
+    private static String titleOf(AppInfo info) {
+        return info.title == null ? "" : info.title.toString();
+    }
+
+    private class Entry {
+
+        final AppInfo info;
+        final long sequence;
+        String title;
+        String fuzzyText;
+        PreparedTarget target;
+        String[] keys = NO_KEYS;
+        String[] grams = NO_KEYS;
+
+        Entry(AppInfo info, long sequence) {
+            this.info = info;
+            this.sequence = sequence;
+            setTitle(titleOf(info));
+        }
+
+        void setTitle(String title) {
+            this.title = title;
+            this.target = mMatcher.prepareTarget(title);
+            String sectionName = info.sectionName;
+            this.fuzzyText = normalizeForFuzzySearch(
+                    sectionName == null ? title : sectionName + title);
+        }
+    }
+
+    private static class ScoredEntry implements Comparable<ScoredEntry> {
+
+        final Entry entry;
+        final int score;
+
+        ScoredEntry(Entry entry, int score) {
+            this.entry = entry;
+            this.score = score;
+        }
+
+        /**
+         * Orders by score, then by reverse insertion order so that among equal scores the
+         * first added app ranks best.
+         */
+        @Override
+        public int compareTo(ScoredEntry other) {
+            return score != other.score
+                    ? Integer.compare(score, other.score)
+                    : Long.compare(other.entry.sequence, entry.sequence);
+        }
+    }
+}
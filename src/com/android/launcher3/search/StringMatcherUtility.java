@@ -20,7 +20,10 @@ import android.text.TextUtils;
 
 import com.android.launcher3.util.IntArray;
 
+import java.text.CollationElementIterator;
 import java.text.Collator;
+import java.text.RuleBasedCollator;
+import java.util.Arrays;
 import java.util.stream.IntStream;
 
 /**
@@ -65,6 +68,49 @@ public class StringMatcherUtility {
         return false;
     }
 
+    /**
+     * Same as {@link #matches(String, String, StringMatcher)}, but using the collation elements
+     * precomputed by {@link StringMatcher#prepareQuery} and {@link StringMatcher#prepareTarget}.
+     * Unlike the former, this doesn't allocate nor call into the {@link Collator}, which makes it
+     * suitable for matching a single query against many targets.
+     */
+    public static boolean matches(PreparedQuery query, PreparedTarget target) {
+        if (query.mPrimaries == null || target.mPrimaries == null) {
+            return matches(query.mQuery, target.mTarget, target.mMatcher);
+        }
+
+        if (query.mQuery.isEmpty() || query.mPrimaries.length == 0) {
+            return false;
+        }
+
+        if (query.mSimpleFuzzySearch) {
+            return target.mLowerCaseTarget.contains(query.mQuery);
+        }
+
+        int[] queryPrimaries = query.mPrimaries;
+        int[] targetPrimaries = target.mPrimaries;
+        int end = targetPrimaries.length - queryPrimaries.length;
+        for (int start : target.mBreaks) {
+            if (start > end) {
+                // Breaks are sorted, none of the following ones has enough elements left
+                return false;
+            }
+            if (regionMatches(queryPrimaries, targetPrimaries, start)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean regionMatches(int[] query, int[] target, int start) {
+        for (int i = 0; i < query.length; i++) {
+            if (query[i] != target[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Returns a list of breakpoints wherever the string contains a break. For example:
      * "t-mobile" would have breakpoints at [0, 1]
@@ -139,6 +185,92 @@ public class StringMatcherUtility {
             return new StringMatcher();
         }
 
+        /**
+         * Precomputes the collation elements of {@param query}, which is expected to be lower
+         * case, for {@link StringMatcherUtility#matches(PreparedQuery, PreparedTarget)}.
+         */
+        public PreparedQuery prepareQuery(String query) {
+            int[] primaries = null;
+            if (mCollator instanceof RuleBasedCollator) {
+                primaries = getPrimaries(
+                        ((RuleBasedCollator) mCollator).getCollationElementIterator(query),
+                        query.length(), null);
+            }
+            return new PreparedQuery(query, primaries, requestSimpleFuzzySearch(query));
+        }
+
+        /**
+         * Precomputes the collation elements and break points of {@param target} for
+         * {@link StringMatcherUtility#matches(PreparedQuery, PreparedTarget)}.
+         */
+        public PreparedTarget prepareTarget(String target) {
+            if (!(mCollator instanceof RuleBasedCollator)) {
+                return new PreparedTarget(this, target, null, null);
+            }
+            int targetLength = target.length();
+            // Index of the first primary element generated at or after each offset of target
+            int[] elementAtOffset = new int[targetLength + 1];
+            int[] primaries = getPrimaries(
+                    ((RuleBasedCollator) mCollator).getCollationElementIterator(target),
+                    targetLength, elementAtOffset);
+
+            IntArray breaks = new IntArray();
+            int lastType;
+            int thisType = Character.UNASSIGNED;
+            int nextType = targetLength > 0
+                    ? Character.getType(target.codePointAt(0)) : Character.UNASSIGNED;
+            for (int i = 0; i < targetLength; i++) {
+                lastType = thisType;
+                thisType = nextType;
+                nextType = i < (targetLength - 1)
+                        ? Character.getType(target.codePointAt(i + 1)) : Character.UNASSIGNED;
+                if (isBreak(thisType, lastType, nextType)) {
+                    int element = elementAtOffset[i];
+                    if (breaks.isEmpty() || breaks.get(breaks.size() - 1) != element) {
+                        breaks.add(element);
+                    }
+                }
+            }
+            return new PreparedTarget(this, target, primaries, breaks.toArray());
+        }
+
+        /**
+         * Returns the non ignorable primary collation elements of a string. If provided,
+         * {@param elementAtOffset} is filled with the index of the first element generated for
+         * each offset of the string.
+         */
+        private static int[] getPrimaries(
+                CollationElementIterator iterator, int length, int[] elementAtOffset) {
+            if (elementAtOffset != null) {
+                Arrays.fill(elementAtOffset, -1);
+            }
+            IntArray primaries = new IntArray(length);
+            int offset = iterator.getOffset();
+            int element;
+            while ((element = iterator.next()) != CollationElementIterator.NULLORDER) {
+                if (elementAtOffset != null && offset <= length && elementAtOffset[offset] < 0) {
+                    elementAtOffset[offset] = primaries.size();
+                }
+                int primary = CollationElementIterator.primaryOrder(element);
+                if (primary != 0) {
+                    primaries.add(primary);
+                }
+                offset = iterator.getOffset();
+            }
+            if (elementAtOffset != null) {
+                // Offsets in the middle of a contraction map to the next element
+                int next = primaries.size();
+                for (int i = length; i >= 0; i--) {
+                    if (elementAtOffset[i] < 0) {
+                        elementAtOffset[i] = next;
+                    } else {
+                        next = elementAtOffset[i];
+                    }
+                }
+            }
+            return primaries.toArray();
+        }
+
         /**
          * Returns true if the current point should be a break point.
          *
@@ -193,6 +325,70 @@ public class StringMatcherUtility {
         }
     }
 
+    /**
+     * Query prepared by {@link StringMatcher#prepareQuery}.
+     */
+    public static class PreparedQuery {
+
+        private final String mQuery;
+        private final int[] mPrimaries;
+        private final boolean mSimpleFuzzySearch;
+
+        PreparedQuery(String query, int[] primaries, boolean simpleFuzzySearch) {
+            mQuery = query;
+            mPrimaries = primaries;
+            mSimpleFuzzySearch = simpleFuzzySearch;
+        }
+
+        /**
+         * Returns the non ignorable primary collation elements of the query, or null if the
+         * collator doesn't expose them.
+         */
+        int[] getPrimaries() {
+            return mPrimaries;
+        }
+    }
+
+    /**
+     * Target prepared by {@link StringMatcher#prepareTarget}. It holds the primary collation
+     * elements of the target and the element index of each of its break points.
+     */
+    public static class PreparedTarget {
+
+        private final StringMatcher mMatcher;
+        private final String mTarget;
+        private final String mLowerCaseTarget;
+        private final int[] mPrimaries;
+        private final int[] mBreaks;
+
+        PreparedTarget(StringMatcher matcher, String target, int[] primaries, int[] breaks) {
+            mMatcher = matcher;
+            mTarget = target;
+            mLowerCaseTarget = target.toLowerCase();
+            mPrimaries = primaries;
+            mBreaks = breaks;
+        }
+
+        public String getTarget() {
+            return mTarget;
+        }
+
+        /**
+         * Returns the non ignorable primary collation elements of the target, or null if the
+         * collator doesn't expose them.
+         */
+        int[] getPrimaries() {
+            return mPrimaries;
+        }
+
+        /**
+         * Returns the index in {@link #getPrimaries()} of each break point of the target.
+         */
+        int[] getBreaks() {
+            return mBreaks;
+        }
+    }
+
     /**
      * Subclass of {@code StringMatcher} using simple space break for prefix matching.
      * E.g., "YouTube" matches the input "you". "Play Store" matches the input "play".
@@ -216,7 +412,7 @@ public class StringMatcherUtility {
     /**
      * Matching optimization to search in Chinese.
      */
-    private static boolean requestSimpleFuzzySearch(String s) {
+    static boolean requestSimpleFuzzySearch(String s) {
         for (int i = 0; i < s.length(); ) {
             int codepoint = s.codePointAt(i);
             i += Character.charCount(codepoint);
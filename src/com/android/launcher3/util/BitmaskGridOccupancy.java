@@ -0,0 +1,273 @@
+/*
+ * Copyright 2024, Lawnchair
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.util;
+
+import android.graphics.Rect;
+
+import com.android.launcher3.model.data.ItemInfo;
+
+/**
+ * Occupancy of a grid stored as one bitmask per row, bit x of a row being the cell at column x.
+ * Checking whether a span of a row is vacant is a single mask operation, so regions are checked
+ * row by row rather than cell by cell, and copies only copy one long per row. Grids can be at
+ * most {@link #MAX_COLUMNS} wide.
+ *
+ * The number of occupied cells in any region is answered in constant time by a summed-area
+ * table, built on demand and kept until the occupancy changes.
+ */
+public class BitmaskGridOccupancy {
+
+    public static final int MAX_COLUMNS = Long.SIZE;
+
+    private final int mCountX;
+    private final int mCountY;
+    private final long mRowMask;
+
+    private final long[] mRows;
+
+    // Summed-area table: the occupied cells above and left of each cell, (countX + 1) per row
+    private final int[] mOccupiedSums;
+    private boolean mOccupiedSumsValid;
+
+    public BitmaskGridOccupancy(int countX, int countY) {
+        if (countX < 0 || countX > MAX_COLUMNS || countY < 0) {
+            throw new IllegalArgumentException("Invalid grid size " + countX + "x" + countY);
+        }
+        mCountX = countX;
+        mCountY = countY;
+        mRowMask = spanMask(countX);
+        mRows = new long[countY];
+        mOccupiedSums = new int[(countX + 1) * (countY + 1)];
+    }
+
+    public int getCountX() {
+        return mCountX;
+    }
+
+    public int getCountY() {
+        return mCountY;
+    }
+
+    public boolean isOccupied(int x, int y) {
+        return x >= 0 && y >= 0 && x < mCountX && y < mCountY && (mRows[y] >>> x & 1) != 0;
+    }
+
+    /**
+     * Find the first vacant cell, if there is one, in the same order as
+     * {@link GridOccupancy#findVacantCell}.
+     *
+     * @param vacantOut Holds the x and y coordinate of the vacant cell
+     * @param spanX Horizontal cell span.
+     * @param spanY Vertical cell span.
+     *
+     * @return true if a vacant cell was found
+     */
+    public boolean findVacantCell(int[] vacantOut, int spanX, int spanY) {
+        for (int y = 0; y + spanY <= mCountY; y++) {
+            int x = findVacantX(y, 0, spanX, spanY);
+            if (x >= 0) {
+                vacantOut[0] = x;
+                vacantOut[1] = y;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void copyTo(BitmaskGridOccupancy dest) {
+        System.arraycopy(mRows, 0, dest.mRows, 0, Math.min(mCountY, dest.mCountY));
+        dest.mOccupiedSumsValid = false;
+    }
+
+    /**
+     * Replaces the occupancy with the one of {@param src}, over the cells both grids have.
+     */
+    public void copyFrom(GridOccupancy src) {
+        boolean[][] cells = src.cells;
+        int countX = Math.min(mCountX, cells.length);
+        for (int y = 0; y < mCountY; y++) {
+            long row = 0;
+            for (int x = 0; x < countX; x++) {
+                if (y < cells[x].length && cells[x][y]) {
+                    row |= 1L << x;
+                }
+            }
+            mRows[y] = row;
+        }
+        mOccupiedSumsValid = false;
+    }
+
+    public boolean isRegionVacant(int x, int y, int spanX, int spanY) {
+        int x2 = x + spanX - 1;
+        int y2 = y + spanY - 1;
+        if (x < 0 || y < 0 || x2 >= mCountX || y2 >= mCountY) {
+            return false;
+        }
+        long mask = spanMask(spanX) << x;
+        for (int j = y; j <= y2; j++) {
+            if ((mRows[j] & mask) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the first column, starting from {@param fromX}, at which a region of
+     * {@param spanX}x{@param spanY} cells with its top at row {@param y} is vacant, or -1 if there
+     * is none in that row.
+     */
+    public int findVacantX(int y, int fromX, int spanX, int spanY) {
+        fromX = Math.max(fromX, 0);
+        if (y < 0 || fromX >= mCountX || y + spanY - 1 >= mCountY) {
+            return -1;
+        }
+        if (spanX <= 0 || spanY <= 0) {
+            // An empty region is vacant anywhere in the grid
+            return fromX;
+        }
+        if (spanX > mCountX) {
+            return -1;
+        }
+        long occupied = 0;
+        for (int j = y; j < y + spanY; j++) {
+            occupied |= mRows[j];
+        }
+        long vacant = ~occupied & mRowMask;
+        // Bit x of starts is set when the cells x to x + spanX - 1 are all vacant
+        long starts = vacant;
+        for (int i = 1; i < spanX && starts != 0; i++) {
+            starts &= vacant >>> i;
+        }
+        starts &= -1L << fromX;
+        return starts == 0 ? -1 : Long.numberOfTrailingZeros(starts);
+    }
+
+    public void markCells(int cellX, int cellY, int spanX, int spanY, boolean value) {
+        if (cellX < 0 || cellY < 0 || spanX <= 0 || cellX >= mCountX) return;
+        mOccupiedSumsValid = false;
+        long mask = spanMask(Math.min(spanX, mCountX - cellX)) << cellX;
+        for (int y = cellY; y < cellY + spanY && y < mCountY; y++) {
+            if (value) {
+                mRows[y] |= mask;
+            } else {
+                mRows[y] &= ~mask;
+            }
+        }
+    }
+
+    public void markCells(Rect r, boolean value) {
+        markCells(r.left, r.top, r.width(), r.height(), value);
+    }
+
+    public void markCells(CellAndSpan cell, boolean value) {
+        markCells(cell.cellX, cell.cellY, cell.spanX, cell.spanY, value);
+    }
+
+    public void markCells(ItemInfo item, boolean value) {
+        markCells(item.cellX, item.cellY, item.spanX, item.spanY, value);
+    }
+
+    public void clear() {
+        markCells(0, 0, mCountX, mCountY, false);
+    }
+
+    /**
+     * Returns the number of occupied cells in the given region, clipped to the grid.
+     */
+    public int getOccupiedCount(int x, int y, int spanX, int spanY) {
+        int x1 = Math.max(x, 0);
+        int y1 = Math.max(y, 0);
+        int x2 = Math.min(x + spanX, mCountX);
+        int y2 = Math.min(y + spanY, mCountY);
+        if (x1 >= x2 || y1 >= y2) {
+            return 0;
+        }
+        int[] sums = getOccupiedSums();
+        int stride = mCountX + 1;
+        return sums[y2 * stride + x2] - sums[y1 * stride + x2]
+                - sums[y2 * stride + x1] + sums[y1 * stride + x1];
+    }
+
+    /**
+     * Finds the vacant region with the largest area, the first one in reading order of its top
+     * left cell if several have the same area.
+     *
+     * @param outRegion Holds the cells of the region, or is emptied if the grid is full
+     * @return the area of the region
+     */
+    public int findLargestVacantRegion(Rect outRegion) {
+        outRegion.setEmpty();
+        int bestArea = 0;
+        for (int y = 0; y < mCountY; y++) {
+            for (int x = 0; x < mCountX; x++) {
+                if (isOccupied(x, y)) {
+                    continue;
+                }
+                // A taller region can't be wider, so the width only shrinks as we go down
+                int width = mCountX - x;
+                for (int height = 1; y + height <= mCountY && width > 0; height++) {
+                    while (width > 0 && getOccupiedCount(x, y, width, height) > 0) {
+                        width--;
+                    }
+                    if (width * height > bestArea) {
+                        bestArea = width * height;
+                        outRegion.set(x, y, x + width, y + height);
+                    }
+                }
+            }
+        }
+        return bestArea;
+    }
+
+    private int[] getOccupiedSums() {
+        if (!mOccupiedSumsValid) {
+            int stride = mCountX + 1;
+            for (int y = 0; y < mCountY; y++) {
+                int rowSum = 0;
+                for (int x = 0; x < mCountX; x++) {
+                    rowSum += (int) (mRows[y] >>> x & 1);
+                    mOccupiedSums[(y + 1) * stride + x + 1] =
+                            mOccupiedSums[y * stride + x + 1] + rowSum;
+                }
+            }
+            mOccupiedSumsValid = true;
+        }
+        return mOccupiedSums;
+    }
+
+    /**
+     * Returns a mask with the {@param span} lowest bits set.
+     */
+    private static long spanMask(int span) {
+        if (span <= 0) {
+            return 0;
+        }
+        return span >= Long.SIZE ? -1L : (1L << span) - 1;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder("Grid: \n");
+        for (int y = 0; y < mCountY; y++) {
+            for (int x = 0; x < mCountX; x++) {
+                s.append((mRows[y] >>> x & 1) != 0 ? 1 : 0).append(" ");
+            }
+            s.append("\n");
+        }
+        return s.toString();
+    }
+}
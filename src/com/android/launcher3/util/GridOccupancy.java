@@ -12,8 +12,11 @@ public class GridOccupancy extends AbsGridOccupancy {
     private final int mCountX;
     private final int mCountY;
 
+    // Writing the cells directly doesn't bump the modification count
     public final boolean[][] cells;
 
+    private int mModCount = 0;
+
     public GridOccupancy(int countX, int countY) {
         mCountX = countX;
         mCountY = countY;
@@ -35,10 +38,17 @@ public class GridOccupancy extends AbsGridOccupancy {
 
     public void copyTo(GridOccupancy dest) {
         for (int i = 0; i < mCountX; i++) {
-            for (int j = 0; j < mCountY; j++) {
-                dest.cells[i][j] = cells[i][j];
-            }
+            System.arraycopy(cells[i], 0, dest.cells[i], 0, mCountY);
         }
+        dest.mModCount++;
+    }
+
+    /**
+     * Returns a count which changes every time the cells are marked or copied over, so that
+     * copies of the occupancy can tell when they are stale.
+     */
+    public int getModCount() {
+        return mModCount;
     }
 
     public boolean isRegionVacant(int x, int y, int spanX, int spanY) {
@@ -59,6 +69,7 @@ public class GridOccupancy extends AbsGridOccupancy {
 
     public void markCells(int cellX, int cellY, int spanX, int spanY, boolean value) {
         if (cellX < 0 || cellY < 0) return;
+        mModCount++;
         for (int x = cellX; x < cellX + spanX && x < mCountX; x++) {
             for (int y = cellY; y < cellY + spanY && y < mCountY; y++) {
                 cells[x][y] = value;
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2024, Lawnchair
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.celllayout;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Rect;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+
+import com.android.launcher3.util.BitmaskGridOccupancy;
+import com.android.launcher3.util.GridOccupancy;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Micro benchmark comparing {@link GridOccupancy} with {@link BitmaskGridOccupancy}, on the start
+ * boards of the {@link ReorderAlgorithmUnitTest} cases. Each case first checks that both give the
+ * same answers.
+ *
+ * Each case runs a number of warm up rounds, then reports the average time per round over the
+ * measured rounds in logcat under {@link #TAG}.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class GridOccupancyBenchmark {
+
+    private static final String TAG = "GridOccupancyBenchmark";
+
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int MEASURED_ROUNDS = 100;
+
+    private List<ReorderAlgorithmUnitTestCase> mTestCases;
+    private GridOccupancy[] mGrids;
+    private BitmaskGridOccupancy[] mBitmaskGrids;
+
+    @Before
+    public void setup() throws IOException {
+        mTestCases = ReorderAlgorithmUnitTest.getTestCases(
+                "ReorderAlgorithmUnitTest/reorder_algorithm_test_cases");
+        mGrids = new GridOccupancy[mTestCases.size()];
+        mBitmaskGrids = new BitmaskGridOccupancy[mTestCases.size()];
+        for (int i = 0; i < mTestCases.size(); i++) {
+            CellLayoutBoard board = mTestCases.get(i).startBoard;
+            mGrids[i] = new GridOccupancy(board.getWidth(), board.getHeight());
+            mBitmaskGrids[i] = new BitmaskGridOccupancy(board.getWidth(), board.getHeight());
+            for (CellLayoutBoard.WidgetRect widget : board.getWidgets()) {
+                mGrids[i].markCells(widget.getCellX(), widget.getCellY(), widget.getSpanX(),
+                        widget.getSpanY(), true);
+                mBitmaskGrids[i].markCells(widget.getCellX(), widget.getCellY(),
+                        widget.getSpanX(), widget.getSpanY(), true);
+            }
+            for (CellLayoutBoard.IconPoint icon : board.getIcons()) {
+                mGrids[i].markCells(icon.coord.x, icon.coord.y, 1, 1, true);
+                mBitmaskGrids[i].markCells(icon.coord.x, icon.coord.y, 1, 1, true);
+            }
+            for (CellLayoutBoard.FolderPoint folder : board.getFolders()) {
+                mGrids[i].markCells(folder.coord.x, folder.coord.y, 1, 1, true);
+                mBitmaskGrids[i].markCells(folder.coord.x, folder.coord.y, 1, 1, true);
+            }
+        }
+    }
+
+    @Test
+    public void benchmarkFindVacantCell() {
+        int[] expected = new int[2];
+        int[] actual = new int[2];
+        for (int i = 0; i < mGrids.length; i++) {
+            for (int spanX = 1; spanX <= mBitmaskGrids[i].getCountX(); spanX++) {
+                for (int spanY = 1; spanY <= mBitmaskGrids[i].getCountY(); spanY++) {
+                    assertEquals(mGrids[i].findVacantCell(expected, spanX, spanY),
+                            mBitmaskGrids[i].findVacantCell(actual, spanX, spanY));
+                    assertArrayEquals(expected, actual);
+                }
+            }
+        }
+
+        int[] vacant = new int[2];
+        long gridNanos = measure(() -> {
+            for (int i = 0; i < mGrids.length; i++) {
+                ReorderAlgorithmUnitTestCase testCase = mTestCases.get(i);
+                mGrids[i].findVacantCell(vacant, testCase.spanX, testCase.spanY);
+            }
+        });
+        long bitmaskNanos = measure(() -> {
+            for (int i = 0; i < mBitmaskGrids.length; i++) {
+                ReorderAlgorithmUnitTestCase testCase = mTestCases.get(i);
+                mBitmaskGrids[i].findVacantCell(vacant, testCase.spanX, testCase.spanY);
+            }
+        });
+        log("findVacantCell", gridNanos, bitmaskNanos);
+    }
+
+    @Test
+    public void benchmarkIsRegionVacant() {
+        for (int i = 0; i < mGrids.length; i++) {
+            ReorderAlgorithmUnitTestCase testCase = mTestCases.get(i);
+            assertEquals(countVacantRegions(mGrids[i], testCase),
+                    countVacantRegions(mBitmaskGrids[i], testCase));
+        }
+
+        long gridNanos = measure(() -> {
+            for (int i = 0; i < mGrids.length; i++) {
+                countVacantRegions(mGrids[i], mTestCases.get(i));
+            }
+        });
+        long bitmaskNanos = measure(() -> {
+            for (int i = 0; i < mBitmaskGrids.length; i++) {
+                countVacantRegions(mBitmaskGrids[i], mTestCases.get(i));
+            }
+        });
+        log("isRegionVacant", gridNanos, bitmaskNanos);
+    }
+
+    @Test
+    public void benchmarkCopyTo() {
+        GridOccupancy[] gridCopies = new GridOccupancy[mGrids.length];
+        BitmaskGridOccupancy[] bitmaskCopies = new BitmaskGridOccupancy[mBitmaskGrids.length];
+        for (int i = 0; i < mGrids.length; i++) {
+            gridCopies[i] = new GridOccupancy(
+                    mBitmaskGrids[i].getCountX(), mBitmaskGrids[i].getCountY());
+            bitmaskCopies[i] = new BitmaskGridOccupancy(
+                    mBitmaskGrids[i].getCountX(), mBitmaskGrids[i].getCountY());
+        }
+
+        long gridNanos = measure(() -> {
+            for (int i = 0; i < mGrids.length; i++) {
+                mGrids[i].copyTo(gridCopies[i]);
+            }
+        });
+        long bitmaskNanos = measure(() -> {
+            for (int i = 0; i < mBitmaskGrids.length; i++) {
+                mBitmaskGrids[i].copyTo(bitmaskCopies[i]);
+            }
+        });
+        for (int i = 0; i < mBitmaskGrids.length; i++) {
+            assertEquals(mBitmaskGrids[i].toString(), bitmaskCopies[i].toString());
+        }
+        log("copyTo", gridNanos, bitmaskNanos);
+    }
+
+    @Test
+    public void benchmarkLargestVacantRegion() {
+        Rect region = new Rect();
+        for (int i = 0; i < mGrids.length; i++) {
+            int area = mBitmaskGrids[i].findLargestVacantRegion(region);
+            assertEquals(findLargestVacantArea(mGrids[i], mBitmaskGrids[i].getCountX(),
+                    mBitmaskGrids[i].getCountY()), area);
+            assertEquals(area, region.width() * region.height());
+            assertTrue(area == 0 || mGrids[i].isRegionVacant(
+                    region.left, region.top, region.width(), region.height()));
+        }
+
+        long gridNanos = measure(() -> {
+            for (int i = 0; i < mGrids.length; i++) {
+                findLargestVacantArea(mGrids[i], mBitmaskGrids[i].getCountX(),
+                        mBitmaskGrids[i].getCountY());
+            }
+        });
+        long bitmaskNanos = measure(() -> {
+            for (int i = 0; i < mBitmaskGrids.length; i++) {
+                // Marking a cell invalidates the summed-area table, as during a drag
+                mBitmaskGrids[i].markCells(0, 0, 1, 1, mBitmaskGrids[i].isOccupied(0, 0));
+                mBitmaskGrids[i].findLargestVacantRegion(region);
+            }
+        });
+        log("largest vacant region", gridNanos, bitmaskNanos);
+    }
+
+    private static int countVacantRegions(GridOccupancy grid,
+            ReorderAlgorithmUnitTestCase testCase) {
+        int count = 0;
+        for (int y = 0; y < testCase.startBoard.getHeight(); y++) {
+            for (int x = 0; x < testCase.startBoard.getWidth(); x++) {
+                if (grid.isRegionVacant(x, y, testCase.spanX, testCase.spanY)) {
+                    count++;
+                }
+                if (grid.isRegionVacant(x, y, testCase.minSpanX, testCase.minSpanY)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private static int countVacantRegions(BitmaskGridOccupancy grid,
+            ReorderAlgorithmUnitTestCase testCase) {
+        int count = 0;
+        for (int y = 0; y < testCase.startBoard.getHeight(); y++) {
+            for (int x = 0; x < testCase.startBoard.getWidth(); x++) {
+                if (grid.isRegionVacant(x, y, testCase.spanX, testCase.spanY)) {
+                    count++;
+                }
+                if (grid.isRegionVacant(x, y, testCase.minSpanX, testCase.minSpanY)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Finds the area of the largest vacant region by checking every region.
+     */
+    private static int findLargestVacantArea(GridOccupancy grid, int countX, int countY) {
+        int bestArea = 0;
+        for (int y = 0; y < countY; y++) {
+            for (int x = 0; x < countX; x++) {
+                for (int spanY = 1; y + spanY <= countY; spanY++) {
+                    for (int spanX = 1; x + spanX <= countX; spanX++) {
+                        if (spanX * spanY > bestArea && grid.isRegionVacant(x, y, spanX, spanY)) {
+                            bestArea = spanX * spanY;
+                        }
+                    }
+                }
+            }
+        }
+        return bestArea;
+    }
+
+    private static void log(String name, long gridNanos, long bitmaskNanos) {
+        Log.d(TAG, String.format("%s: GridOccupancy %d ns/round, BitmaskGridOccupancy %d ns/round",
+                name, gridNanos, bitmaskNanos));
+    }
+
+    /**
+     * Returns the average duration of {@param round} in nanoseconds, after warm up.
+     */
+    private static long measure(Runnable round) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            round.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            round.run();
+        }
+        return (System.nanoTime() - start) / MEASURED_ROUNDS;
+    }
+}
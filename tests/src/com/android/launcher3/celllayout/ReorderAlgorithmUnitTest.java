@@ -254,7 +254,7 @@ public class ReorderAlgorithmUnitTest {
         return board;
     }
 
-    private static List<ReorderAlgorithmUnitTestCase> getTestCases(String testPath)
+    static List<ReorderAlgorithmUnitTestCase> getTestCases(String testPath)
             throws IOException {
         List<ReorderAlgorithmUnitTestCase> cases = new ArrayList<>();
         Iterator<CellLayoutTestCaseReader.TestSection> iterableSection =
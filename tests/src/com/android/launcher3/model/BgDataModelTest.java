@@ -0,0 +1,158 @@
+/*
+ * Copyright 2024, Lawnchair
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.model;
+
+import static androidx.test.platform.app.InstrumentationRegistry.getInstrumentation;
+
+import static com.android.launcher3.LauncherSettings.Favorites.CONTAINER_DESKTOP;
+import static com.android.launcher3.util.Executors.MODEL_EXECUTOR;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import com.android.launcher3.model.BgDataModel.ItemsSnapshot;
+import com.android.launcher3.model.data.FolderInfo;
+import com.android.launcher3.model.data.WorkspaceItemInfo;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for the {@link ItemsSnapshot} published by {@link BgDataModel}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BgDataModelTest {
+
+    private Context mContext;
+    private BgDataModel mDataModel;
+
+    @Before
+    public void setup() {
+        mContext = getInstrumentation().getTargetContext();
+        mDataModel = new BgDataModel();
+    }
+
+    @Test
+    public void testSnapshotIsPublishedOnceForABurstOfChanges() throws Exception {
+        ItemsSnapshot initial = mDataModel.getItemsSnapshot();
+        WorkspaceItemInfo first = desktopItem(1);
+        WorkspaceItemInfo second = desktopItem(2);
+        FolderInfo folder = folder(3);
+
+        CountDownLatch release = new CountDownLatch(1);
+        MODEL_EXECUTOR.execute(() -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        try {
+            mDataModel.addItem(mContext, first, false);
+            mDataModel.addItem(mContext, second, false);
+            mDataModel.addItem(mContext, folder, false);
+            // Off the model thread, the snapshot is only published once it's done
+            assertSame(initial, mDataModel.getItemsSnapshot());
+        } finally {
+            release.countDown();
+        }
+        waitForModelThread();
+
+        ItemsSnapshot snapshot = mDataModel.getItemsSnapshot();
+        assertNotSame(initial, snapshot);
+        // A single snapshot with all the changes, not one per change
+        assertEquals(initial.version + 3, snapshot.version);
+        assertEquals(Arrays.asList(first, second, folder), snapshot.workspaceItems);
+        assertEquals(3, snapshot.itemsIdMap.size());
+        assertSame(folder, snapshot.folders.get(3));
+
+        // Nothing changed, nothing is published
+        mDataModel.publishItemsSnapshot();
+        assertSame(snapshot, mDataModel.getItemsSnapshot());
+    }
+
+    @Test
+    public void testSnapshotIsCurrentOnModelThread() throws Exception {
+        WorkspaceItemInfo item = desktopItem(1);
+        ItemsSnapshot snapshot = MODEL_EXECUTOR.submit(() -> {
+            mDataModel.addItem(mContext, item, false);
+            return mDataModel.getItemsSnapshot();
+        }).get(5, TimeUnit.SECONDS);
+
+        assertEquals(Arrays.asList(item), snapshot.workspaceItems);
+        assertSame(item, snapshot.itemsIdMap.get(1));
+
+        ItemsSnapshot afterRemove = MODEL_EXECUTOR.submit(() -> {
+            mDataModel.removeItem(mContext, item);
+            return mDataModel.getItemsSnapshot();
+        }).get(5, TimeUnit.SECONDS);
+        assertTrue(afterRemove.workspaceItems.isEmpty());
+        assertTrue(afterRemove.version > snapshot.version);
+    }
+
+    @Test
+    public void testSnapshotIsNotChangedByTheModel() throws Exception {
+        WorkspaceItemInfo first = desktopItem(1);
+        mDataModel.addItem(mContext, first, false);
+        waitForModelThread();
+        ItemsSnapshot snapshot = mDataModel.getItemsSnapshot();
+
+        mDataModel.addItem(mContext, desktopItem(2), false);
+        mDataModel.removeItem(mContext, first);
+        waitForModelThread();
+
+        assertEquals(Arrays.asList(first), snapshot.workspaceItems);
+        assertEquals(1, snapshot.itemsIdMap.size());
+        assertEquals(1, mDataModel.getItemsSnapshot().workspaceItems.size());
+        try {
+            snapshot.workspaceItems.add(first);
+            throw new AssertionError("The snapshot items can be modified");
+        } catch (UnsupportedOperationException e) {
+            // Expected
+        }
+    }
+
+    private static void waitForModelThread() throws Exception {
+        MODEL_EXECUTOR.submit(() -> null).get(5, TimeUnit.SECONDS);
+    }
+
+    private static WorkspaceItemInfo desktopItem(int id) {
+        WorkspaceItemInfo info = new WorkspaceItemInfo();
+        info.id = id;
+        info.container = CONTAINER_DESKTOP;
+        return info;
+    }
+
+    private static FolderInfo folder(int id) {
+        FolderInfo info = new FolderInfo();
+        info.id = id;
+        info.container = CONTAINER_DESKTOP;
+        return info;
+    }
+}
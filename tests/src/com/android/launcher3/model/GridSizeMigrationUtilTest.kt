@@ -19,6 +19,7 @@ import android.content.ContentValues
 import android.content.Context
 import android.content.Intent
 import android.database.Cursor
+import android.database.DatabaseUtils
 import android.database.sqlite.SQLiteDatabase
 import android.graphics.Point
 import android.os.Process
@@ -791,6 +792,46 @@ class GridSizeMigrationUtilTest {
         assertThat(locMap[testPackage5]).isEqualTo(0)
     }
 
+    /** Planning a migration with a dry run reader computes the layout without writing the DB */
+    @Test
+    @Throws(Exception::class)
+    fun planMigrationInDryRun() {
+        enableNewMigrationLogic("5,5")
+
+        // Setup src grid
+        addItem(ITEM_TYPE_APPLICATION, 0, CONTAINER_HOTSEAT, 0, 0, testPackage1, 5, TMP_TABLE)
+        addItem(ITEM_TYPE_APPLICATION, 0, CONTAINER_DESKTOP, 0, 1, testPackage2, 6, TMP_TABLE)
+        addItem(ITEM_TYPE_APPLICATION, 1, CONTAINER_DESKTOP, 0, 0, testPackage3, 7, TMP_TABLE)
+        addItem(ITEM_TYPE_APPLICATION, 2, CONTAINER_DESKTOP, 0, 0, testPackage4, 8, TMP_TABLE)
+        addItem(ITEM_TYPE_APPLICATION, 2, CONTAINER_DESKTOP, 1, 0, "invalid.package", 9, TMP_TABLE)
+
+        idp.numDatabaseHotseatIcons = 4
+        idp.numColumns = 4
+        idp.numRows = 4
+        val srcReader = DbReader(db, TMP_TABLE, context, validPackages, true /* dryRun */)
+        val plan =
+            GridSizeMigrationUtil.planMigration(
+                srcReader,
+                null,
+                idp.numDatabaseHotseatIcons,
+                Point(idp.numColumns, idp.numRows),
+                DeviceGridState(context),
+                DeviceGridState(idp)
+            )
+
+        assertThat(plan.hasItemsToAdd).isTrue()
+        assertThat(plan.removedIds.isEmpty).isTrue()
+        assertThat(plan.droppedEntries).isEmpty()
+        assertThat(srcReader.invalidEntryIds.toArray()).asList().containsExactly(9)
+        // Hotseat first, then all the icons fit the first screen
+        assertThat(plan.placedEntries.map { it.id }).containsExactly(5, 6, 7, 8).inOrder()
+        assertThat(plan.placedEntries.drop(1).map { it.screenId }).containsExactly(0, 0, 0)
+
+        // Nothing was written
+        assertThat(DatabaseUtils.queryNumEntries(db, TMP_TABLE)).isEqualTo(5)
+        assertThat(DatabaseUtils.queryNumEntries(db, TABLE_NAME)).isEqualTo(0)
+    }
+
     private fun enableNewMigrationLogic(srcGridSize: String) {
         LauncherPrefs.get(context).putSync(WORKSPACE_SIZE.to(srcGridSize))
     }
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2024, Lawnchair
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import com.android.launcher3.model.LoaderStageGraph.Stage;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for {@link LoaderStageGraph}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class LoaderStageGraphTest {
+
+    private final QueueExecutor mExecutor = new QueueExecutor();
+
+    @Test
+    public void testAwaitRunsQueuedStageOnCallingThread() {
+        LoaderStageGraph graph = new LoaderStageGraph(mExecutor, 2, new LoaderTrace());
+        AtomicInteger runs = new AtomicInteger();
+        Stage<Thread> stage = graph.add("stage", () -> {
+            runs.incrementAndGet();
+            return Thread.currentThread();
+        });
+        graph.start();
+        assertEquals(1, mExecutor.size());
+        assertEquals(1, graph.getStagesOnExecutor());
+
+        assertEquals(Thread.currentThread(), graph.await(stage));
+        assertEquals(0, graph.getStagesOnExecutor());
+
+        // The executor task finds the stage already run and skips it
+        mExecutor.runAll();
+        assertEquals(1, runs.get());
+        assertEquals(0, graph.getStagesOnExecutor());
+    }
+
+    @Test
+    public void testDependenciesRunInOrder() {
+        LoaderStageGraph graph = new LoaderStageGraph(mExecutor, 2, new LoaderTrace());
+        List<String> order = new ArrayList<>();
+        Stage<String> a = graph.add("a", () -> record(order, "a"));
+        Stage<String> b = graph.add("b", () -> record(order, "b"), a);
+        Stage<String> c = graph.add("c", () -> record(order, "c"), b);
+        graph.start();
+
+        // Only the stage without dependencies is ready
+        assertEquals(1, mExecutor.size());
+        mExecutor.runNext();
+        assertEquals(1, mExecutor.size());
+        mExecutor.runNext();
+        assertEquals(1, mExecutor.size());
+        mExecutor.runNext();
+        assertEquals(0, mExecutor.size());
+
+        assertEquals("c", graph.await(c));
+        assertEquals(Arrays.asList("a", "b", "c"), order);
+        assertEquals(0, graph.getStagesOnExecutor());
+    }
+
+    @Test
+    public void testAwaitRunsPendingDependencies() {
+        LoaderStageGraph graph = new LoaderStageGraph(mExecutor, 1, new LoaderTrace());
+        List<String> order = new ArrayList<>();
+        Stage<String> a = graph.add("a", () -> record(order, "a"));
+        Stage<String> b = graph.add("b", () -> record(order, "b"), a);
+
+        // Not started, both stages run on the calling thread
+        assertEquals("b", graph.await(b));
+        assertEquals(Arrays.asList("a", "b"), order);
+        assertEquals(0, mExecutor.size());
+    }
+
+    @Test
+    public void testMaxConcurrentStages() {
+        LoaderStageGraph graph = new LoaderStageGraph(mExecutor, 2, new LoaderTrace());
+        graph.add("a", () -> "a");
+        graph.add("b", () -> "b");
+        graph.add("c", () -> "c");
+        graph.start();
+        assertEquals(2, mExecutor.size());
+        assertEquals(2, graph.getStagesOnExecutor());
+
+        // A stage completing makes room for the next one
+        mExecutor.runNext();
+        assertEquals(2, mExecutor.size());
+        assertEquals(2, graph.getStagesOnExecutor());
+
+        mExecutor.runAll();
+        assertEquals(0, graph.getStagesOnExecutor());
+    }
+
+    @Test
+    public void testFailedStageReturnsNull() {
+        LoaderStageGraph graph = new LoaderStageGraph(mExecutor, 2, new LoaderTrace());
+        Stage<String> failing = graph.add("failing", () -> {
+            throw new IllegalStateException("Expected failure");
+        });
+        Stage<String> dependent = graph.add("dependent", () -> "dependent", failing);
+        graph.start();
+        mExecutor.runAll();
+
+        assertNull(graph.await(failing));
+        // A failed stage is complete, the stages depending on it still run
+        assertEquals("dependent", graph.await(dependent));
+        assertEquals(0, graph.getStagesOnExecutor());
+    }
+
+    @Test
+    public void testCancelSkipsQueuedStages() {
+        LoaderStageGraph graph = new LoaderStageGraph(mExecutor, 2, new LoaderTrace());
+        AtomicInteger runs = new AtomicInteger();
+        Stage<Integer> stage = graph.add("stage", runs::incrementAndGet);
+        graph.start();
+        graph.cancel();
+        mExecutor.runAll();
+
+        assertEquals(0, runs.get());
+        assertEquals(0, graph.getStagesOnExecutor());
+        assertNull(graph.await(stage));
+    }
+
+    @Test
+    public void testCancelWhileStageIsRunning() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            LoaderStageGraph graph = new LoaderStageGraph(executor, 1, new LoaderTrace());
+            CountDownLatch started = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            Stage<String> stage = graph.add("blocked", () -> {
+                started.countDown();
+                release.await();
+                return "blocked";
+            });
+            graph.start();
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            Thread canceller = new Thread(graph::cancel);
+            canceller.start();
+            // The stage is running on the executor, cancelling stops waiting for it
+            assertNull(graph.await(stage));
+            canceller.join();
+
+            release.countDown();
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+            assertEquals(0, graph.getStagesOnExecutor());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static String record(List<String> order, String name) {
+        synchronized (order) {
+            order.add(name);
+        }
+        return name;
+    }
+
+    /**
+     * Executor running its tasks on the test thread, only when asked to.
+     */
+    private static class QueueExecutor implements Executor {
+
+        private final ArrayDeque<Runnable> mTasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable task) {
+            mTasks.add(task);
+        }
+
+        int size() {
+            return mTasks.size();
+        }
+
+        void runNext() {
+            mTasks.removeFirst().run();
+        }
+
+        void runAll() {
+            while (!mTasks.isEmpty()) {
+                runNext();
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2024, Lawnchair
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.os.Process;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for {@link LoaderTrace}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class LoaderTraceTest {
+
+    @Test
+    public void testJsonExport() throws JSONException {
+        LoaderTrace trace = new LoaderTrace();
+        trace.split("loadWorkspace");
+        trace.addSpan("stage", 1_000_000, 3_000_000);
+        trace.setCount("workspaceItems", 12);
+        trace.finish(LoaderTrace.OUTCOME_COMPLETE);
+        LoaderTrace.History history = new LoaderTrace.History();
+        history.add(trace);
+
+        JSONObject json = writeJson(history);
+        assertEquals("ms", json.getString("displayTimeUnit"));
+        JSONArray events = json.getJSONArray("traceEvents");
+
+        JSONObject load = findEvent(events, "Load #0");
+        assertEquals("X", load.getString("ph"));
+        assertEquals("loader", load.getString("cat"));
+        assertEquals(Process.myPid(), load.getInt("pid"));
+        assertEquals(LoaderTrace.OUTCOME_COMPLETE, load.getJSONObject("args").getString("outcome"));
+        assertEquals(12, load.getJSONObject("args").getLong("workspaceItems"));
+
+        JSONObject stage = findEvent(events, "stage");
+        assertEquals("X", stage.getString("ph"));
+        assertEquals(1_000, stage.getLong("ts"));
+        assertEquals(2_000, stage.getLong("dur"));
+        assertEquals(Process.myTid(), stage.getInt("tid"));
+        assertEquals("Load #0", stage.getJSONObject("args").getString("load"));
+        findEvent(events, "loadWorkspace");
+
+        // Each thread with spans is named
+        JSONObject threadName = findEvent(events, "thread_name");
+        assertEquals("M", threadName.getString("ph"));
+        assertEquals(Process.myTid(), threadName.getInt("tid"));
+        assertEquals(Thread.currentThread().getName(),
+                threadName.getJSONObject("args").getString("name"));
+    }
+
+    @Test
+    public void testJsonExportOfRunningLoad() throws JSONException {
+        LoaderTrace.History history = new LoaderTrace.History();
+        history.add(new LoaderTrace());
+
+        JSONObject load = findEvent(writeJson(history).getJSONArray("traceEvents"), "Load #0");
+        assertEquals("running", load.getJSONObject("args").getString("outcome"));
+        assertTrue(load.getLong("dur") >= 0);
+    }
+
+    @Test
+    public void testHistoryKeepsLastLoads() throws JSONException {
+        LoaderTrace.History history = new LoaderTrace.History();
+        for (int i = 0; i < 12; i++) {
+            LoaderTrace trace = new LoaderTrace();
+            trace.setCount("index", i);
+            trace.finish(LoaderTrace.OUTCOME_COMPLETE);
+            history.add(trace);
+        }
+
+        JSONArray events = writeJson(history).getJSONArray("traceEvents");
+        List<Long> indexes = new ArrayList<>();
+        for (int i = 0; i < events.length(); i++) {
+            JSONObject event = events.getJSONObject(i);
+            if (event.getString("name").startsWith("Load #")) {
+                indexes.add(event.getJSONObject("args").getLong("index"));
+            }
+        }
+        // The two oldest loads were dropped, the others are kept oldest first
+        List<Long> expected = new ArrayList<>();
+        for (long i = 2; i < 12; i++) {
+            expected.add(i);
+        }
+        assertEquals(expected, indexes);
+    }
+
+    private static JSONObject writeJson(LoaderTrace.History history) throws JSONException {
+        StringWriter out = new StringWriter();
+        try (PrintWriter writer = new PrintWriter(out)) {
+            history.writeJson(writer);
+        }
+        return new JSONObject(out.toString());
+    }
+
+    private static JSONObject findEvent(JSONArray events, String name) throws JSONException {
+        for (int i = 0; i < events.length(); i++) {
+            JSONObject event = events.getJSONObject(i);
+            if (name.equals(event.getString("name"))) {
+                return event;
+            }
+        }
+        throw new AssertionError("No event named " + name + " in " + events);
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2024, Lawnchair
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.model;
+
+import static com.android.launcher3.LauncherSettings.Favorites.TABLE_NAME;
+import static com.android.launcher3.provider.LauncherDbUtils.itemIdMatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.SQLException;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import com.android.launcher3.LauncherSettings.Favorites;
+import com.android.launcher3.provider.LauncherDbUtils.SQLiteTransaction;
+import com.android.launcher3.util.LauncherModelHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests for the item updates written later by {@link ModelDbController}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ModelDbControllerTest {
+
+    private LauncherModelHelper mModelHelper;
+    private MyModelDbController mController;
+
+    @Before
+    public void setup() {
+        mModelHelper = new LauncherModelHelper();
+        mController = new MyModelDbController(mModelHelper.sandboxContext);
+        for (int i = 1; i <= 3; i++) {
+            ContentValues values = new ContentValues();
+            values.put(Favorites._ID, i);
+            values.put(Favorites.TITLE, "item " + i);
+            values.put(Favorites.CELLX, 0);
+            values.put(Favorites.CELLY, 0);
+            mController.insert(TABLE_NAME, values);
+        }
+        mController.mTransactionCount = 0;
+    }
+
+    @After
+    public void teardown() {
+        mModelHelper.destroy();
+    }
+
+    @Test
+    public void testUpdatesOfAnItemAreMerged() {
+        mController.updateItemLater(1, cellValues(Favorites.CELLX, 2));
+        mController.updateItemLater(1, cellValues(Favorites.CELLY, 3));
+        mController.updateItemLater(1, cellValues(Favorites.CELLX, 4));
+        mController.flushPendingItemUpdates();
+
+        // The last value of each column wins, no column is lost
+        assertEquals(4, getCell(1, Favorites.CELLX));
+        assertEquals(3, getCell(1, Favorites.CELLY));
+        assertEquals(0, getCell(2, Favorites.CELLX));
+    }
+
+    @Test
+    public void testUpdatesAreWrittenInOneTransaction() {
+        for (int i = 1; i <= 3; i++) {
+            mController.updateItemLater(i, cellValues(Favorites.CELLX, i));
+        }
+        mController.flushPendingItemUpdates();
+        assertEquals(1, mController.mTransactionCount);
+
+        // Nothing left to write
+        mController.flushPendingItemUpdates();
+        assertEquals(1, mController.mTransactionCount);
+        for (int i = 1; i <= 3; i++) {
+            assertEquals(i, getCell(i, Favorites.CELLX));
+        }
+    }
+
+    @Test
+    public void testQueryAndDeleteWritePendingUpdates() {
+        mController.updateItemLater(1, cellValues(Favorites.CELLX, 5));
+        assertEquals(5, getCell(1, Favorites.CELLX));
+
+        mController.updateItemLater(2, cellValues(Favorites.CELLY, 6));
+        assertEquals(1, mController.delete(TABLE_NAME, itemIdMatch(3), null));
+        mController.mTransactionCount = 0;
+        mController.flushPendingItemUpdates();
+        assertEquals(0, mController.mTransactionCount);
+        assertEquals(6, getCell(2, Favorites.CELLY));
+    }
+
+    @Test
+    public void testFailedUpdatesAreWrittenAgain() {
+        mController.updateItemLater(1, cellValues(Favorites.CELLX, 2));
+        mController.updateItemLater(2, cellValues(Favorites.CELLX, 3));
+        // Reading the item also tries to write the updates, failing again
+        mController.mFailingTransactions = 2;
+        mController.flushPendingItemUpdates();
+        assertEquals(0, getCell(1, Favorites.CELLX));
+
+        // Newer values are merged with the ones which failed to be written
+        mController.updateItemLater(1, cellValues(Favorites.CELLY, 4));
+        mController.flushPendingItemUpdates();
+        assertEquals(2, getCell(1, Favorites.CELLX));
+        assertEquals(4, getCell(1, Favorites.CELLY));
+        assertEquals(3, getCell(2, Favorites.CELLX));
+    }
+
+    @Test
+    public void testUpdatesAreDroppedAfterRetries() {
+        mController.updateItemLater(1, cellValues(Favorites.CELLX, 2));
+        mController.mFailingTransactions = Integer.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            mController.flushPendingItemUpdates();
+        }
+        assertEquals(4, mController.mTransactionCount);
+
+        mController.mFailingTransactions = 0;
+        assertEquals(0, getCell(1, Favorites.CELLX));
+        mController.flushPendingItemUpdates();
+        assertEquals(4, mController.mTransactionCount);
+    }
+
+    private int getCell(int itemId, String column) {
+        try (Cursor c = mController.query(TABLE_NAME, new String[] {column},
+                itemIdMatch(itemId), null, null)) {
+            assertTrue(c.moveToNext());
+            return c.getInt(0);
+        }
+    }
+
+    private static ContentValues cellValues(String column, int value) {
+        ContentValues values = new ContentValues();
+        values.put(column, value);
+        return values;
+    }
+
+    private static class MyModelDbController extends ModelDbController {
+
+        int mTransactionCount = 0;
+        int mFailingTransactions = 0;
+
+        MyModelDbController(Context context) {
+            super(context);
+        }
+
+        @Override
+        public SQLiteTransaction newTransaction() {
+            mTransactionCount++;
+            if (mFailingTransactions > 0) {
+                mFailingTransactions--;
+                throw new SQLException("Expected failure");
+            }
+            return super.newTransaction();
+        }
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright 2024, Lawnchair
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.model;
+
+import static com.android.launcher3.LauncherSettings.Favorites.CONTAINER_DESKTOP;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.os.Process;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import com.android.launcher3.InvariantDeviceProfile;
+import com.android.launcher3.icons.BitmapInfo;
+import com.android.launcher3.model.data.FolderInfo;
+import com.android.launcher3.model.data.ItemInfo;
+import com.android.launcher3.model.data.LauncherAppWidgetInfo;
+import com.android.launcher3.model.data.WorkspaceItemInfo;
+import com.android.launcher3.util.LauncherModelHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for {@link WorkspaceSnapshot}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class WorkspaceSnapshotTest {
+
+    private static final int APP_ID = 1;
+    private static final int FOLDER_ID = 2;
+    private static final int FOLDER_APP_ID = 3;
+    private static final int WIDGET_ID = 4;
+
+    private LauncherModelHelper mModelHelper;
+    private Context mContext;
+    private File mFile;
+    private InvariantDeviceProfile mIdp;
+
+    @Before
+    public void setup() {
+        mModelHelper = new LauncherModelHelper();
+        mContext = mModelHelper.sandboxContext;
+        mFile = new File(mContext.getCacheDir(), "workspace_snapshot_test.bin");
+        mFile.delete();
+        mIdp = createIdp("launcher_5_by_5.db", 5);
+    }
+
+    @After
+    public void teardown() {
+        mFile.delete();
+        mModelHelper.destroy();
+    }
+
+    @Test
+    public void testReadWrittenWorkspace() {
+        new WorkspaceSnapshot(mContext, mFile).onWorkspaceLoaded(
+                createDataModel(), mIdp, mIdp.dbFile);
+        List<ItemInfo> items = new WorkspaceSnapshot(mContext, mFile).readOnColdStart(mIdp);
+
+        assertNotNull(items);
+        assertEquals(4, items.size());
+        // Workspace items, each folder followed by its contents, then widgets
+        WorkspaceItemInfo app = (WorkspaceItemInfo) items.get(0);
+        assertEquals(APP_ID, app.id);
+        assertEquals(CONTAINER_DESKTOP, app.container);
+        assertEquals("App", app.title.toString());
+        assertEquals(new ComponentName("com.example", "com.example.App"), app.getTargetComponent());
+        assertEquals(Process.myUserHandle(), app.user);
+
+        FolderInfo folder = (FolderInfo) items.get(1);
+        assertEquals(FOLDER_ID, folder.id);
+        assertEquals("Folder", folder.title.toString());
+        assertEquals(1, folder.cellX);
+
+        WorkspaceItemInfo folderApp = (WorkspaceItemInfo) items.get(2);
+        assertEquals(FOLDER_APP_ID, folderApp.id);
+        assertEquals(FOLDER_ID, folderApp.container);
+        assertEquals(0, folderApp.rank);
+
+        LauncherAppWidgetInfo widget = (LauncherAppWidgetInfo) items.get(3);
+        assertEquals(WIDGET_ID, widget.id);
+        assertEquals(10, widget.appWidgetId);
+        assertEquals(new ComponentName("com.example", "com.example.Widget"), widget.providerName);
+        assertEquals(2, widget.spanX);
+        assertEquals(2, widget.spanY);
+
+        // Only read on the cold start
+        WorkspaceSnapshot snapshot = new WorkspaceSnapshot(mContext, mFile);
+        assertNotNull(snapshot.readOnColdStart(mIdp));
+        assertNull(snapshot.readOnColdStart(mIdp));
+    }
+
+    @Test
+    public void testOtherGridOrDatabaseIsIgnored() {
+        new WorkspaceSnapshot(mContext, mFile).onWorkspaceLoaded(
+                createDataModel(), mIdp, mIdp.dbFile);
+
+        assertNull(new WorkspaceSnapshot(mContext, mFile).readOnColdStart(
+                createIdp("launcher_4_by_4.db", 4)));
+        assertNull(new WorkspaceSnapshot(mContext, mFile).readOnColdStart(
+                createIdp("launcher_5_by_5.db", 4)));
+        assertNull(new WorkspaceSnapshot(mContext, mFile).readOnColdStart(
+                createIdp("other.db", 5)));
+        assertNotNull(new WorkspaceSnapshot(mContext, mFile).readOnColdStart(mIdp));
+    }
+
+    @Test
+    public void testWorkspaceOfOtherDatabaseIsNotWritten() {
+        new WorkspaceSnapshot(mContext, mFile).onWorkspaceLoaded(
+                createDataModel(), mIdp, "preview.db");
+
+        assertFalse(mFile.exists());
+        assertNull(new WorkspaceSnapshot(mContext, mFile).readOnColdStart(mIdp));
+    }
+
+    @Test
+    public void testUnchangedWorkspaceIsNotSavedAgain() {
+        BgDataModel dataModel = createDataModel();
+        WorkspaceSnapshot snapshot = new WorkspaceSnapshot(mContext, mFile);
+        snapshot.onWorkspaceLoaded(dataModel, mIdp, mIdp.dbFile);
+        assertTrue(mFile.delete());
+
+        snapshot.save(dataModel, mIdp);
+        assertFalse(mFile.exists());
+
+        dataModel.itemsIdMap.get(APP_ID).cellX = 3;
+        dataModel.onItemsChanged();
+        snapshot.save(dataModel, mIdp);
+        List<ItemInfo> items = new WorkspaceSnapshot(mContext, mFile).readOnColdStart(mIdp);
+        assertNotNull(items);
+        assertEquals(3, items.get(0).cellX);
+    }
+
+    @Test
+    public void testReconcileKeepsSnapshotItems() {
+        List<ItemInfo> snapshotItems = writeAndRead();
+        BgDataModel loaded = createDataModel();
+
+        assertTrue(WorkspaceSnapshot.reconcile(snapshotItems, loaded, new ArrayList<>()));
+        // The model now holds the items bound from the snapshot
+        for (ItemInfo item : snapshotItems) {
+            assertSame(item, loaded.itemsIdMap.get(item.id));
+        }
+        assertSame(snapshotItems.get(0), loaded.workspaceItems.get(0));
+        assertSame(snapshotItems.get(1), loaded.folders.get(FOLDER_ID));
+        assertSame(snapshotItems.get(3), loaded.appWidgets.get(0));
+    }
+
+    @Test
+    public void testReconcileFailsWhenAnItemMoved() {
+        List<ItemInfo> snapshotItems = writeAndRead();
+        BgDataModel loaded = createDataModel();
+        loaded.itemsIdMap.get(APP_ID).cellX = 3;
+
+        assertFalse(WorkspaceSnapshot.reconcile(snapshotItems, loaded, new ArrayList<>()));
+        assertEquals(3, loaded.itemsIdMap.get(APP_ID).cellX);
+        assertNotSame(snapshotItems.get(0), loaded.itemsIdMap.get(APP_ID));
+    }
+
+    @Test
+    public void testReconcileReportsChangedItems() {
+        List<ItemInfo> snapshotItems = writeAndRead();
+        BgDataModel loaded = createDataModel();
+        WorkspaceItemInfo renamed = (WorkspaceItemInfo) loaded.itemsIdMap.get(APP_ID);
+        renamed.title = "Renamed";
+        WorkspaceItemInfo newIcon = (WorkspaceItemInfo) loaded.itemsIdMap.get(FOLDER_APP_ID);
+        newIcon.bitmap = BitmapInfo.of(Bitmap.createBitmap(10, 10, Bitmap.Config.ALPHA_8), 0);
+
+        List<WorkspaceItemInfo> updated = new ArrayList<>();
+        assertTrue(WorkspaceSnapshot.reconcile(snapshotItems, loaded, updated));
+        assertEquals(2, updated.size());
+        assertSame(snapshotItems.get(0), updated.get(0));
+        assertSame(snapshotItems.get(2), updated.get(1));
+        assertEquals("Renamed", updated.get(0).title.toString());
+        assertSame(newIcon.bitmap, updated.get(1).bitmap);
+    }
+
+    /**
+     * Returns the items read from the snapshot, added to a model as when they're bound.
+     */
+    private List<ItemInfo> writeAndRead() {
+        new WorkspaceSnapshot(mContext, mFile).onWorkspaceLoaded(
+                createDataModel(), mIdp, mIdp.dbFile);
+        List<ItemInfo> items = new WorkspaceSnapshot(mContext, mFile).readOnColdStart(mIdp);
+        assertNotNull(items);
+        BgDataModel bound = new BgDataModel();
+        for (ItemInfo item : items) {
+            bound.addItem(mContext, item, false);
+        }
+        return items;
+    }
+
+    /**
+     * Returns a new model with an app, a folder with an app and a widget on the workspace, the
+     * same items every time as the loader would load them.
+     */
+    private BgDataModel createDataModel() {
+        BgDataModel dataModel = new BgDataModel();
+        dataModel.addItem(mContext, createApp(APP_ID, CONTAINER_DESKTOP, 0, "App"), false);
+
+        FolderInfo folder = new FolderInfo();
+        folder.id = FOLDER_ID;
+        folder.container = CONTAINER_DESKTOP;
+        folder.cellX = 1;
+        folder.spanX = 1;
+        folder.spanY = 1;
+        folder.title = "Folder";
+        dataModel.addItem(mContext, folder, false);
+        dataModel.addItem(mContext, createApp(FOLDER_APP_ID, FOLDER_ID, 0, "Folder app"), false);
+
+        LauncherAppWidgetInfo widget = new LauncherAppWidgetInfo(
+                10, new ComponentName("com.example", "com.example.Widget"));
+        widget.id = WIDGET_ID;
+        widget.container = CONTAINER_DESKTOP;
+        widget.cellY = 1;
+        widget.spanX = 2;
+        widget.spanY = 2;
+        dataModel.addItem(mContext, widget, false);
+        return dataModel;
+    }
+
+    private static WorkspaceItemInfo createApp(int id, int container, int cellX, String title) {
+        WorkspaceItemInfo info = new WorkspaceItemInfo();
+        info.id = id;
+        info.container = container;
+        info.cellX = cellX;
+        info.spanX = 1;
+        info.spanY = 1;
+        info.title = title;
+        info.user = Process.myUserHandle();
+        info.intent = new Intent(Intent.ACTION_MAIN)
+                .addCategory(Intent.CATEGORY_LAUNCHER)
+                .setComponent(new ComponentName("com.example", "com.example.App"));
+        return info;
+    }
+
+    private static InvariantDeviceProfile createIdp(String dbFile, int numColumns) {
+        InvariantDeviceProfile idp = new InvariantDeviceProfile();
+        idp.dbFile = dbFile;
+        idp.numColumns = numColumns;
+        idp.numRows = 5;
+        idp.numDatabaseHotseatIcons = 5;
+        return idp;
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2024, Lawnchair
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.launcher3.model.data.AppInfo;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.ToIntBiFunction;
+
+/**
+ * Unit tests for {@link AppTitleSearchIndex}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class AppTitleSearchIndexTest {
+
+    private AppTitleSearchIndex mIndex;
+
+    @Before
+    public void setup() {
+        mIndex = new AppTitleSearchIndex();
+    }
+
+    @Test
+    public void testQueryMatchesWordStarts() {
+        AppInfo youTube = app("YouTube");
+        AppInfo playStore = app("Play Store");
+        AppInfo tMobile = app("t-mobile");
+        mIndex.rebuild(Arrays.asList(youTube, playStore, tMobile));
+
+        assertEquals(Arrays.asList(youTube), query("you"));
+        assertEquals(Arrays.asList(youTube), query("tube"));
+        assertEquals(Arrays.asList(playStore), query("store"));
+        assertEquals(Arrays.asList(tMobile), query("mob"));
+        assertTrue(query("out").isEmpty());
+        assertTrue(query("lay").isEmpty());
+    }
+
+    @Test
+    public void testQueryKeepsInsertionOrder() {
+        AppInfo calendar = app("Calendar");
+        AppInfo calculator = app("Calculator");
+        AppInfo camera = app("Camera");
+        mIndex.add(calendar);
+        mIndex.add(calculator);
+        mIndex.add(camera);
+
+        assertEquals(Arrays.asList(calendar, calculator, camera), query("ca"));
+
+        calendar.title = "Agenda Calendar";
+        mIndex.update(calendar);
+        assertEquals(Arrays.asList(calendar, calculator), query("cal"));
+        assertEquals(Arrays.asList(calendar), query("ag"));
+    }
+
+    @Test
+    public void testQueryAfterRemove() {
+        AppInfo chrome = app("Chrome");
+        AppInfo clock = app("Clock");
+        mIndex.add(chrome);
+        mIndex.add(clock);
+
+        mIndex.remove(chrome);
+        assertTrue(query("chr").isEmpty());
+        assertEquals(Arrays.asList(clock), query("c"));
+        assertEquals(1, mIndex.size());
+    }
+
+    @Test
+    public void testQueryIgnoresAccentsAndCase() {
+        AppInfo cafe = app("Café Éclair");
+        mIndex.add(cafe);
+
+        assertEquals(Arrays.asList(cafe), query("cafe"));
+        assertEquals(Arrays.asList(cafe), query("ecl"));
+    }
+
+    @Test
+    public void testQueryUsesCollatorEquivalences() {
+        AppInfo ssh = app("SSH Client");
+        AppInfo strasse = app("Straße");
+        mIndex.rebuild(Arrays.asList(ssh, strasse));
+
+        assertEquals(Arrays.asList(ssh), query("ß"));
+        assertEquals(Arrays.asList(strasse), query("strasse"));
+    }
+
+    @Test
+    public void testQueryKoreanInitialConsonant() {
+        AppInfo download = app("다운로드 드라이브");
+        AppInfo drive = app("운로 드라이브");
+        AppInfo noBreak = app("로드라이브");
+        mIndex.rebuild(Arrays.asList(download, drive, noBreak));
+
+        assertEquals(Arrays.asList(download, drive), query("ㄷ"));
+        assertEquals(Arrays.asList(download), query("다"));
+    }
+
+    @Test
+    public void testQueryChineseMatchesAnywhere() {
+        AppInfo mail = app("电子邮件");
+        mIndex.add(mail);
+
+        assertEquals(Arrays.asList(mail), query("邮件"));
+    }
+
+    @Test
+    public void testQueryLimitAndFilter() {
+        AppInfo first = app("Files");
+        AppInfo second = app("Firefox");
+        AppInfo third = app("Fitness");
+        mIndex.rebuild(Arrays.asList(first, second, third));
+
+        assertEquals(Arrays.asList(first, second), mIndex.query("fi", 2, info -> true));
+        assertEquals(Arrays.asList(second, third),
+                mIndex.query("fi", 5, info -> info != first));
+    }
+
+    @Test
+    public void testFuzzyQueryKeepsBestScores() {
+        AppInfo calendar = app("Calendar");
+        AppInfo calculator = app("Calculator");
+        AppInfo camera = app("Camera");
+        AppInfo clock = app("Clock");
+        mIndex.rebuild(Arrays.asList(calendar, calculator, camera, clock));
+
+        // Scores by the length of the common prefix
+        ToIntBiFunction<String, String> scorer = (query, text) -> {
+            int i = 0;
+            while (i < query.length() && i < text.length()
+                    && query.charAt(i) == text.charAt(i)) {
+                i++;
+            }
+            return i * 10;
+        };
+
+        assertEquals(Arrays.asList(calculator, calendar),
+                mIndex.fuzzyQuery("calcu", 2, 0, scorer, info -> true));
+        assertEquals(Arrays.asList(calculator),
+                mIndex.fuzzyQuery("calcu", 5, 50, scorer, info -> true));
+        // Equal scores keep the insertion order
+        assertEquals(Arrays.asList(calendar, calculator, camera),
+                mIndex.fuzzyQuery("ca", 5, 20, scorer, info -> true));
+        assertEquals(Arrays.asList(calendar, camera),
+                mIndex.fuzzyQuery("ca", 5, 20, scorer, info -> info != calculator));
+    }
+
+    private List<AppInfo> query(String query) {
+        return mIndex.query(query, Integer.MAX_VALUE, info -> true);
+    }
+
+    private static AppInfo app(String title) {
+        AppInfo info = new AppInfo();
+        info.title = title;
+        return info;
+    }
+}
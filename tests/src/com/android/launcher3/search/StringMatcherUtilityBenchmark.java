@@ -0,0 +1,149 @@
+/*
+ * Copyright 2024, Lawnchair
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.search;
+
+import static org.junit.Assert.assertEquals;
+
+import android.util.Log;
+
+import androidx.test.filters.LargeTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.launcher3.search.StringMatcherUtility.PreparedQuery;
+import com.android.launcher3.search.StringMatcherUtility.PreparedTarget;
+import com.android.launcher3.search.StringMatcherUtility.StringMatcher;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+/**
+ * Micro benchmark comparing {@link StringMatcherUtility#matches(String, String, StringMatcher)}
+ * with its prepared counterpart, over a set of titles the size of a crowded app drawer.
+ *
+ * Each case runs a number of warm up rounds, then reports the average time per query over the
+ * measured rounds in logcat under {@link #TAG}.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class StringMatcherUtilityBenchmark {
+
+    private static final String TAG = "StringMatcherBenchmark";
+
+    private static final int TITLE_COUNT = 500;
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int MEASURED_ROUNDS = 100;
+
+    private static final String[] WORDS = {
+            "Play", "Store", "Calculator", "Camera", "YouTube", "Music", "Maps", "Files",
+            "Settings", "Clock", "Calendar", "Photos", "Chrome", "Messages", "Phone", "Contacts",
+            "Café", "Éclair", "t-mobile", "LEGO®", "电子邮件", "다운로드", "Weather", "Notes",
+    };
+    private static final String[] QUERIES = {"c", "ca", "cal", "calc", "play s", "tube", "mob",
+            "cafe", "邮件", "xyz"};
+
+    private final StringMatcher mMatcher = StringMatcher.getInstance();
+
+    private String[] mTitles;
+    private PreparedTarget[] mPreparedTitles;
+
+    @Before
+    public void setup() {
+        Random random = new Random(42);
+        mTitles = new String[TITLE_COUNT];
+        mPreparedTitles = new PreparedTarget[TITLE_COUNT];
+        for (int i = 0; i < TITLE_COUNT; i++) {
+            mTitles[i] = WORDS[random.nextInt(WORDS.length)] + " "
+                    + WORDS[random.nextInt(WORDS.length)] + (i % 7 == 0 ? i : "");
+            mPreparedTitles[i] = mMatcher.prepareTarget(mTitles[i]);
+        }
+    }
+
+    @Test
+    public void benchmarkMatches() {
+        int expected = 0;
+        for (String query : QUERIES) {
+            expected += countMatches(query);
+        }
+        int actual = 0;
+        for (String query : QUERIES) {
+            actual += countPreparedMatches(mMatcher.prepareQuery(query));
+        }
+        assertEquals(expected, actual);
+
+        long stringMatchNanos = measure(() -> {
+            for (String query : QUERIES) {
+                countMatches(query);
+            }
+        });
+        long preparedMatchNanos = measure(() -> {
+            for (String query : QUERIES) {
+                countPreparedMatches(mMatcher.prepareQuery(query));
+            }
+        });
+
+        Log.d(TAG, String.format("matches(String, String): %d ns/query",
+                stringMatchNanos / QUERIES.length));
+        Log.d(TAG, String.format("matches(PreparedQuery, PreparedTarget): %d ns/query",
+                preparedMatchNanos / QUERIES.length));
+    }
+
+    @Test
+    public void benchmarkPrepareTarget() {
+        long prepareNanos = measure(() -> {
+            for (String title : mTitles) {
+                mMatcher.prepareTarget(title);
+            }
+        });
+        Log.d(TAG, String.format("prepareTarget: %d ns/title", prepareNanos / TITLE_COUNT));
+    }
+
+    private int countMatches(String query) {
+        int count = 0;
+        for (String title : mTitles) {
+            if (StringMatcherUtility.matches(query, title, mMatcher)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private int countPreparedMatches(PreparedQuery query) {
+        int count = 0;
+        for (PreparedTarget title : mPreparedTitles) {
+            if (StringMatcherUtility.matches(query, title)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the average duration of {@param round} in nanoseconds, after warm up.
+     */
+    private static long measure(Runnable round) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            round.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            round.run();
+        }
+        return (System.nanoTime() - start) / MEASURED_ROUNDS;
+    }
+}
@@ -142,6 +142,27 @@ public class StringMatcherUtilityTest {
         assertFalse(matches("elephants", "elephant", MATCHER_SPACE));
     }
 
+    @Test
+    public void testPreparedMatches() {
+        String[][] pairs = {
+                {"white", "white cow"}, {"white c", "white cow"}, {"cow", "whiteCow"},
+                {"cow", "whiteCOW"}, {"cow", "white2cow"}, {"cow", "whitecow"},
+                {"cow", "whitEcow"}, {"cow", "whit ecowcow"}, {"dog", "cats&Dogs"},
+                {"&", "cats&Dogs"}, {"43", "2+43"}, {"3", "2+43"}, {"q", "  Q"},
+                {"el", "Elephant"}, {"电子", "电子邮件"}, {"邮件", "电子邮件"}, {"ba", "Bot"},
+                {"phant", "elephant"}, {"elephants", "elephant"}, {"다", "다운로드"},
+                {"ㄷ", "운로 드라이브"}, {"ㄷㄷ", "다운로드 드라이브"}, {"åbç", "abc"},
+                {"ål", "Alpha"}, {"åç", "abc"}, {"mob", "t-mobile"}, {"", "empty"},
+        };
+        for (StringMatcher matcher : new StringMatcher[] {MATCHER, MATCHER_SPACE}) {
+            for (String[] pair : pairs) {
+                assertEquals(pair[0] + " in " + pair[1],
+                        matches(pair[0], pair[1], matcher),
+                        matches(matcher.prepareQuery(pair[0]), matcher.prepareTarget(pair[1])));
+            }
+        }
+    }
+
     @Test
     public void testStringWithProperBreaks() {
         // empty string
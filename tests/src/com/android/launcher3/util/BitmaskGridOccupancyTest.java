@@ -0,0 +1,156 @@
+/*
+ * Copyright 2024, Lawnchair
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Rect;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Unit tests for {@link BitmaskGridOccupancy}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BitmaskGridOccupancyTest {
+
+    @Test
+    public void testFindVacantCell() {
+        BitmaskGridOccupancy grid = initGrid(4,
+                1, 1, 1, 0, 0,
+                0, 0, 1, 1, 0,
+                0, 0, 0, 0, 0,
+                1, 1, 0, 0, 0
+        );
+
+        int[] vacant = new int[2];
+        assertTrue(grid.findVacantCell(vacant, 2, 2));
+        assertEquals(vacant[0], 0);
+        assertEquals(vacant[1], 1);
+
+        assertTrue(grid.findVacantCell(vacant, 3, 2));
+        assertEquals(vacant[0], 2);
+        assertEquals(vacant[1], 2);
+
+        assertFalse(grid.findVacantCell(vacant, 3, 3));
+    }
+
+    @Test
+    public void testIsRegionVacant() {
+        BitmaskGridOccupancy grid = initGrid(4,
+                1, 1, 1, 0, 0,
+                0, 0, 1, 1, 0,
+                0, 0, 0, 0, 0,
+                1, 1, 0, 0, 0
+        );
+
+        assertTrue(grid.isRegionVacant(4, 0, 1, 4));
+        assertTrue(grid.isRegionVacant(0, 1, 2, 2));
+        assertTrue(grid.isRegionVacant(2, 2, 3, 2));
+
+        assertFalse(grid.isRegionVacant(3, 0, 2, 4));
+        assertFalse(grid.isRegionVacant(0, 0, 2, 1));
+    }
+
+    @Test
+    public void testFindVacantX() {
+        BitmaskGridOccupancy grid = initGrid(4,
+                1, 1, 1, 0, 0,
+                0, 0, 1, 1, 0,
+                0, 0, 0, 0, 0,
+                1, 1, 0, 0, 0
+        );
+
+        assertEquals(3, grid.findVacantX(0, 0, 2, 1));
+        assertEquals(4, grid.findVacantX(0, 4, 1, 2));
+        assertEquals(0, grid.findVacantX(1, 0, 2, 2));
+        assertEquals(2, grid.findVacantX(2, 1, 3, 2));
+        assertEquals(-1, grid.findVacantX(1, 1, 3, 2));
+        assertEquals(-1, grid.findVacantX(3, 0, 1, 2));
+    }
+
+    @Test
+    public void testGetOccupiedCount() {
+        BitmaskGridOccupancy grid = initGrid(4,
+                1, 1, 1, 0, 0,
+                0, 0, 1, 1, 0,
+                0, 0, 0, 0, 0,
+                1, 1, 0, 0, 0
+        );
+
+        assertEquals(7, grid.getOccupiedCount(0, 0, 5, 4));
+        assertEquals(3, grid.getOccupiedCount(1, 0, 2, 2));
+        assertEquals(0, grid.getOccupiedCount(2, 2, 3, 2));
+        // Clipped to the grid
+        assertEquals(2, grid.getOccupiedCount(-1, 3, 3, 3));
+
+        grid.markCells(2, 2, 3, 2, true);
+        assertEquals(6, grid.getOccupiedCount(2, 2, 3, 2));
+    }
+
+    @Test
+    public void testFindLargestVacantRegion() {
+        BitmaskGridOccupancy grid = initGrid(4,
+                1, 1, 1, 0, 0,
+                0, 0, 1, 1, 0,
+                0, 0, 0, 0, 0,
+                1, 1, 0, 0, 0
+        );
+
+        Rect region = new Rect();
+        assertEquals(6, grid.findLargestVacantRegion(region));
+        assertEquals(new Rect(2, 2, 5, 4), region);
+
+        grid.markCells(0, 0, 5, 4, true);
+        assertEquals(0, grid.findLargestVacantRegion(region));
+        assertTrue(region.isEmpty());
+    }
+
+    @Test
+    public void testCopy() {
+        GridOccupancy src = new GridOccupancy(5, 4);
+        src.markCells(1, 1, 2, 2, true);
+        BitmaskGridOccupancy grid = new BitmaskGridOccupancy(5, 4);
+        grid.copyFrom(src);
+        BitmaskGridOccupancy copy = new BitmaskGridOccupancy(5, 4);
+        grid.copyTo(copy);
+
+        assertEquals(4, copy.getOccupiedCount(0, 0, 5, 4));
+        assertTrue(copy.isOccupied(2, 2));
+        assertFalse(copy.isOccupied(3, 2));
+        assertEquals(src.toString(), copy.toString());
+    }
+
+    private BitmaskGridOccupancy initGrid(int rows, int... cells) {
+        int cols = cells.length / rows;
+        int i = 0;
+        BitmaskGridOccupancy grid = new BitmaskGridOccupancy(cols, rows);
+        for (int y = 0; y < rows; y++) {
+            for (int x = 0; x < cols; x++) {
+                grid.markCells(x, y, 1, 1, cells[i] != 0);
+                i++;
+            }
+        }
+        return grid;
+    }
+}
@@ -2,6 +2,7 @@ package com.android.launcher3.util;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
 
 import androidx.test.ext.junit.runners.AndroidJUnit4;
@@ -55,6 +56,32 @@ public class GridOccupancyTest {
         assertFalse(grid.isRegionVacant(0, 0, 2, 1));
     }
 
+    @Test
+    public void testModCount() {
+        GridOccupancy grid = new GridOccupancy(5, 4);
+        int modCount = grid.getModCount();
+
+        grid.markCells(1, 1, 2, 2, true);
+        assertNotEquals(modCount, grid.getModCount());
+        modCount = grid.getModCount();
+
+        grid.clear();
+        assertNotEquals(modCount, grid.getModCount());
+        modCount = grid.getModCount();
+
+        // Copying over a grid modifies it, not the source
+        GridOccupancy copy = new GridOccupancy(5, 4);
+        int copyModCount = copy.getModCount();
+        grid.copyTo(copy);
+        assertNotEquals(copyModCount, copy.getModCount());
+        assertEquals(modCount, grid.getModCount());
+
+        // Reads keep it
+        grid.isRegionVacant(0, 0, 2, 2);
+        grid.findVacantCell(new int[2], 1, 1);
+        assertEquals(modCount, grid.getModCount());
+    }
+
     private GridOccupancy initGrid(int rows, int... cells) {
         int cols = cells.length / rows;
         int i = 0;